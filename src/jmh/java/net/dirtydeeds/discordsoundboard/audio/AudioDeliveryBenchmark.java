@@ -0,0 +1,114 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jitter of the asks for frames of an audio thread that runs every 20 ms like JDA's, on an idle host and with every
+ * core kept busy. An operation waits for the next ask, so the time per operation is the interval between asks. The
+ * jitter the delivery figures record over an iteration is reported next to it as secondary results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class AudioDeliveryBenchmark {
+
+    @Param({"false", "true"})
+    public boolean cpuLoad;
+
+    private final List<Thread> load = new ArrayList<>();
+    private final Semaphore asks = new Semaphore(0);
+    private volatile boolean loaded;
+    private AudioDeliveryMonitor monitor;
+    private GuildAudioDelivery delivery;
+    private ScheduledExecutorService audioThread;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Jitter {
+        public long jitterMicros;
+        public long maxJitterMicros;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            jitterMicros = 0;
+            maxJitterMicros = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startLoad() {
+        if (!cpuLoad) {
+            return;
+        }
+        loaded = true;
+        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+            Thread thread = new Thread(() -> {
+                double x = 0;
+                while (loaded) {
+                    x += Math.sqrt(x + 1);
+                }
+                if (x < 0) {
+                    System.out.println(x);
+                }
+            }, "cpu-load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            load.add(thread);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startAudioThread() {
+        monitor = new AudioDeliveryMonitor(3);
+        delivery = monitor.register("benchmark");
+        asks.drainPermits();
+        audioThread = Executors.newSingleThreadScheduledExecutor();
+        audioThread.scheduleAtFixedRate(() -> {
+            delivery.provided(System.nanoTime());
+            asks.release();
+        }, 0, 20, TimeUnit.MILLISECONDS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopAudioThread() {
+        audioThread.shutdownNow();
+        monitor.unregister(delivery);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopLoad() throws InterruptedException {
+        loaded = false;
+        for (Thread thread : load) {
+            thread.join();
+        }
+        load.clear();
+    }
+
+    @Benchmark
+    public void nextAsk(Jitter jitter) throws InterruptedException {
+        asks.acquire();
+        jitter.jitterMicros = delivery.getJitterMicros();
+        jitter.maxJitterMicros = delivery.getMaxJitterMicros();
+    }
+}
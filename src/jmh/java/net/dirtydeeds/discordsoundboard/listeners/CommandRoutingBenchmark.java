@@ -0,0 +1,71 @@
+package net.dirtydeeds.discordsoundboard.listeners;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat messages per second routed and parsed the way the chat listener does it, for a mix of commands, sounds and
+ * messages that are no commands at all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CommandRoutingBenchmark {
+
+    private static final String[] MESSAGES = {
+            "?airhorn",
+            "?airhorn 3",
+            "?stop",
+            "?stopwatch",
+            "?list",
+            "?listen 2",
+            "?top 5",
+            "?stats airhorn 3",
+            "?volume 50",
+            "?yt https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "did anyone hear that?",
+            "lol",
+    };
+
+    private CommandRegistry registry;
+
+    @Setup
+    public void setUp() {
+        ChatCommand command = (event, parsed) -> { };
+        registry = new CommandRegistry("?");
+        for (String name : new String[]{"list", "help", "volume", "info", "remove", "random", "top", "bottom",
+                "summon", "yt", "queue", "stats"}) {
+            registry.register(name, command);
+        }
+        registry.register("stop", command, true).setFallback("sound", command);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void routeAndParse(Blackhole blackhole) {
+        for (String message : MESSAGES) {
+            CommandRegistry.Route route = registry.route(message);
+            if (route != null) {
+                blackhole.consume(route);
+                blackhole.consume(ParsedCommand.parse(message, registry.getCommandCharacter()));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void routeOnly(Blackhole blackhole) {
+        for (String message : MESSAGES) {
+            blackhole.consume(registry.route(message));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limit checks per second from several threads at once, spread over many users and guilds like a busy bot, and
+ * all on one bucket as the worst case for the compare-and-set. The rate of those is high enough that no request is
+ * refused. A third case spams a bucket with a low rate, so nearly every request is refused, like a user flooding the
+ * chat. Run with the gc profiler to see that neither a check nor a refusal allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+public class RateLimiterBenchmark {
+
+    private static final int USERS = 1000;
+    private static final int GUILDS = 10;
+
+    private final String[] userIds = new String[USERS];
+    private final String[] guildIds = new String[GUILDS];
+    private SoundPlayerRateLimiter rateLimiter;
+    private SoundPlayerRateLimiter spamLimiter;
+
+    @State(Scope.Thread)
+    public static class Requester {
+
+        private int next = ThreadLocalRandom.current().nextInt(USERS * GUILDS);
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = String.valueOf(100000000000000000L + i);
+        }
+        for (int i = 0; i < GUILDS; i++) {
+            guildIds[i] = String.valueOf(200000000000000000L + i);
+        }
+        DiscordSoundboardProperties properties = new DiscordSoundboardProperties();
+        // A token every nanosecond, faster than the threads together can take them.
+        properties.setRateLimitTokensPerMinute(6e10);
+        properties.setRateLimitBurst(1000000);
+        rateLimiter = new SoundPlayerRateLimiter(properties);
+
+        DiscordSoundboardProperties spamProperties = new DiscordSoundboardProperties();
+        spamProperties.setRateLimitTokensPerMinute(1);
+        spamProperties.setRateLimitBurst(3);
+        spamLimiter = new SoundPlayerRateLimiter(spamProperties);
+        // Create the buckets up front, the benchmark measures the checks and not the first request of each user.
+        for (String userId : userIds) {
+            for (String guildId : guildIds) {
+                rateLimiter.userIsRateLimited(userId, guildId, 1);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (rateLimiter.getLimitedCount() > 0) {
+            throw new IllegalStateException(rateLimiter.getLimitedCount() + " requests were refused");
+        }
+        rateLimiter.shutdown();
+        spamLimiter.shutdown();
+    }
+
+    @Benchmark
+    public boolean manyUsers(Requester requester) {
+        int next = requester.next++ % (USERS * GUILDS);
+        return rateLimiter.userIsRateLimited(userIds[next / GUILDS], guildIds[next % GUILDS], 1);
+    }
+
+    @Benchmark
+    public boolean oneUser() {
+        return rateLimiter.userIsRateLimited(userIds[0], guildIds[0], 1);
+    }
+
+    @Benchmark
+    public boolean refused() {
+        return spamLimiter.userIsRateLimited(userIds[0], guildIds[0], 1);
+    }
+}
@@ -0,0 +1,175 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.bandcamp.BandcampAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.beam.BeamAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.http.HttpAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.soundcloud.SoundCloudAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.twitch.TwitchStreamAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.vimeo.VimeoAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import net.dirtydeeds.discordsoundboard.audio.AudioDeliveryMonitor;
+import net.dirtydeeds.discordsoundboard.audio.GuildMusicManager;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from a play request of a local sound file until its first frame can be sent, once with a clone from the
+ * {@link AudioTrackCache} and once loading the file through {@code loadItemOrdered}. Both go through the same player
+ * manager, scheduler and send handler as a play from the chat, and the first frame is taken with
+ * {@code provide20MsAudio} like JDA's audio thread does, only polling without the 20 ms pause.
+ * <p>
+ * The sound is a 2 second WAV file written at setup, an MP3 takes longer to probe and to decode its first frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackStartBenchmark {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+
+    private Path file;
+    private SoundFile soundFile;
+    private AudioPlayerManager playerManager;
+    private GuildMusicManager musicManager;
+    private AudioTrackCache trackCache;
+    private volatile Throwable loadFailure;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = Files.createTempFile("track-start", ".wav");
+        writeTone(file, 2);
+        soundFile = new SoundFile("track-start", file.toString(), "sounds",
+                new Date(Files.getLastModifiedTime(file).toMillis()), Files.size(file));
+
+        // The source managers of SoundPlayerImpl, in the same order.
+        playerManager = new DefaultAudioPlayerManager();
+        playerManager.registerSourceManager(new LocalAudioSourceManager());
+        playerManager.registerSourceManager(new YoutubeAudioSourceManager());
+        playerManager.registerSourceManager(SoundCloudAudioSourceManager.createDefault());
+        playerManager.registerSourceManager(new BandcampAudioSourceManager());
+        playerManager.registerSourceManager(new TwitchStreamAudioSourceManager());
+        playerManager.registerSourceManager(new VimeoAudioSourceManager());
+        playerManager.registerSourceManager(new HttpAudioSourceManager());
+        playerManager.registerSourceManager(new BeamAudioSourceManager());
+        musicManager = new GuildMusicManager(playerManager, "benchmark", new AudioDeliveryMonitor(3), 10, 10);
+
+        trackCache = new AudioTrackCache(1);
+        CompletableFuture<AudioTrack> loaded = new CompletableFuture<>();
+        playerManager.loadItem(soundFile.getSoundFileLocation(), handler(loaded));
+        trackCache.put(soundFile, loaded.get(10, TimeUnit.SECONDS));
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() {
+        musicManager.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        musicManager.destroy();
+        playerManager.shutdown();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public byte[] cachedTrack() {
+        musicManager.scheduler.playNow(trackCache.get(soundFile), null, "benchmark");
+        return firstFrame();
+    }
+
+    @Benchmark
+    public byte[] loadedTrack() {
+        CompletableFuture<AudioTrack> loaded = new CompletableFuture<>();
+        loaded.thenAccept(track -> musicManager.scheduler.playNow(track, null, "benchmark"));
+        playerManager.loadItemOrdered(musicManager, soundFile.getSoundFileLocation(), handler(loaded));
+        return firstFrame();
+    }
+
+    private byte[] firstFrame() {
+        while (!musicManager.sendHandler.canProvide()) {
+            if (loadFailure != null) {
+                throw new IllegalStateException("Could not load " + file, loadFailure);
+            }
+            Thread.yield();
+        }
+        return musicManager.sendHandler.provide20MsAudio();
+    }
+
+    private AudioLoadResultHandler handler(CompletableFuture<AudioTrack> loaded) {
+        return new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                loaded.complete(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                failed(new IllegalStateException("Loaded a playlist"));
+            }
+
+            @Override
+            public void noMatches() {
+                failed(new IllegalStateException("No source matched"));
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                failed(exception);
+            }
+
+            private void failed(Throwable failure) {
+                loadFailure = failure;
+                loaded.completeExceptionally(failure);
+            }
+        };
+    }
+
+    /**
+     * Writes a 440 Hz tone as a 16 bit stereo PCM WAV file.
+     */
+    private static void writeTone(Path path, int seconds) throws IOException {
+        int samples = SAMPLE_RATE * seconds;
+        int dataSize = samples * CHANNELS * 2;
+        ByteBuffer buffer = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes("US-ASCII")).putInt(36 + dataSize).put("WAVE".getBytes("US-ASCII"));
+        buffer.put("fmt ".getBytes("US-ASCII")).putInt(16).putShort((short) 1).putShort((short) CHANNELS)
+                .putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * CHANNELS * 2).putShort((short) (CHANNELS * 2))
+                .putShort((short) 16);
+        buffer.put("data".getBytes("US-ASCII")).putInt(dataSize);
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * 8000);
+            for (int channel = 0; channel < CHANNELS; channel++) {
+                buffer.putShort(sample);
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(buffer.array());
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
@@ -26,17 +27,85 @@ public class DiscordSoundboardProperties {
     @Max(1994)
     private int messageSizeLimit = 1994;
 
+    @Min(1)
+    private int shardsTotal = 1;
+    @Min(-1)
+    private int shardRangeStart = -1;
+    @Min(-1)
+    private int shardRangeEnd = -1;
+
     @NotEmpty
     private String soundsDirectory = "sounds";
     private List<String> allowedUserIds = Collections.emptyList();
     private List<String> bannedUserIds = Collections.emptyList();
     private Set<String> unlimitedUserIds = Collections.emptySet();
     private boolean leaveWhenLastUserInChannel = true;
+    @Min(0)
+    private int voiceLingerSeconds = 300;
+    private boolean voiceLingerLearned = true;
+    @Min(0)
+    private int voiceLingerMaxSeconds = 1800;
+    @Min(0)
+    private int maxWarmConnections = 20;
+    @Min(1)
+    private int voiceConnectTimeoutMs = 8000;
     @Min(1)
     private int repeatLimit = 3;
 
     @Min(0)
     private int rateLimitRestrictDuration;
+    @DecimalMin("0")
+    private double rateLimitTokensPerMinute = 0;
+    @Min(1)
+    private int rateLimitBurst = 3;
+    @Min(1)
+    private int rateLimitYoutubeCost = 3;
+
+    private boolean randomWeightedByPlayCount = false;
+
+    private String catalogSnapshotFile = "sound-catalog.snapshot";
+
+    @Min(0)
+    private int fileChangeQuietPeriodMs = 500;
+    @Min(0)
+    private int fileChangeMaxDelayMs = 5000;
+
+    private boolean loudnessNormalization = true;
+    private String loudnessGainsFile = "sound-loudness.gains";
+    @Min(-70)
+    @Max(0)
+    private int loudnessTargetLufs = -16;
+    @Min(0)
+    private int loudnessMaxGainDb = 12;
+
+    @Min(0)
+    private int playCoalesceWindowMs = 1000;
+
+    @Min(1)
+    private int commandThreads = 4;
+    @Min(1)
+    private int commandQueuePerGuild = 20;
+    @Min(1)
+    private int commandQueueLimit = 500;
+    @Min(1)
+    private int statsSampleSeconds = 5;
+    @Min(1)
+    private int stutterFrames = 3;
+
+    @Min(0)
+    private int playerIdleTimeoutMinutes = 15;
+    @Min(0)
+    private int maxQueuedPerGuild = 50;
+    @Min(0)
+    private int maxQueuedPerUser = 10;
+
+    @Min(0)
+    private int trackCacheSize = 5000;
+
+    @Min(0)
+    private int frameCacheSizeMb = 64;
+    @Min(1)
+    private int frameCacheMaxTrackSeconds = 30;
 
     @NotNull
     public String getBotToken() {
@@ -142,4 +211,252 @@ public class DiscordSoundboardProperties {
     public void setRepeatLimit(int repeatLimit) {
         this.repeatLimit = repeatLimit;
     }
+
+    public int getFrameCacheSizeMb() {
+        return frameCacheSizeMb;
+    }
+
+    public void setFrameCacheSizeMb(int frameCacheSizeMb) {
+        this.frameCacheSizeMb = frameCacheSizeMb;
+    }
+
+    public int getFrameCacheMaxTrackSeconds() {
+        return frameCacheMaxTrackSeconds;
+    }
+
+    public void setFrameCacheMaxTrackSeconds(int frameCacheMaxTrackSeconds) {
+        this.frameCacheMaxTrackSeconds = frameCacheMaxTrackSeconds;
+    }
+
+    public boolean isRandomWeightedByPlayCount() {
+        return randomWeightedByPlayCount;
+    }
+
+    public void setRandomWeightedByPlayCount(boolean randomWeightedByPlayCount) {
+        this.randomWeightedByPlayCount = randomWeightedByPlayCount;
+    }
+
+    public int getFileChangeQuietPeriodMs() {
+        return fileChangeQuietPeriodMs;
+    }
+
+    public void setFileChangeQuietPeriodMs(int fileChangeQuietPeriodMs) {
+        this.fileChangeQuietPeriodMs = fileChangeQuietPeriodMs;
+    }
+
+    public int getFileChangeMaxDelayMs() {
+        return fileChangeMaxDelayMs;
+    }
+
+    public void setFileChangeMaxDelayMs(int fileChangeMaxDelayMs) {
+        this.fileChangeMaxDelayMs = fileChangeMaxDelayMs;
+    }
+
+    public String getCatalogSnapshotFile() {
+        return catalogSnapshotFile;
+    }
+
+    public void setCatalogSnapshotFile(String catalogSnapshotFile) {
+        this.catalogSnapshotFile = catalogSnapshotFile;
+    }
+
+    public int getTrackCacheSize() {
+        return trackCacheSize;
+    }
+
+    public void setTrackCacheSize(int trackCacheSize) {
+        this.trackCacheSize = trackCacheSize;
+    }
+
+    public boolean isLoudnessNormalization() {
+        return loudnessNormalization;
+    }
+
+    public void setLoudnessNormalization(boolean loudnessNormalization) {
+        this.loudnessNormalization = loudnessNormalization;
+    }
+
+    public String getLoudnessGainsFile() {
+        return loudnessGainsFile;
+    }
+
+    public void setLoudnessGainsFile(String loudnessGainsFile) {
+        this.loudnessGainsFile = loudnessGainsFile;
+    }
+
+    public int getLoudnessTargetLufs() {
+        return loudnessTargetLufs;
+    }
+
+    public void setLoudnessTargetLufs(int loudnessTargetLufs) {
+        this.loudnessTargetLufs = loudnessTargetLufs;
+    }
+
+    public int getLoudnessMaxGainDb() {
+        return loudnessMaxGainDb;
+    }
+
+    public void setLoudnessMaxGainDb(int loudnessMaxGainDb) {
+        this.loudnessMaxGainDb = loudnessMaxGainDb;
+    }
+
+    public int getPlayerIdleTimeoutMinutes() {
+        return playerIdleTimeoutMinutes;
+    }
+
+    public void setPlayerIdleTimeoutMinutes(int playerIdleTimeoutMinutes) {
+        this.playerIdleTimeoutMinutes = playerIdleTimeoutMinutes;
+    }
+
+    public int getMaxQueuedPerGuild() {
+        return maxQueuedPerGuild;
+    }
+
+    public void setMaxQueuedPerGuild(int maxQueuedPerGuild) {
+        this.maxQueuedPerGuild = maxQueuedPerGuild;
+    }
+
+    public int getMaxQueuedPerUser() {
+        return maxQueuedPerUser;
+    }
+
+    public void setMaxQueuedPerUser(int maxQueuedPerUser) {
+        this.maxQueuedPerUser = maxQueuedPerUser;
+    }
+
+    public int getPlayCoalesceWindowMs() {
+        return playCoalesceWindowMs;
+    }
+
+    public void setPlayCoalesceWindowMs(int playCoalesceWindowMs) {
+        this.playCoalesceWindowMs = playCoalesceWindowMs;
+    }
+
+    public int getVoiceLingerSeconds() {
+        return voiceLingerSeconds;
+    }
+
+    public void setVoiceLingerSeconds(int voiceLingerSeconds) {
+        this.voiceLingerSeconds = voiceLingerSeconds;
+    }
+
+    public boolean isVoiceLingerLearned() {
+        return voiceLingerLearned;
+    }
+
+    public void setVoiceLingerLearned(boolean voiceLingerLearned) {
+        this.voiceLingerLearned = voiceLingerLearned;
+    }
+
+    public int getVoiceLingerMaxSeconds() {
+        return voiceLingerMaxSeconds;
+    }
+
+    public void setVoiceLingerMaxSeconds(int voiceLingerMaxSeconds) {
+        this.voiceLingerMaxSeconds = voiceLingerMaxSeconds;
+    }
+
+    public int getVoiceConnectTimeoutMs() {
+        return voiceConnectTimeoutMs;
+    }
+
+    public void setVoiceConnectTimeoutMs(int voiceConnectTimeoutMs) {
+        this.voiceConnectTimeoutMs = voiceConnectTimeoutMs;
+    }
+
+    public int getMaxWarmConnections() {
+        return maxWarmConnections;
+    }
+
+    public void setMaxWarmConnections(int maxWarmConnections) {
+        this.maxWarmConnections = maxWarmConnections;
+    }
+
+    public int getShardsTotal() {
+        return shardsTotal;
+    }
+
+    public void setShardsTotal(int shardsTotal) {
+        this.shardsTotal = shardsTotal;
+    }
+
+    public int getShardRangeStart() {
+        return shardRangeStart;
+    }
+
+    public void setShardRangeStart(int shardRangeStart) {
+        this.shardRangeStart = shardRangeStart;
+    }
+
+    public int getShardRangeEnd() {
+        return shardRangeEnd;
+    }
+
+    public void setShardRangeEnd(int shardRangeEnd) {
+        this.shardRangeEnd = shardRangeEnd;
+    }
+
+    public int getCommandThreads() {
+        return commandThreads;
+    }
+
+    public void setCommandThreads(int commandThreads) {
+        this.commandThreads = commandThreads;
+    }
+
+    public int getCommandQueuePerGuild() {
+        return commandQueuePerGuild;
+    }
+
+    public void setCommandQueuePerGuild(int commandQueuePerGuild) {
+        this.commandQueuePerGuild = commandQueuePerGuild;
+    }
+
+    public int getCommandQueueLimit() {
+        return commandQueueLimit;
+    }
+
+    public void setCommandQueueLimit(int commandQueueLimit) {
+        this.commandQueueLimit = commandQueueLimit;
+    }
+
+    public int getStatsSampleSeconds() {
+        return statsSampleSeconds;
+    }
+
+    public void setStatsSampleSeconds(int statsSampleSeconds) {
+        this.statsSampleSeconds = statsSampleSeconds;
+    }
+
+    public int getStutterFrames() {
+        return stutterFrames;
+    }
+
+    public void setStutterFrames(int stutterFrames) {
+        this.stutterFrames = stutterFrames;
+    }
+
+    public double getRateLimitTokensPerMinute() {
+        return rateLimitTokensPerMinute;
+    }
+
+    public void setRateLimitTokensPerMinute(double rateLimitTokensPerMinute) {
+        this.rateLimitTokensPerMinute = rateLimitTokensPerMinute;
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    public int getRateLimitYoutubeCost() {
+        return rateLimitYoutubeCost;
+    }
+
+    public void setRateLimitYoutubeCost(int rateLimitYoutubeCost) {
+        this.rateLimitYoutubeCost = rateLimitYoutubeCost;
+    }
 }
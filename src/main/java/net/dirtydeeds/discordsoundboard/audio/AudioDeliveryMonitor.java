@@ -0,0 +1,130 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells apart audio that ended from audio that starved: every guild's send handler reports the frames it sent and the
+ * frames it had none for while audio was playing, see {@link GuildAudioDelivery}. Runs of missed frames long enough to
+ * be heard are logged as stutters with the guild and the track.
+ */
+public class AudioDeliveryMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AudioDeliveryMonitor.class);
+
+    private final int stutterFrames;
+    private final Map<String, GuildAudioDelivery> guilds = new ConcurrentHashMap<>();
+    /** Figures of guilds whose player was released, so the totals do not drop. */
+    private final AtomicLong releasedProvided = new AtomicLong();
+    private final AtomicLong releasedMissed = new AtomicLong();
+    private final AtomicLong releasedStutters = new AtomicLong();
+    private volatile String lastStutter;
+
+    /**
+     * @param stutterFrames How many frames in a row have to be missed to count as a stutter.
+     */
+    public AudioDeliveryMonitor(int stutterFrames) {
+        this.stutterFrames = Math.max(1, stutterFrames);
+    }
+
+    /**
+     * @param guildId The id of the guild a player is created for.
+     * @return The accounting of the player's send handler.
+     */
+    GuildAudioDelivery register(String guildId) {
+        GuildAudioDelivery delivery = new GuildAudioDelivery(guildId, this);
+        GuildAudioDelivery previous = guilds.put(guildId, delivery);
+        if (previous != null) {
+            release(previous);
+        }
+        return delivery;
+    }
+
+    /**
+     * Keeps the figures of a released player in the totals.
+     *
+     * @param delivery The accounting of the released player.
+     */
+    void unregister(GuildAudioDelivery delivery) {
+        if (guilds.remove(delivery.getGuildId(), delivery)) {
+            release(delivery);
+        }
+    }
+
+    private void release(GuildAudioDelivery delivery) {
+        releasedProvided.addAndGet(delivery.getProvidedCount());
+        releasedMissed.addAndGet(delivery.getMissedCount());
+        releasedStutters.addAndGet(delivery.getStutterCount());
+    }
+
+    /**
+     * Called from the audio sending thread when a run of missed frames ended.
+     */
+    void stutter(String guildId, String track, int frames) {
+        lastStutter = "guild " + guildId + ", " + track + ", " + frames * 20 + " ms";
+        LOG.warn("Audio stuttered in guild {}: no frame for {} ms while playing {}", guildId, frames * 20, track);
+    }
+
+    int getStutterFrames() {
+        return stutterFrames;
+    }
+
+    /**
+     * @param guildId The id of the guild.
+     * @return The accounting of the guild's player, null if it has none.
+     */
+    public GuildAudioDelivery getGuild(String guildId) {
+        return guilds.get(guildId);
+    }
+
+    public long getProvidedCount() {
+        long provided = releasedProvided.get();
+        for (GuildAudioDelivery delivery : guilds.values()) {
+            provided += delivery.getProvidedCount();
+        }
+        return provided;
+    }
+
+    /**
+     * @return The number of frames that were missed while audio was playing, in all guilds.
+     */
+    public long getMissedCount() {
+        long missed = releasedMissed.get();
+        for (GuildAudioDelivery delivery : guilds.values()) {
+            missed += delivery.getMissedCount();
+        }
+        return missed;
+    }
+
+    public long getStutterCount() {
+        long stutters = releasedStutters.get();
+        for (GuildAudioDelivery delivery : guilds.values()) {
+            stutters += delivery.getStutterCount();
+        }
+        return stutters;
+    }
+
+    /**
+     * @return The guild whose frames are asked for least regularly, null if there are no players.
+     */
+    public GuildAudioDelivery getWorstJitter() {
+        GuildAudioDelivery worst = null;
+        for (GuildAudioDelivery delivery : guilds.values()) {
+            if (worst == null || delivery.getJitterMicros() > worst.getJitterMicros()) {
+                worst = delivery;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * @return Where and for how long audio last stuttered, null if it never did.
+     */
+    public String getLastStutter() {
+        return lastStutter;
+    }
+}
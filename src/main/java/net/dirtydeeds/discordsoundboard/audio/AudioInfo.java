@@ -7,10 +7,12 @@ public class AudioInfo {
 
     private final AudioTrack track;
     private final Guild guild;
+    private final String requester;
 
-    public AudioInfo(AudioTrack track, Guild guild) {
+    public AudioInfo(AudioTrack track, Guild guild, String requester) {
         this.track = track;
         this.guild = guild;
+        this.requester = requester;
     }
 
     public AudioTrack getTrack() {
@@ -20,4 +22,11 @@ public class AudioInfo {
     public Guild getGuild() {
         return guild;
     }
+
+    /**
+     * @return The id of the user that requested the track.
+     */
+    public String getRequester() {
+        return requester;
+    }
 }
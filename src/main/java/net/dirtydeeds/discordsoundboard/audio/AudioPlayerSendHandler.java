@@ -1,41 +1,197 @@
 package net.dirtydeeds.discordsoundboard.audio;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
 import net.dv8tion.jda.core.audio.AudioSendHandler;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class AudioPlayerSendHandler implements AudioSendHandler {
     private final AudioPlayer audioPlayer;
+    private final AtomicReference<CachedSoundPlayback> cachedPlayback = new AtomicReference<>();
     private AudioFrame lastFrame;
+    /** The track that was playing when {@link #lastFrame} was taken from the audio player. */
+    private AudioTrack lastFrameTrack;
+    private volatile List<byte[]> capture;
+    private Runnable cachedPlaybackEndListener = () -> { };
+    /** Listeners waiting for the first frame of a track or cached sound, by the track or sound. */
+    private final Map<Object, Runnable> firstFrameListeners = new ConcurrentHashMap<>();
+    private final GuildAudioDelivery delivery;
+    /** The track or cached sound the last frame came from. Only used by the audio sending thread. */
+    private Object delivering;
 
     /**
      * @param audioPlayer Audio player to wrap.
+     * @param delivery    Accounting of the frames sent and missed.
      */
-    public AudioPlayerSendHandler(AudioPlayer audioPlayer) {
+    public AudioPlayerSendHandler(AudioPlayer audioPlayer, GuildAudioDelivery delivery) {
         this.audioPlayer = audioPlayer;
+        this.delivery = delivery;
+    }
+
+    /**
+     * Sends the frames of a cached sound ahead of anything the audio player provides.
+     *
+     * @param playback The cached sound to send.
+     */
+    public void playCached(CachedSoundPlayback playback) {
+        cachedPlayback.set(playback);
+    }
+
+    public void stopCached() {
+        cachedPlayback.set(null);
+    }
+
+    public boolean isPlayingCached() {
+        return cachedPlayback.get() != null;
+    }
+
+    /**
+     * @return The milliseconds left of the cached sound being sent, 0 if none is.
+     */
+    public long getCachedRemainingMs() {
+        CachedSoundPlayback playback = cachedPlayback.get();
+        return playback == null ? 0 : playback.getRemainingMs();
+    }
+
+    /**
+     * Starts keeping a copy of every frame taken from the audio player, so a track can be replayed without loading it
+     * again.
+     */
+    void startCapture() {
+        capture = new ArrayList<>();
+    }
+
+    /**
+     * @return The frames taken from the audio player since {@link #startCapture()}, empty if no capture was running.
+     */
+    List<byte[]> stopCapture() {
+        List<byte[]> frames = capture;
+        capture = null;
+        return frames == null ? Collections.emptyList() : frames;
+    }
+
+    /**
+     * @param listener Called from the audio sending thread when a cached sound has been sent completely.
+     */
+    void setCachedPlaybackEndListener(Runnable listener) {
+        this.cachedPlaybackEndListener = listener;
+    }
+
+    /**
+     * @param audio    The track or cached sound that was just scheduled.
+     * @param listener Called once from the audio sending thread when the first frame of the audio is sent. It has to
+     *                 be quick.
+     */
+    public void onFirstFrame(Object audio, Runnable listener) {
+        firstFrameListeners.put(audio, listener);
+    }
+
+    /**
+     * Drops the listeners of audio that was stopped or replaced before it sent a frame.
+     */
+    void clearFirstFrameListeners() {
+        firstFrameListeners.clear();
     }
 
+    /**
+     * Reports every ask for a frame to the guild's {@link GuildAudioDelivery}. Having no frame only counts as a miss
+     * while the audio that sent the previous frame is still playing, a sound that just started is still buffering.
+     */
     @Override
     public boolean canProvide() {
+        boolean canProvide = hasFrame();
+        long now = System.nanoTime();
+        Object playing = getPlayingAudio();
+        if (canProvide) {
+            delivering = playing;
+            delivery.provided(now);
+        } else if (playing != null && playing == delivering) {
+            delivery.missed(now, playing instanceof AudioTrack ? ((AudioTrack) playing).getIdentifier() : "a cached sound");
+        } else {
+            delivering = null;
+            delivery.idle();
+        }
+        return canProvide;
+    }
+
+    /**
+     * @return The cached sound or track being sent, null if nothing is playing or the player is paused.
+     */
+    private Object getPlayingAudio() {
+        CachedSoundPlayback playback = cachedPlayback.get();
+        if (playback != null) {
+            return playback;
+        }
+        return audioPlayer.isPaused() ? null : audioPlayer.getPlayingTrack();
+    }
+
+    private boolean hasFrame() {
+        CachedSoundPlayback playback = cachedPlayback.get();
+        if (playback != null) {
+            if (playback.hasNext()) {
+                return true;
+            }
+            if (cachedPlayback.compareAndSet(playback, null)) {
+                cachedPlaybackEndListener.run();
+            }
+        }
+
         if (lastFrame == null) {
-            lastFrame = audioPlayer.provide();
+            lastFrame = pollPlayer();
+            if (lastFrame == null) {
+                // A track that just ended may have handed over to a cached playback, send it without skipping a frame.
+                playback = cachedPlayback.get();
+                return playback != null && playback.hasNext();
+            }
         }
 
-        return lastFrame != null;
+        return true;
     }
 
     @Override
     public byte[] provide20MsAudio() {
-        if (lastFrame == null) {
-            lastFrame = audioPlayer.provide();
+        CachedSoundPlayback playback = cachedPlayback.get();
+        byte[] data;
+        Object source;
+        if (playback != null && playback.hasNext()) {
+            data = playback.next();
+            source = playback.getSound();
+        } else {
+            if (lastFrame == null) {
+                lastFrame = pollPlayer();
+            }
+            data = lastFrame != null ? lastFrame.getData() : null;
+            source = lastFrameTrack;
+            lastFrame = null;
+            lastFrameTrack = null;
         }
 
-        byte[] data = lastFrame != null ? lastFrame.getData() : null;
-        lastFrame = null;
-
+        if (data != null && source != null && !firstFrameListeners.isEmpty()) {
+            Runnable listener = firstFrameListeners.remove(source);
+            if (listener != null) {
+                listener.run();
+            }
+        }
         return data;
     }
 
+    private AudioFrame pollPlayer() {
+        AudioFrame frame = audioPlayer.provide();
+        lastFrameTrack = frame == null ? null : audioPlayer.getPlayingTrack();
+        List<byte[]> frames = capture;
+        if (frame != null && frames != null) {
+            frames.add(frame.getData());
+        }
+        return frame;
+    }
+
     @Override
     public boolean isOpus() {
         return true;
@@ -0,0 +1,60 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+import java.util.List;
+
+/**
+ * The 20ms Opus frames of a decoded sound file. Frames are handed out as they are stored, so sending a cached sound
+ * neither copies nor allocates on the audio thread. JDA copies a frame into its packet before sending it, and nobody
+ * writes to a frame once it is cached.
+ */
+public class CachedSound {
+
+    /** Bytes the JVM spends on each array besides its contents, counted so the cache budget stays honest. */
+    private static final int ARRAY_OVERHEAD = 16;
+
+    private final byte[][] frames;
+    private final int sizeInBytes;
+    private final long lastModified;
+
+    private CachedSound(byte[][] frames, int sizeInBytes, long lastModified) {
+        this.frames = frames;
+        this.sizeInBytes = sizeInBytes;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Copies the given frames, a frame buffer of lavaplayer may reuse their arrays.
+     *
+     * @param frames       - The Opus frames in playback order.
+     * @param lastModified - The modification time of the file the frames were decoded from.
+     * @return The cached sound.
+     */
+    public static CachedSound of(List<byte[]> frames, long lastModified) {
+        byte[][] array = new byte[frames.size()][];
+        int size = ARRAY_OVERHEAD + array.length * 4;
+        for (int i = 0; i < array.length; i++) {
+            array[i] = frames.get(i).clone();
+            size += ARRAY_OVERHEAD + array[i].length;
+        }
+        return new CachedSound(array, size, lastModified);
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    /**
+     * @return The frame itself, which must not be written to.
+     */
+    public byte[] getFrame(int index) {
+        return frames[index];
+    }
+
+    public int getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,48 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+/**
+ * Read position of a {@link CachedSound} being sent by an {@link AudioPlayerSendHandler}. The sound can be sent several
+ * times back to back, starting over at the first frame without a gap. Only the audio sending thread advances it.
+ */
+public class CachedSoundPlayback {
+
+    private final CachedSound sound;
+    private int position;
+    private int timesLeft;
+
+    public CachedSoundPlayback(CachedSound sound) {
+        this(sound, 1);
+    }
+
+    /**
+     * @param sound The sound to send.
+     * @param times How many times to send it.
+     */
+    public CachedSoundPlayback(CachedSound sound, int times) {
+        this.sound = sound;
+        this.timesLeft = Math.max(1, times);
+    }
+
+    CachedSound getSound() {
+        return sound;
+    }
+
+    public boolean hasNext() {
+        return sound.getFrameCount() > 0 && (position < sound.getFrameCount() || timesLeft > 1);
+    }
+
+    /**
+     * @return The milliseconds left to send, each frame being 20 ms.
+     */
+    public long getRemainingMs() {
+        return ((long) (timesLeft - 1) * sound.getFrameCount() + sound.getFrameCount() - position) * 20L;
+    }
+
+    public byte[] next() {
+        if (position == sound.getFrameCount()) {
+            position = 0;
+            timesLeft--;
+        }
+        return sound.getFrame(position++);
+    }
+}
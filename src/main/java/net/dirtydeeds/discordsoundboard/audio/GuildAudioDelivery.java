@@ -0,0 +1,114 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts for the frames of one guild's send handler. JDA asks the handler for a frame every 20 ms, while audio is
+ * playing every ask should be answered with a frame. A miss means Discord gets silence in the middle of the audio.
+ * <p>
+ * Only the audio sending thread of the guild updates the figures, other threads only read them.
+ */
+public class GuildAudioDelivery {
+
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final String guildId;
+    private final AudioDeliveryMonitor monitor;
+    private volatile long provided;
+    private volatile long missed;
+    private volatile long stutters;
+    /** Interarrival jitter of the asks for frames, smoothed like RFC 3550 does. */
+    private volatile long jitterNanos;
+    private volatile long maxJitterNanos;
+    private long lastAsk;
+    private int missedRun;
+    private String missedTrack;
+
+    GuildAudioDelivery(String guildId, AudioDeliveryMonitor monitor) {
+        this.guildId = guildId;
+        this.monitor = monitor;
+    }
+
+    /**
+     * A frame was sent.
+     *
+     * @param now The time of the ask, from {@link System#nanoTime()}.
+     */
+    void provided(long now) {
+        interval(now);
+        endRun();
+        provided++;
+    }
+
+    /**
+     * No frame was ready although audio is playing.
+     *
+     * @param now   The time of the ask, from {@link System#nanoTime()}.
+     * @param track What was playing.
+     */
+    void missed(long now, String track) {
+        interval(now);
+        missed++;
+        if (++missedRun == monitor.getStutterFrames()) {
+            stutters++;
+            missedTrack = track;
+        }
+    }
+
+    /**
+     * Nothing is playing, or a new sound has not sent its first frame yet.
+     */
+    void idle() {
+        lastAsk = 0;
+        endRun();
+    }
+
+    private void interval(long now) {
+        if (lastAsk != 0) {
+            long deviation = Math.abs(now - lastAsk - FRAME_NANOS);
+            jitterNanos += (deviation - jitterNanos) / 16;
+            if (deviation > maxJitterNanos) {
+                maxJitterNanos = deviation;
+            }
+        }
+        lastAsk = now;
+    }
+
+    private void endRun() {
+        if (missedRun >= monitor.getStutterFrames()) {
+            monitor.stutter(guildId, missedTrack, missedRun);
+        }
+        missedRun = 0;
+        missedTrack = null;
+    }
+
+    public String getGuildId() {
+        return guildId;
+    }
+
+    public long getProvidedCount() {
+        return provided;
+    }
+
+    /**
+     * @return The number of asks for a frame that found none while audio was playing.
+     */
+    public long getMissedCount() {
+        return missed;
+    }
+
+    /**
+     * @return The number of runs of missed frames long enough to be heard as a stutter.
+     */
+    public long getStutterCount() {
+        return stutters;
+    }
+
+    public long getJitterMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(jitterNanos);
+    }
+
+    public long getMaxJitterMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxJitterNanos);
+    }
+}
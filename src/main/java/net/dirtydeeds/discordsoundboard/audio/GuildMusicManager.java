@@ -16,19 +16,60 @@ public class GuildMusicManager {
      * Wrapper around AudioPlayer to use it as an AudioSendHandler.
      */
     public final AudioPlayerSendHandler sendHandler;
+    private final AudioDeliveryMonitor deliveryMonitor;
+    private final GuildAudioDelivery delivery;
+    private volatile long lastUsed = System.nanoTime();
 
     /**
      * Creates a player and a track scheduler.
-     * @param manager Audio player manager to use for creating the player.
+     * @param manager           Audio player manager to use for creating the player.
+     * @param guildId           The id of the guild.
+     * @param deliveryMonitor   Where the send handler reports the frames it sent and missed.
+     * @param maxQueuedPerGuild The maximum number of tracks waiting in the guild.
+     * @param maxQueuedPerUser  The maximum number of tracks a single user may have waiting in the guild.
      */
-    public GuildMusicManager(AudioPlayerManager manager) {
+    public GuildMusicManager(AudioPlayerManager manager, String guildId, AudioDeliveryMonitor deliveryMonitor, int maxQueuedPerGuild, int maxQueuedPerUser) {
         player = manager.createPlayer();
-        scheduler = new TrackScheduler(player);
-        sendHandler = new AudioPlayerSendHandler(player);
+        this.deliveryMonitor = deliveryMonitor;
+        this.delivery = deliveryMonitor.register(guildId);
+        sendHandler = new AudioPlayerSendHandler(player, delivery);
+        scheduler = new TrackScheduler(player, sendHandler, maxQueuedPerGuild, maxQueuedPerUser);
+        sendHandler.setCachedPlaybackEndListener(scheduler::nextTrack);
         player.addListener(scheduler);
     }
 
     public void stop() {
         scheduler.stop();
     }
+
+    /**
+     * Marks the manager as used, which postpones its eviction.
+     */
+    public void touch() {
+        lastUsed = System.nanoTime();
+    }
+
+    /**
+     * @param idleNanos How long the manager has to be unused.
+     * @return true if the manager was not used for the given time and is neither playing nor has anything queued.
+     */
+    public boolean isIdle(long idleNanos) {
+        return System.nanoTime() - lastUsed >= idleNanos && scheduler.isIdle();
+    }
+
+    /**
+     * @return true if a track or a cached sound is playing. Reads the player without taking the scheduler's lock.
+     */
+    public boolean isPlaying() {
+        return player.getPlayingTrack() != null || sendHandler.isPlayingCached();
+    }
+
+    /**
+     * Stops playback and releases the player. The manager can not be used afterwards.
+     */
+    public void destroy() {
+        scheduler.stop();
+        player.destroy();
+        deliveryMonitor.unregister(delivery);
+    }
 }
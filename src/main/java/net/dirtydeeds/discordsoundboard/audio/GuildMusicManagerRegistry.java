@@ -0,0 +1,174 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Holds the {@link GuildMusicManager} of every guild that is playing or played recently. Managers that were not used
+ * for the idle timeout and have nothing playing or queued are destroyed in the background, and a guild that plays
+ * again afterwards gets a new one. A volume other than 100 is remembered across evictions.
+ */
+public class GuildMusicManagerRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GuildMusicManagerRegistry.class);
+    private static final long MAX_CHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final AudioPlayerManager playerManager;
+    private final long idleTimeoutNanos;
+    private final int maxQueuedPerGuild;
+    private final int maxQueuedPerUser;
+    private final Consumer<String> evictionListener;
+    private final AudioDeliveryMonitor deliveryMonitor;
+    private final Map<String, GuildMusicManager> managers = new ConcurrentHashMap<>();
+    private final Map<String, Integer> retainedVolumes = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final ScheduledExecutorService reaper;
+
+    /**
+     * @param playerManager     Audio player manager to create the players with.
+     * @param idleTimeoutMs     How long a manager may stay unused before it is evicted. 0 keeps managers forever.
+     * @param maxQueuedPerGuild The maximum number of tracks waiting in a guild.
+     * @param maxQueuedPerUser  The maximum number of tracks a single user may have waiting in a guild.
+     * @param evictionListener  Called with the guild id while a manager is evicted, before another one can be created
+     *                          for the guild.
+     * @param deliveryMonitor   Where the players report the frames they sent and missed.
+     */
+    public GuildMusicManagerRegistry(AudioPlayerManager playerManager, long idleTimeoutMs, int maxQueuedPerGuild, int maxQueuedPerUser, Consumer<String> evictionListener, AudioDeliveryMonitor deliveryMonitor) {
+        this.playerManager = playerManager;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+        this.maxQueuedPerGuild = maxQueuedPerGuild;
+        this.maxQueuedPerUser = maxQueuedPerUser;
+        this.evictionListener = evictionListener;
+        this.deliveryMonitor = deliveryMonitor;
+        if (idleTimeoutMs > 0) {
+            long interval = Math.max(1, Math.min(idleTimeoutMs, MAX_CHECK_INTERVAL_MS));
+            this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "guild-music-manager-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.reaper.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.reaper = null;
+        }
+    }
+
+    /**
+     * Returns the manager of the guild, creating it if needed, and marks it as used.
+     *
+     * @param guildId The id of the guild.
+     * @return The guild's manager.
+     */
+    public GuildMusicManager get(String guildId) {
+        // compute runs atomically with the eviction below, so a manager is never handed out while being evicted.
+        return managers.compute(guildId, (id, mng) -> {
+            if (mng == null) {
+                mng = new GuildMusicManager(playerManager, id, deliveryMonitor, maxQueuedPerGuild, maxQueuedPerUser);
+                Integer volume = retainedVolumes.remove(id);
+                if (volume != null) {
+                    mng.player.setVolume(volume);
+                }
+                created.incrementAndGet();
+            }
+            mng.touch();
+            return mng;
+        });
+    }
+
+    /**
+     * @return The number of managers currently alive.
+     */
+    public int size() {
+        return managers.size();
+    }
+
+    /**
+     * @return The number of managers that are playing right now.
+     */
+    public int getPlayingCount() {
+        int playing = 0;
+        for (GuildMusicManager mng : managers.values()) {
+            if (mng.isPlaying()) {
+                playing++;
+            }
+        }
+        return playing;
+    }
+
+    /**
+     * @return The number of tracks waiting in all guilds.
+     */
+    public int getQueuedTrackCount() {
+        int queued = 0;
+        for (GuildMusicManager mng : managers.values()) {
+            queued += mng.scheduler.getQueueSize();
+        }
+        return queued;
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    void evictIdle() {
+        for (String guildId : managers.keySet()) {
+            GuildMusicManager[] removed = new GuildMusicManager[1];
+            managers.computeIfPresent(guildId, (id, mng) -> {
+                if (!mng.isIdle(idleTimeoutNanos)) {
+                    return mng;
+                }
+                // Kept before the manager leaves the map, so a manager created right after sees it.
+                int volume = mng.player.getVolume();
+                if (volume != 100) {
+                    retainedVolumes.put(id, volume);
+                }
+                // Runs before the manager leaves the map, so it cannot close the connection of a new manager.
+                try {
+                    evictionListener.accept(id);
+                } catch (Exception e) {
+                    LOG.warn("Could not release the connection of guild " + id, e);
+                }
+                removed[0] = mng;
+                return null;
+            });
+            if (removed[0] != null) {
+                evict(guildId, removed[0]);
+            }
+        }
+    }
+
+    private void evict(String guildId, GuildMusicManager mng) {
+        try {
+            mng.destroy();
+            evicted.incrementAndGet();
+            LOG.debug("Evicted idle music manager of guild {}, {} still alive", guildId, managers.size());
+        } catch (Exception e) {
+            LOG.warn("Could not evict music manager of guild " + guildId, e);
+        }
+    }
+
+    /**
+     * Stops the reaper and destroys all managers.
+     */
+    public void shutdown() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        managers.values().forEach(GuildMusicManager::destroy);
+        managers.clear();
+    }
+}
@@ -6,60 +6,303 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 import net.dv8tion.jda.core.entities.Guild;
 
+import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
+ * Plays the tracks of a guild. Queued tracks are kept per requesting user and the users take turns, so one user
+ * queuing many tracks does not hold up everyone else. The number of queued tracks is limited per guild and per user.
+ * <p>
+ * Repeats are played by sending the same frames again: cached frames are looped directly, and a loaded track has its
+ * frames captured while it plays once so the remaining repeats follow without reloading it.
+ * <p>
+ * The audio player fires its events while holding its own lock, so the player is never called while holding the lock
+ * of this scheduler.
+ *
  * @author dave_f
  */
 public class TrackScheduler extends AudioEventAdapter {
 
+    /**
+     * Outcome of adding a track.
+     */
+    public enum QueueResult {
+        PLAYING,
+        QUEUED,
+        GUILD_QUEUE_FULL,
+        USER_QUEUE_FULL;
+
+        public boolean isRejected() {
+            return this == GUILD_QUEUE_FULL || this == USER_QUEUE_FULL;
+        }
+    }
+
     private final AudioPlayer player;
-    private final Deque<AudioInfo> dequeue;
+    private final AudioPlayerSendHandler sendHandler;
+    private final int maxQueuedPerGuild;
+    private final int maxQueuedPerUser;
+    private final Map<String, Deque<AudioInfo>> userQueues = new HashMap<>();
+    /** Users with queued tracks, in the order of their next turn. */
+    private final Deque<String> turns = new ArrayDeque<>();
+    private int queued;
+    private AudioTrack loopTrack;
+    private int loopTimesLeft;
 
-    TrackScheduler(AudioPlayer player) {
+    TrackScheduler(AudioPlayer player, AudioPlayerSendHandler sendHandler, int maxQueuedPerGuild, int maxQueuedPerUser) {
         this.player = player;
-        this.dequeue = new LinkedBlockingDeque<>();
+        this.sendHandler = sendHandler;
+        this.maxQueuedPerGuild = maxQueuedPerGuild;
+        this.maxQueuedPerUser = maxQueuedPerUser;
     }
 
     /**
-     * Add the next track to queue or play right away if nothing is in the queue.
+     * Add the next track to queue or play right away if nothing is playing.
      *
-     * @param track The track to play or add to queue.
+     * @param track     The track to play or add to queue.
+     * @param requester The id of the user that requested the track.
+     * @return Whether the track is playing, queued or was rejected because a queue limit was reached.
      */
-    public void queue(AudioTrack track, Guild guild) {
-        AudioInfo info = new AudioInfo(track, guild);
+    public QueueResult queue(AudioTrack track, Guild guild, String requester) {
+        boolean startNow;
+        synchronized (this) {
+            startNow = queued == 0 && !sendHandler.isPlayingCached();
+        }
+        if (startNow && player.startTrack(track, true)) {
+            return QueueResult.PLAYING;
+        }
 
-        if (player.getPlayingTrack() == null) {
-            player.playTrack(track);
-        } else {
-            dequeue.add(info);
+        synchronized (this) {
+            QueueResult capacity = checkCapacity(requester, 1);
+            if (capacity.isRejected()) {
+                return capacity;
+            }
+            enqueue(new AudioInfo(track, guild, requester), false);
+            return QueueResult.QUEUED;
         }
     }
 
-    public void playNow(AudioTrack track, Guild guild) {
+    /**
+     * Checks whether tracks could be queued for a user without starting them.
+     *
+     * @param requester The id of the user.
+     * @param count     The number of tracks the user wants to queue.
+     * @return {@link QueueResult#QUEUED} if they fit, otherwise the limit that would be exceeded.
+     */
+    public synchronized QueueResult checkCapacity(String requester, int count) {
+        if (queued + count > maxQueuedPerGuild) {
+            return QueueResult.GUILD_QUEUE_FULL;
+        }
+        if (getQueueSize(requester) + count > maxQueuedPerUser) {
+            return QueueResult.USER_QUEUE_FULL;
+        }
+        return QueueResult.QUEUED;
+    }
+
+    /**
+     * Play a track right away, replacing the current one.
+     *
+     * @param track     The track to play.
+     * @param requester The id of the user that requested the track.
+     */
+    public void playNow(AudioTrack track, Guild guild, String requester) {
+        playNow(track, guild, requester, 1);
+    }
+
+    /**
+     * Play a track right away, replacing the current one, and repeat it back to back from its captured frames.
+     *
+     * @param track     The track to play.
+     * @param requester The id of the user that requested the track.
+     * @param times     How many times to play it in total.
+     */
+    public void playNow(AudioTrack track, Guild guild, String requester, int times) {
+        synchronized (this) {
+            loopTrack = times > 1 ? track : null;
+            loopTimesLeft = times - 1;
+        }
+        sendHandler.stopCached();
+        sendHandler.stopCapture();
+        sendHandler.clearFirstFrameListeners();
         if (!player.startTrack(track, false)) {
-            AudioInfo info = new AudioInfo(track, guild);
-            dequeue.addFirst(info);
+            synchronized (this) {
+                enqueue(new AudioInfo(track, guild, requester), true);
+            }
         }
     }
 
+    /**
+     * Play pre-decoded frames right away, replacing the current track. Queued tracks start once the frames are sent.
+     *
+     * @param sound The cached frames to play.
+     */
+    public void playNow(CachedSound sound, Guild guild) {
+        playNow(sound, guild, 1);
+    }
+
+    /**
+     * Play pre-decoded frames right away, replacing the current track. Queued tracks start once the frames are sent.
+     *
+     * @param sound The cached frames to play.
+     * @param times How many times to play them back to back.
+     */
+    public void playNow(CachedSound sound, Guild guild, int times) {
+        synchronized (this) {
+            loopTrack = null;
+        }
+        sendHandler.stopCapture();
+        sendHandler.clearFirstFrameListeners();
+        sendHandler.playCached(new CachedSoundPlayback(sound, times));
+        player.stopTrack();
+    }
+
+    @Override
+    public void onTrackStart(AudioPlayer player, AudioTrack track) {
+        synchronized (this) {
+            if (track != loopTrack) {
+                return;
+            }
+        }
+        sendHandler.startCapture();
+    }
+
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
-        if (endReason == AudioTrackEndReason.REPLACED) {
-            return;
+        int repeats = 0;
+        synchronized (this) {
+            if (track == loopTrack) {
+                loopTrack = null;
+                repeats = loopTimesLeft;
+            }
+        }
+        if (repeats > 0) {
+            List<byte[]> frames = sendHandler.stopCapture();
+            if (endReason == AudioTrackEndReason.FINISHED && !frames.isEmpty()) {
+                // Called from the audio sending thread after the last frame, so the repeats follow without a gap.
+                sendHandler.playCached(new CachedSoundPlayback(CachedSound.of(frames, 0), repeats));
+                return;
+            }
         }
 
-        AudioInfo audioInfo = dequeue.poll();
-        if (audioInfo == null) {
+        if (endReason == AudioTrackEndReason.REPLACED || sendHandler.isPlayingCached()) {
             return;
         }
-        AudioTrack nextTrack = audioInfo.getTrack();
-        this.player.playTrack(nextTrack);
+
+        nextTrack();
+    }
+
+    void nextTrack() {
+        AudioInfo audioInfo;
+        synchronized (this) {
+            String requester = turns.poll();
+            if (requester == null) {
+                return;
+            }
+            Deque<AudioInfo> userQueue = userQueues.get(requester);
+            audioInfo = userQueue.poll();
+            if (userQueue.isEmpty()) {
+                userQueues.remove(requester);
+            } else {
+                turns.add(requester);
+            }
+            queued--;
+        }
+        this.player.playTrack(audioInfo.getTrack());
+    }
+
+    /**
+     * @return The number of tracks waiting in this guild.
+     */
+    public synchronized int getQueueSize() {
+        return queued;
+    }
+
+    /**
+     * @param requester The id of the user.
+     * @return The number of tracks the user has waiting in this guild.
+     */
+    public synchronized int getQueueSize(String requester) {
+        Deque<AudioInfo> userQueue = userQueues.get(requester);
+        return userQueue == null ? 0 : userQueue.size();
+    }
+
+    /**
+     * Estimates how long a track the user queues now would wait before it starts. Every other user gets at most one
+     * turn per track the user already has queued, plus one.
+     *
+     * @param requester The id of the user.
+     * @return The estimated wait in milliseconds, or -1 if a track of unknown length (e.g. a stream) is involved.
+     */
+    public synchronized long getEstimatedWaitMs(String requester) {
+        long wait = getRemainingMs();
+        if (wait < 0) {
+            return -1;
+        }
+        int turnsAhead = getQueueSize(requester) + 1;
+        for (Map.Entry<String, Deque<AudioInfo>> entry : userQueues.entrySet()) {
+            int tracks = entry.getKey().equals(requester) ? turnsAhead - 1 : turnsAhead;
+            for (AudioInfo info : entry.getValue()) {
+                if (tracks-- <= 0) {
+                    break;
+                }
+                long duration = info.getTrack().getDuration();
+                if (duration == Long.MAX_VALUE) {
+                    return -1;
+                }
+                wait += duration;
+            }
+        }
+        return wait;
+    }
+
+    /**
+     * @return true if nothing is playing and nothing is queued.
+     */
+    public synchronized boolean isIdle() {
+        return queued == 0 && player.getPlayingTrack() == null && !sendHandler.isPlayingCached();
     }
 
     public void stop() {
-        dequeue.clear();
+        synchronized (this) {
+            loopTrack = null;
+            userQueues.clear();
+            turns.clear();
+            queued = 0;
+        }
+        sendHandler.stopCapture();
+        sendHandler.stopCached();
+        sendHandler.clearFirstFrameListeners();
         player.stopTrack();
     }
+
+    private long getRemainingMs() {
+        long remaining = sendHandler.getCachedRemainingMs();
+        AudioTrack playing = player.getPlayingTrack();
+        if (playing != null) {
+            if (playing.getDuration() == Long.MAX_VALUE) {
+                return -1;
+            }
+            remaining += Math.max(0, playing.getDuration() - playing.getPosition());
+        }
+        return remaining;
+    }
+
+    private void enqueue(AudioInfo info, boolean first) {
+        Deque<AudioInfo> userQueue = userQueues.computeIfAbsent(info.getRequester(), k -> new ArrayDeque<>());
+        if (userQueue.isEmpty()) {
+            if (first) {
+                turns.addFirst(info.getRequester());
+            } else {
+                turns.add(info.getRequester());
+            }
+        }
+        if (first) {
+            userQueue.addFirst(info);
+        } else {
+            userQueue.add(info);
+        }
+        queued++;
+    }
 }
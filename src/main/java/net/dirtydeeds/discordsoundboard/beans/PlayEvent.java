@@ -17,6 +17,7 @@ public class PlayEvent {
     private String filename;
     @Column(nullable = false)
     private Date timestamp;
+    private String guildId;
 
     protected PlayEvent() {
 
@@ -27,6 +28,11 @@ public class PlayEvent {
         this.filename = filename;
     }
 
+    public PlayEvent(String username, String filename, String guildId) {
+        this(username, filename);
+        this.guildId = guildId;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -43,6 +49,14 @@ public class PlayEvent {
         this.filename = filename;
     }
 
+    public String getGuildId() {
+        return guildId;
+    }
+
+    public void setGuildId(String guildId) {
+        this.guildId = guildId;
+    }
+
     public Date getTimestamp() {
         return timestamp;
     }
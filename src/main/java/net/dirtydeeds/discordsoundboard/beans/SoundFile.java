@@ -1,8 +1,13 @@
 package net.dirtydeeds.discordsoundboard.beans;
 
+import org.springframework.data.domain.Persistable;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Transient;
 import java.util.Date;
 
 /**
@@ -12,7 +17,7 @@ import java.util.Date;
  */
 @SuppressWarnings("unused")
 @Entity
-public class SoundFile {
+public class SoundFile implements Persistable<String> {
 
     @Id
     private String soundFileId;
@@ -26,14 +31,40 @@ public class SoundFile {
     @Column
     private Date lastModified;
 
+    @Column
+    private Long size;
+
+    /**
+     * Lets inserts of new sound files skip the select that merging an entity with an assigned id would need.
+     */
+    @Transient
+    private boolean isNew = true;
+
     protected SoundFile() {
     }
 
-    public SoundFile(String soundFileId, String soundFileLocation, String category, Date lastModified) {
+    public SoundFile(String soundFileId, String soundFileLocation, String category, Date lastModified, Long size) {
         this.soundFileId = soundFileId;
         this.soundFileLocation = soundFileLocation;
         this.category = category;
         this.lastModified = lastModified;
+        this.size = size;
+    }
+
+    @Override
+    public String getId() {
+        return soundFileId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    private void markNotNew() {
+        isNew = false;
     }
 
     public String getSoundFileId() {
@@ -44,14 +75,34 @@ public class SoundFile {
         return soundFileLocation;
     }
 
+    public void setSoundFileLocation(String soundFileLocation) {
+        this.soundFileLocation = soundFileLocation;
+    }
+
     public String getCategory() {
         return category;
     }
 
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
     public Date getLastModified() {
         return lastModified;
     }
 
+    public void setLastModified(Date lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
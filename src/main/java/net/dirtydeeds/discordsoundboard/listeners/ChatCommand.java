@@ -0,0 +1,16 @@
+package net.dirtydeeds.discordsoundboard.listeners;
+
+import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
+
+/**
+ * A chat command, registered by name in a {@link CommandRegistry}.
+ */
+@FunctionalInterface
+public interface ChatCommand {
+
+    /**
+     * @param event   - The event of the message.
+     * @param command - The message, parsed into the command name and its arguments.
+     */
+    void execute(MessageReceivedEvent event, ParsedCommand command);
+}
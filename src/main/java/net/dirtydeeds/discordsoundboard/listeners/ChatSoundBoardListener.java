@@ -2,42 +2,49 @@ package net.dirtydeeds.discordsoundboard.listeners;
 
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.sun.management.OperatingSystemMXBean;
+import com.google.common.cache.CacheStats;
 import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
 import net.dirtydeeds.discordsoundboard.SoundPlaybackException;
+import net.dirtydeeds.discordsoundboard.audio.AudioDeliveryMonitor;
+import net.dirtydeeds.discordsoundboard.audio.GuildAudioDelivery;
 import net.dirtydeeds.discordsoundboard.beans.PlayEventFilenameCount;
 import net.dirtydeeds.discordsoundboard.beans.PlayEventUsernameCount;
 import net.dirtydeeds.discordsoundboard.beans.PlayEventUsernameFilenameCount;
 import net.dirtydeeds.discordsoundboard.beans.SoundFile;
 import net.dirtydeeds.discordsoundboard.repository.PlayEventRepository;
-import net.dirtydeeds.discordsoundboard.repository.SoundFileRepository;
+import net.dirtydeeds.discordsoundboard.service.CommandPipeline;
+import net.dirtydeeds.discordsoundboard.service.LoudnessNormalizer;
+import net.dirtydeeds.discordsoundboard.service.OpusFrameCache;
+import net.dirtydeeds.discordsoundboard.service.PlayTrace;
+import net.dirtydeeds.discordsoundboard.service.PlayTracer;
+import net.dirtydeeds.discordsoundboard.service.PlaybackMetrics;
+import net.dirtydeeds.discordsoundboard.service.RuntimeStatsSampler;
+import net.dirtydeeds.discordsoundboard.service.SoundCatalog;
 import net.dirtydeeds.discordsoundboard.service.SoundPlayerImpl;
 import net.dirtydeeds.discordsoundboard.service.SoundPlayerRateLimiter;
+import net.dirtydeeds.discordsoundboard.util.LatencyHistogram;
 import net.dirtydeeds.discordsoundboard.util.MessageSplitter;
 import net.dv8tion.jda.core.Permission;
 import net.dv8tion.jda.core.entities.ChannelType;
+import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.events.message.MessageEmbedEvent;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.core.exceptions.PermissionException;
 import net.dv8tion.jda.core.hooks.ListenerAdapter;
 import net.dv8tion.jda.core.utils.PermissionUtil;
+import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.management.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.StreamSupport;
+import java.util.stream.Collectors;
 
 /**
  * @author dfurrer.
@@ -53,17 +60,48 @@ public class ChatSoundBoardListener extends ListenerAdapter {
     private final SoundPlayerImpl soundPlayer;
     private final DiscordSoundboardProperties appProperties;
     private final PlayEventRepository playEventRepository;
-    private final SoundFileRepository soundFileRepository;
-    private boolean muted;
+    private final SoundCatalog soundCatalog;
+    private final OpusFrameCache opusFrameCache;
+    private final LoudnessNormalizer loudnessNormalizer;
+    private final CommandPipeline commandPipeline;
+    private final PlaybackMetrics metrics;
+    private final PlayTracer playTracer;
+    private final CommandRegistry commands;
 
 
-    public ChatSoundBoardListener(SoundPlayerImpl soundPlayer, DiscordSoundboardProperties appProperties, PlayEventRepository playEventRepository, SoundFileRepository soundFileRepository, SoundPlayerRateLimiter rateLimiter) {
+    public ChatSoundBoardListener(SoundPlayerImpl soundPlayer, DiscordSoundboardProperties appProperties, PlayEventRepository playEventRepository, SoundCatalog soundCatalog, OpusFrameCache opusFrameCache, LoudnessNormalizer loudnessNormalizer, SoundPlayerRateLimiter rateLimiter, CommandPipeline commandPipeline, PlaybackMetrics metrics, PlayTracer playTracer) {
         this.soundPlayer = soundPlayer;
         this.appProperties = appProperties;
         this.playEventRepository = playEventRepository;
-        this.soundFileRepository = soundFileRepository;
+        this.soundCatalog = soundCatalog;
+        this.opusFrameCache = opusFrameCache;
+        this.loudnessNormalizer = loudnessNormalizer;
         this.rateLimiter = rateLimiter;
-        muted = false;
+        this.commandPipeline = commandPipeline;
+        this.metrics = metrics;
+        this.playTracer = playTracer;
+        this.commands = new CommandRegistry(appProperties.getCommandCharacter())
+                .register("list", (event, command) -> listCommand(event, event.getAuthor().getName(), event.getAuthor().getId(), command))
+                .register("help", (event, command) -> helpCommand(event, event.getAuthor().getName(), event.getAuthor().getId()))
+                .register("volume", (event, command) -> volumeCommand(event, event.getAuthor().getName(), event.getAuthor().getId(), command))
+                .register("stop", (event, command) -> stopCommand(event, event.getAuthor().getName(), event.getAuthor().getId()), true)
+                .register("info", (event, command) -> infoCommand(event, event.getAuthor().getName(), event.getAuthor().getId()))
+                .register("remove", this::removeCommand)
+                .register("random", (event, command) -> randomCommand(event, event.getAuthor().getName()))
+                .register("top", this::topCommand)
+                .register("bottom", this::bottomCommand)
+                .register("summon", (event, command) -> summonCommand(event))
+                .register("yt", (event, command) -> youtubeCommand(event, command.getOriginalMessage()))
+                .register("queue", (event, command) -> queueCommand(event, event.getAuthor().getName(), event.getAuthor().getId()))
+                .register("stats", this::statsCommand)
+                .setFallback("sound", this::soundCommand);
+    }
+
+    /**
+     * @return The chat commands, other commands can be registered here.
+     */
+    public CommandRegistry getCommands() {
+        return commands;
     }
 
     private static String humanReadableByteCount(long bytes) {
@@ -74,97 +112,102 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         return String.format("%.1f %sB", bytes / Math.pow(unit, exp), pre);
     }
 
+    /**
+     * Hands commands to the {@link CommandPipeline}, so they run in order per guild without holding up JDA's event
+     * thread. Stopping playback takes the fast lane.
+     */
     @Override
     public void onMessageReceived(MessageReceivedEvent event) {
-        String requestingUser = event.getAuthor().getName();
-        String requestingUserId = event.getAuthor().getId();
         if (event.getAuthor().isBot() || !((appProperties.isRespondToDm() && event.isFromType(ChannelType.PRIVATE)) ||
                 !event.isFromType(ChannelType.PRIVATE))) {
             super.onMessageReceived(event);
             return;
         }
         String originalMessage = event.getMessage().getContentRaw().trim();
-        String message = originalMessage.toLowerCase();
 
-        String cc = appProperties.getCommandCharacter();
-        if (!message.startsWith(cc)) {
-            uploadCommand(event, originalMessage);
-            super.onMessageReceived(event);
-            return;
+        CommandRegistry.Route route = commands.route(originalMessage);
+        boolean accepted = true;
+        if (route == null) {
+            if (!event.getMessage().getAttachments().isEmpty()) {
+                accepted = commandPipeline.submit(pipelineKey(event), () -> uploadCommand(event, originalMessage));
+            }
+        } else if (route.isFastLane()) {
+            playTracer.received(event.getMessageId());
+            accepted = commandPipeline.submitFastLane(() -> handleCommand(event, originalMessage, route));
+        } else {
+            playTracer.received(event.getMessageId());
+            accepted = commandPipeline.submit(pipelineKey(event), () -> handleCommand(event, originalMessage, route));
         }
+        if (!accepted) {
+            LOG.warn("Rejected command of {}, too many commands are waiting", event.getAuthor().getName());
+            soundPlayer.sendPrivateMessage(event, "I am too busy right now, please try again in a moment.");
+        }
+
+        super.onMessageReceived(event);
+    }
+
+    /**
+     * Commands of a guild run in order, commands sent by private message in order per user.
+     */
+    private static String pipelineKey(MessageReceivedEvent event) {
+        return event.isFromType(ChannelType.PRIVATE) ? "user:" + event.getAuthor().getId() : event.getGuild().getId();
+    }
+
+    private void handleCommand(MessageReceivedEvent event, String originalMessage, CommandRegistry.Route route) {
+        String requestingUser = event.getAuthor().getName();
+        String requestingUserId = event.getAuthor().getId();
 
         if (!soundPlayer.isUserAllowed(requestingUser, requestingUserId)) {
             replyByPrivateMessage(event, "I don't take orders from you.");
-            super.onMessageReceived(event);
             return;
         }
         if (soundPlayer.isUserBanned(requestingUser, requestingUserId)) {
             replyByPrivateMessage(event, "You've been banned from using this soundboard bot.");
-            super.onMessageReceived(event);
             return;
         }
 
         //Respond
-        if (message.startsWith(cc + "list")) {
-            listCommand(event, requestingUser, requestingUserId, message);
-        } else if (message.startsWith(cc + "help")) {
-            helpCommand(event, requestingUser, requestingUserId);
-        } else if (message.startsWith(cc + "volume")) {
-            volumeCommand(event, requestingUser, requestingUserId, message);
-        } else if (message.startsWith(cc + "stop")) {
-            stopCommand(event, requestingUser);
-        } else if (message.startsWith(cc + "info")) {
-            infoCommand(event, requestingUser, requestingUserId);
-        } else if (message.startsWith(cc + "remove")) {
-            removeCommand(event, message);
-        } else if (message.startsWith(cc + "random")) {
-            randomCommand(event, requestingUser);
-        } else if (message.startsWith(cc + "top")) {
-            topCommand(event, message);
-        } else if (message.startsWith(cc + "bottom")) {
-            bottomCommand(event, message);
-        } else if (message.startsWith(cc + "summon")) {
-            summonCommand(event);
-        } else if (message.startsWith(cc + "yt")) {
-            youtubeCommand(event, originalMessage);
-        } else if (message.startsWith(cc + "stats")) {
-            statsCommand(event);
-        } else if (message.startsWith(appProperties.getCommandCharacter()) && message.length() >= 2) {
-            playSoundCommand(event, requestingUser, requestingUserId, message);
-        } else {
-            if (event.isFromType(ChannelType.PRIVATE)) {
-                nonRecognizedCommand(event, requestingUser);
-            }
+        playTracer.mark(event.getMessageId(), PlayTrace.Stage.COMMAND_STARTED);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            route.getCommand().execute(event, ParsedCommand.parse(originalMessage, appProperties.getCommandCharacter()));
+            failed = false;
+        } finally {
+            metrics.recordCommand(route.getName(), System.nanoTime() - start, failed);
         }
+    }
 
-        super.onMessageReceived(event);
+    /**
+     * Every message that is not one of the commands tries to play the sound of that name.
+     */
+    private void soundCommand(MessageReceivedEvent event, ParsedCommand command) {
+        if (!command.getName().isEmpty()) {
+            playSoundCommand(event, event.getAuthor().getName(), event.getAuthor().getId(), command);
+        } else if (event.isFromType(ChannelType.PRIVATE)) {
+            nonRecognizedCommand(event, event.getAuthor().getName());
+        }
     }
 
-    private void statsCommand(MessageReceivedEvent event) {
-        String message = event.getMessage().getContentRaw().trim().toLowerCase();
+    private void statsCommand(MessageReceivedEvent event, ParsedCommand command) {
         deleteMessage(event);
 
-        // g1 stats
-        // g3 which stats query
-        // g5 period for stats
-        String patternString = String.format("\\%s(\\w+)(\\s(\\w+))?(\\s(\\d+))?", appProperties.getCommandCharacter());
-        Pattern pattern = Pattern.compile(patternString);
-        Matcher matcher = pattern.matcher(message);
-
-        if (!matcher.matches()) {
+        if (!command.matchesGrammar()) {
             return;
         }
 
-        String statsQuery = matcher.group(3);
+        String statsQuery = command.getArgument(0);
 
-        String statsPeriod = matcher.group(5); // TODO date range for stats
+        String statsPeriod = command.getArgument(1); // TODO date range for stats
 
         if (Strings.isNullOrEmpty(statsQuery)) {
             statsQuery = "top";
         }
 
         StringBuilder sb = new StringBuilder();
-        Set<String> soundFileLocations = soundFileRepository.getSoundFileNames();
+        Set<String> soundFileLocations = soundCatalog.getAll().stream()
+                .map(soundFile -> FilenameUtils.getBaseName(soundFile.getSoundFileLocation()))
+                .collect(Collectors.toSet());
         switch (statsQuery) {
             case "usersounds":
                 Collection<PlayEventUsernameFilenameCount> usernameFilenameCount = playEventRepository.getUsernameFilenameCount();
@@ -211,7 +254,7 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         }
     }
 
-    private void listCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId, String message) {
+    private void listCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId, ParsedCommand command) {
         LOG.info("Responding to list command. Requested by " + requestingUser + ". ID: " + requestingUserId);
 
         StringBuilder commandString = getCommandListString();
@@ -223,7 +266,7 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         MessageSplitter messageSplitter = new MessageSplitter(appProperties.getMessageSizeLimit());
         List<String> soundList = messageSplitter.splitMessage(commandString);
 
-        if (message.equals(appProperties.getCommandCharacter() + "list")) {
+        if (command.getArgumentCount() == 0) {
             if (commandString.length() > appProperties.getMessageSizeLimit()) {
                 replyByPrivateMessage(event,
                                       "You have " + soundList.size() + " pages of sound files. Reply:" +
@@ -235,9 +278,8 @@ public class ChatSoundBoardListener extends ListenerAdapter {
                 replyByPrivateMessage(event, soundList.get(0));
             }
         } else {
-            String[] messageSplit = message.split(" ");
             try {
-                int pageNumber = Integer.parseInt(messageSplit[1]);
+                int pageNumber = Integer.parseInt(command.getArgument(0));
                 replyByPrivateMessage(event, "Type any of the following into the chat to play the sound:");
                 replyByPrivateMessage(event, soundList.get(pageNumber - 1));
             } catch (IndexOutOfBoundsException e) {
@@ -259,31 +301,31 @@ public class ChatSoundBoardListener extends ListenerAdapter {
                 "\n" + appProperties.getCommandCharacter() + "random           - Plays a random sound from the list." +
                 "\n" + appProperties.getCommandCharacter() + "volume 0-100     - Sets the playback volume." +
                 "\n" + appProperties.getCommandCharacter() + "stop             - Stops the sound that is currently playing." +
+                "\n" + appProperties.getCommandCharacter() + "queue            - Shows how many tracks are queued and how long you would wait." +
                 "\n" + appProperties.getCommandCharacter() + "summon           - Summon the bot to your channel." +
                 "\n" + appProperties.getCommandCharacter() + "info             - Returns info about the bot." +
                 "\n" + appProperties.getCommandCharacter() + "stats            - Returns statistics about which sounds are popular.```");
         deleteMessage(event);
     }
 
-    private void volumeCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId, String message) {
-        int newVol = Integer.parseInt(message.substring(8));
+    private void volumeCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId, ParsedCommand command) {
+        int newVol = Integer.parseInt(command.getRawArguments().trim());
         if (newVol >= 1 && newVol <= 100) {
-            muted = false;
-            soundPlayer.setSoundPlayerVolume(newVol, requestingUser);
-            replyByPrivateMessage(event, "*Volume set to " + newVol + "%*");
+            soundPlayer.setSoundPlayerVolume(newVol, requestingUserId);
+            replyByPrivateMessage(event, "*Volume set to " + newVol + "%*" + (newVol == 100 ? "" :
+                    " Cached sounds are already normalized, a volume other than 100% makes every play decode and encode the audio again."));
             LOG.info("Volume set to " + newVol + "% by " + requestingUser + ". ID: " + requestingUserId);
         } else if (newVol == 0) {
-            muted = true;
-            soundPlayer.setSoundPlayerVolume(newVol, requestingUser);
+            soundPlayer.setSoundPlayerVolume(newVol, requestingUserId);
             replyByPrivateMessage(event, requestingUser + " muted me.");
             LOG.info("Bot muted by " + requestingUser + ".");
         }
         deleteMessage(event);
     }
 
-    private void stopCommand(MessageReceivedEvent event, String requestingUser) {
+    private void stopCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId) {
         LOG.info("Stop requested by " + requestingUser + ".");
-        if (soundPlayer.stop(requestingUser)) {
+        if (soundPlayer.stop(requestingUserId)) {
             replyByPrivateMessage(event, "Playback stopped.");
         } else {
             replyByPrivateMessage(event, "Nothing was playing.");
@@ -328,7 +370,6 @@ public class ChatSoundBoardListener extends ListenerAdapter {
                                         name.substring(0, name.indexOf(".")) + " can change update this sound.");
                             }
                         }
-                        soundPlayer.getFileList();
                     } else {
                         replyByPrivateMessage(event, "File `" + name + "` is too large to add to library.");
                     }
@@ -337,30 +378,24 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         }
     }
 
-    private void playSoundCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId, String message) {
+    private void playSoundCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId, ParsedCommand command) {
         deleteMessage(event);
-        if (rateLimiter.userIsRateLimited(event.getAuthor().getName())) {
-            return;
-        }
 
-        if (muted) {
+        if (soundPlayer.isMuted()) {
             LOG.info("Attempting to play a sound file while muted. Requested by " + requestingUser + ". ID: " + requestingUserId);
             replyByPrivateMessage(event, "I seem to be muted! Try " + appProperties.getCommandCharacter() + "help");
             return;
         }
 
-        String patternString = String.format("\\%s(\\w+)(\\s(\\w+))?(\\s(\\d+))?", appProperties.getCommandCharacter());
-        Pattern pattern = Pattern.compile(patternString);
-        Matcher matcher = pattern.matcher(message);
-        if (!matcher.matches()) {
+        if (!command.matchesGrammar()) {
             return;
         }
 
-        String fileNameRequested = matcher.group(1);
-        String repeatString = matcher.group(3);
+        String fileNameRequested = command.getName();
+        String repeatString = command.getArgument(0);
 
-        if (fileNameRequested == null) {
-            LOG.info("No filename recognized for message: {}", message);
+        if (fileNameRequested.isEmpty()) {
+            LOG.info("No filename recognized for message: {}", command.getMessage());
             replyByPrivateMessage(event, "I didn't recognize the filename in your message! Try " +
                     appProperties.getCommandCharacter() + "help");
             return;
@@ -380,6 +415,9 @@ public class ChatSoundBoardListener extends ListenerAdapter {
             replyByPrivateMessage(event, "Repeat count is limited to " + repeatLimit);
             return;
         }
+        if (isRateLimited(event, repeatNumber)) {
+            return;
+        }
 
         LOG.info("Attempting to play file: " + fileNameRequested + " " + repeatNumber + " times. Requested by " +
                 requestingUser + ". ID: " + requestingUserId);
@@ -390,19 +428,58 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         }
     }
 
+    /**
+     * Takes the cost of a request from the user's rate limit in the guild the request plays in.
+     *
+     * @param event - The event of the request.
+     * @param cost  - The number of tokens the request costs.
+     * @return true if the user has to wait before playing this.
+     */
+    private boolean isRateLimited(MessageReceivedEvent event, int cost) {
+        String userId = event.getAuthor().getId();
+        Guild guild = event.getGuild();
+        if (guild == null) {
+            guild = soundPlayer.getUsersVoiceGuild(userId);
+        }
+        return rateLimiter.userIsRateLimited(userId, guild == null ? null : guild.getId(), cost);
+    }
+
     private void youtubeCommand(MessageReceivedEvent event, String originalMessage) {
         deleteMessage(event);
+        if (isRateLimited(event, appProperties.getRateLimitYoutubeCost())) {
+            return;
+        }
 
         try {
             int split = originalMessage.indexOf(" ");
             String url = originalMessage.substring(split + 1);
-            soundPlayer.playUrlForUser(url, event.getAuthor().getName());
+            soundPlayer.playUrlForUser(url, event.getAuthor().getName(), event.getAuthor().getId());
+        } catch (SoundPlaybackException e) {
+            replyByPrivateMessage(event, e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             LOG.error(e.getMessage());
         }
     }
 
+    private void queueCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId) {
+        deleteMessage(event);
+        Guild guild = event.getGuild();
+        if (guild == null) {
+            guild = soundPlayer.getUsersVoiceGuild(requestingUserId);
+        }
+        if (guild == null) {
+            replyByPrivateMessage(event, "I can not find a voice channel you are connected to.");
+            return;
+        }
+
+        long waitMs = soundPlayer.getEstimatedWaitMs(guild, requestingUserId);
+        replyByPrivateMessage(event, "Queued tracks: " + soundPlayer.getQueueSize(guild) + " (yours: " +
+                soundPlayer.getQueueSize(guild, requestingUserId) + " of " + appProperties.getMaxQueuedPerUser() +
+                "). A track you queue now starts in " +
+                (waitMs < 0 ? "an unknown time, a stream is playing or queued." : "about " + TimeUnit.MILLISECONDS.toSeconds(waitMs) + " seconds."));
+    }
+
     private void summonCommand(MessageReceivedEvent event) {
         try {
             soundPlayer.playNothingForEvent(event);
@@ -414,7 +491,7 @@ public class ChatSoundBoardListener extends ListenerAdapter {
 
     private void randomCommand(MessageReceivedEvent event, String requestingUser) {
         deleteMessage(event);
-        if (rateLimiter.userIsRateLimited(event.getAuthor().getName())) {
+        if (isRateLimited(event, 1)) {
             return;
         }
 
@@ -425,13 +502,13 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         }
     }
 
-    private void topCommand(MessageReceivedEvent event, String message) {
+    private void topCommand(MessageReceivedEvent event, ParsedCommand command) {
         deleteMessage(event);
-        if (rateLimiter.userIsRateLimited(event.getAuthor().getName())) {
+        if (isRateLimited(event, 1)) {
             return;
         }
 
-        int number = getCommandNumber(message);
+        int number = getCommandNumber(command);
         try {
             soundPlayer.playTopSoundFile(event, number);
         } catch (SoundPlaybackException e) {
@@ -439,13 +516,13 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         }
     }
 
-    private void bottomCommand(MessageReceivedEvent event, String message) {
+    private void bottomCommand(MessageReceivedEvent event, ParsedCommand command) {
         deleteMessage(event);
-        if (rateLimiter.userIsRateLimited(event.getAuthor().getName())) {
+        if (isRateLimited(event, 1)) {
             return;
         }
 
-        int number = getCommandNumber(message);
+        int number = getCommandNumber(command);
         try {
             soundPlayer.playBottomSoundFile(event, number);
         } catch (SoundPlaybackException e) {
@@ -453,18 +530,19 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         }
     }
 
-    private int getCommandNumber(String message) {
-        int number = MessageSplitter.getCommandXNumber(message, appProperties.getCommandCharacter());
-
-        if (number == -1) {
-            number = 10;
+    private int getCommandNumber(ParsedCommand command) {
+        if (!command.matchesGrammar()) {
+            return 10;
         }
-        return number;
+        return command.getNumberArgument(0, 10);
     }
 
-    private void removeCommand(MessageReceivedEvent event, String message) {
-        String[] messageSplit = message.split(" ");
-        String soundToRemove = messageSplit[1];
+    private void removeCommand(MessageReceivedEvent event, ParsedCommand command) {
+        String soundToRemove = command.getArgument(0);
+        if (Strings.isNullOrEmpty(soundToRemove)) {
+            replyByPrivateMessage(event, "Tell me which sound file to remove: " + appProperties.getCommandCharacter() + "remove soundFileName");
+            return;
+        }
         boolean hasManageServerPerm = event.getMember() != null && PermissionUtil.checkPermission(event.getMember(), Permission.MANAGE_SERVER);
         if (event.getAuthor().getName().equalsIgnoreCase(soundToRemove)
                 || hasManageServerPerm) {
@@ -481,32 +559,8 @@ public class ChatSoundBoardListener extends ListenerAdapter {
     private void infoCommand(MessageReceivedEvent event, String requestingUser, String requestingUserId) {
         LOG.info("Responding to info request by " + requestingUser + ". ID: " + requestingUserId);
 
-        OperatingSystemMXBean operatingSystemMXBean = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
-        RuntimeMXBean runtimeMXBean = ManagementFactory.getRuntimeMXBean();
-        int availableProcessors = operatingSystemMXBean.getAvailableProcessors();
-        long prevUpTime = runtimeMXBean.getUptime();
-        long prevProcessCpuTime = operatingSystemMXBean.getProcessCpuTime();
-        double cpuUsage;
-        try {
-            Thread.sleep(500);
-        } catch (Exception ignored) {
-        }
-
-        long upTime = runtimeMXBean.getUptime();
-        long processCpuTime = operatingSystemMXBean.getProcessCpuTime();
-        long elapsedCpu = processCpuTime - prevProcessCpuTime;
-        long elapsedTime = upTime - prevUpTime;
-
-        cpuUsage = Math.min(99F, elapsedCpu / (elapsedTime * 10000F * availableProcessors));
-
-        List<MemoryPoolMXBean> memoryPools = new ArrayList<>(ManagementFactory.getMemoryPoolMXBeans());
-        long usedHeapMemoryAfterLastGC = 0;
-        for (MemoryPoolMXBean memoryPool : memoryPools) {
-            if (memoryPool.getType().equals(MemoryType.HEAP)) {
-                MemoryUsage poolCollectionMemoryUsage = memoryPool.getCollectionUsage();
-                usedHeapMemoryAfterLastGC += poolCollectionMemoryUsage.getUsed();
-            }
-        }
+        RuntimeStatsSampler.Snapshot stats = soundPlayer.getRuntimeStats();
+        long upTime = stats.getUptimeMs();
 
         Package thisPackage = getClass().getPackage();
         String version = null;
@@ -522,14 +576,57 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         long uptimeMinutes = TimeUnit.MINUTES.convert(upTime, TimeUnit.MILLISECONDS) - TimeUnit.HOURS.toMinutes(TimeUnit.MILLISECONDS.toHours(upTime));
         long upTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(upTime) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(upTime));
 
+        CacheStats frameCacheStats = stats.getFrameCacheStats();
+        CacheStats trackCacheStats = stats.getTrackCacheStats();
+
         replyByPrivateMessage(event, "DiscordSoundboard info: ```" +
-                "CPU: " + df2.format(cpuUsage) + "%" +
-                "\nMemory: " + humanReadableByteCount(usedHeapMemoryAfterLastGC) +
+                "CPU: " + df2.format(stats.getCpuPercent()) + "% (last minute: " + df2.format(stats.getCpuPercentMinute()) + "%)" +
+                "\nMemory: " + humanReadableByteCount(stats.getHeapAfterGcBytes()) + " after GC" +
+                "\nGC: " + stats.getGcCount() + " collections, " + stats.getGcTimeMs() + " ms (last minute: " +
+                df2.format(stats.getGcPauseMsMinute()) + " ms per pause)" +
+                "\nThreads: " + stats.getThreadCount() + " (peak: " + stats.getPeakThreadCount() + ")" +
                 "\nUptime: Days: " + uptimeDays + " Hours: " + uptimeHours + " Minutes: " + uptimeMinutes + " Seconds: " + upTimeSeconds +
                 "\nVersion: " + version +
-                "\nSoundFiles: " + soundPlayer.getAvailableSoundFiles().size() +
+                "\nStartup: " + soundPlayer.getStartupTimings().describe() +
+                "\nSoundFiles: " + stats.getSoundFileCount() +
+                "\nFile Changes: " + soundPlayer.getFileChanges().getEventsReceived() + " events in " +
+                soundPlayer.getFileChanges().getReconciles() + " reconciles" +
+                "\nFrame Cache: " + stats.getFrameCacheSize() + " sounds, " + humanReadableByteCount(stats.getFrameCacheBytes()) +
+                " (hits: " + frameCacheStats.hitCount() + " misses: " + frameCacheStats.missCount() +
+                " evictions: " + frameCacheStats.evictionCount() + ")" +
+                "\nTrack Cache: " + stats.getTrackCacheSize() + " tracks (hits: " + trackCacheStats.hitCount() +
+                " misses: " + trackCacheStats.missCount() + ")" +
+                "\nLoudness: " + (loudnessNormalizer.isEnabled() ? loudnessNormalizer.getGainCount() +
+                " measured for " + df2.format(loudnessNormalizer.getTargetLufs()) + " LUFS (failed: " +
+                loudnessNormalizer.getFailedCount() + ")" : "disabled") +
+                "\nCommands: " + commandPipeline.getSubmittedCount() + " queued, " + commandPipeline.getQueuedCount() +
+                " waiting (rejected: " + commandPipeline.getRejectedCount() + " fast lane: " +
+                commandPipeline.getFastLaneCount() + " failed: " + commandPipeline.getFailedCount() + ") wait " +
+                commandPipeline.getQueueWait() +
+                "\nPrivate Messages: " + soundPlayer.getPrivateMessages().getReplyCount() + " replies in " +
+                soundPlayer.getPrivateMessages().getSentCount() + " messages (failed: " +
+                soundPlayer.getPrivateMessages().getFailedCount() + ")" +
+                "\nMerged Plays: " + soundPlayer.getMergedPlayCount() +
+                "\nRate Limited: " + rateLimiter.getLimitedCount() + " requests" +
+                "\nShards: " + soundPlayer.getReadyShardCount() + "/" + soundPlayer.getShardCount() + " ready" +
+                "\nPlayers: " + stats.getGuildPlayers() + " guilds, " + stats.getPlayingGuilds() + " playing (released when idle: " +
+                soundPlayer.getEvictedPlayerCount() + ")" +
+                "\nVoice Connect: " + soundPlayer.getConnectLatency() +
+                "\nPlay Latency: " + playTracer.getTotalLatency() +
+                "\nAudio Delivery: " + audioDeliveryInfo() +
+                "\nPlay Stages (p95): " + playStagesP95() +
+                "\nVoice Warm: " + soundPlayer.getWarmConnectionHits() + " plays on a warm connection, " +
+                soundPlayer.getVoiceReconnects() + " waited for a connect" +
+                "\nLingering: " + soundPlayer.getVoiceLingerPolicy().getWarmCount() + "/" +
+                soundPlayer.getVoiceLingerPolicy().getMaxWarmConnections() + " channels (resumed: " +
+                soundPlayer.getVoiceLingerPolicy().getResumedCount() + " expired: " +
+                soundPlayer.getVoiceLingerPolicy().getExpiredCount() + " closed for cap: " +
+                soundPlayer.getVoiceLingerPolicy().getCapClosedCount() + ")" +
+                "\nVolume: " + Math.round(soundPlayer.getSoundPlayerVolume() * 100) + "% (plays re-encoded for volume: " +
+                soundPlayer.getTranscodedPlays() + ")" +
                 "\nCommand Prefix: " + appProperties.getCommandCharacter() +
                 "\nSound File Path: " + appProperties.getSoundsDirectory() +
+                "\nSampled: " + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - stats.getSampledAt()) + " seconds ago" +
                 "```");
     }
 
@@ -538,6 +635,31 @@ public class ChatSoundBoardListener extends ListenerAdapter {
         LOG.info(event.toString());
     }
 
+    private String audioDeliveryInfo() {
+        AudioDeliveryMonitor monitor = soundPlayer.getDeliveryMonitor();
+        GuildAudioDelivery worst = monitor.getWorstJitter();
+        String lastStutter = monitor.getLastStutter();
+        return monitor.getProvidedCount() + " frames sent, " + monitor.getMissedCount() + " missed while playing, " +
+                monitor.getStutterCount() + " stutters" + (lastStutter == null ? "" : " (last: " + lastStutter + ")") +
+                (worst == null ? "" : ", worst jitter " + df2.format(worst.getJitterMicros() / 1000.0) + " ms (max " +
+                        df2.format(worst.getMaxJitterMicros() / 1000.0) + " ms)");
+    }
+
+    /**
+     * @return The p95 of every traced stage of a play, so the stage behind slow plays stands out.
+     */
+    private String playStagesP95() {
+        StringBuilder sb = new StringBuilder();
+        for (PlayTrace.Stage stage : PlayTrace.Stage.values()) {
+            LatencyHistogram latency = playTracer.getStageLatency(stage);
+            if (latency.getCount() > 0) {
+                sb.append(sb.length() == 0 ? "" : ", ").append(stage.name().toLowerCase()).append("<=")
+                        .append(latency.getPercentileMs(95)).append("ms");
+            }
+        }
+        return sb.length() == 0 ? "none yet" : sb.toString();
+    }
+
     private void nonRecognizedCommand(MessageReceivedEvent event, String requestingUser) {
         replyByPrivateMessage(event, "Hello @" + requestingUser + ". I don't know how to respond to this message!");
         replyByPrivateMessage(event, "You can type " + appProperties.getCommandCharacter() + "help to see a list of recognized commands.");
@@ -546,7 +668,7 @@ public class ChatSoundBoardListener extends ListenerAdapter {
 
     private StringBuilder getCommandListString() {
         StringBuilder sb = new StringBuilder();
-        StreamSupport.stream(soundFileRepository.findAll().spliterator(), false)
+        soundCatalog.getAll().stream()
                 .sorted(Comparator.comparing(SoundFile::getLastModified).reversed())
                 .map(soundFile -> String.format("%s%-50s%tF\n", appProperties.getCommandCharacter(), soundFile.getSoundFileId(), soundFile.getLastModified()))
                 .forEach(sb::append);
@@ -554,15 +676,7 @@ public class ChatSoundBoardListener extends ListenerAdapter {
     }
 
     private void replyByPrivateMessage(MessageReceivedEvent event, String message) {
-        try {
-            soundPlayer.sendPrivateMessage(event, message);
-        } catch (InterruptedException e) {
-            LOG.warn("Message reply async action interrupted");
-        } catch (ExecutionException e) {
-            LOG.warn("Could not send private message reply");
-        } catch (TimeoutException e) {
-            LOG.warn("Sending of private message timed out");
-        }
+        soundPlayer.sendPrivateMessage(event, message);
         deleteMessage(event);
     }
 
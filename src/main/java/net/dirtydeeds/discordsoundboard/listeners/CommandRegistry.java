@@ -0,0 +1,128 @@
+package net.dirtydeeds.discordsoundboard.listeners;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The chat commands by name. Names are kept in a trie, so finding the command of a message walks its first word once
+ * instead of testing every command in turn.
+ * <p>
+ * A command only matches its whole name: {@code ?stopwatch} is not {@code ?stop} and {@code ?listen} is not
+ * {@code ?list}. Messages without a matching command go to the fallback, which plays the sound of that name.
+ */
+public class CommandRegistry {
+
+    private final String commandCharacter;
+    private final Node root = new Node();
+    private Route fallback;
+
+    /**
+     * @param commandCharacter - The prefix of commands.
+     */
+    public CommandRegistry(String commandCharacter) {
+        this.commandCharacter = commandCharacter;
+    }
+
+    /**
+     * @param name    - The name of the command, without the command character.
+     * @param command - The command.
+     * @return This registry.
+     * @throws IllegalArgumentException if a command of that name is registered already.
+     */
+    public CommandRegistry register(String name, ChatCommand command) {
+        return register(name, command, false);
+    }
+
+    /**
+     * @param name     - The name of the command, without the command character.
+     * @param command  - The command.
+     * @param fastLane - Whether the command is quick and must not wait behind other commands.
+     * @return This registry.
+     * @throws IllegalArgumentException if a command of that name is registered already.
+     */
+    public CommandRegistry register(String name, ChatCommand command, boolean fastLane) {
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.children.computeIfAbsent(Character.toLowerCase(name.charAt(i)), c -> new Node());
+        }
+        if (node.route != null) {
+            throw new IllegalArgumentException("Command " + name + " is registered already.");
+        }
+        node.route = new Route(name, command, fastLane);
+        return this;
+    }
+
+    /**
+     * @param name    - The name the command is known by, e.g. in metrics.
+     * @param command - The command for messages no other command matches.
+     * @return This registry.
+     */
+    public CommandRegistry setFallback(String name, ChatCommand command) {
+        this.fallback = new Route(name, command, false);
+        return this;
+    }
+
+    /**
+     * @param message - The trimmed message.
+     * @return The route of the message, or null if it does not start with the command character.
+     */
+    public Route route(String message) {
+        if (!message.startsWith(commandCharacter)) {
+            return null;
+        }
+        Node node = root;
+        for (int i = commandCharacter.length(); i < message.length() && node != null; i++) {
+            char c = message.charAt(i);
+            if (Character.isWhitespace(c)) {
+                break;
+            }
+            node = node.children.get(Character.toLowerCase(c));
+        }
+        return node != null && node.route != null ? node.route : fallback;
+    }
+
+    /**
+     * @param message - The trimmed message.
+     * @return Whether the message is a registered command, not counting the fallback.
+     */
+    public boolean isCommand(String message) {
+        Route route = route(message);
+        return route != null && route != fallback;
+    }
+
+    public String getCommandCharacter() {
+        return commandCharacter;
+    }
+
+    /**
+     * The command a message goes to.
+     */
+    public static class Route {
+        private final String name;
+        private final ChatCommand command;
+        private final boolean fastLane;
+
+        private Route(String name, ChatCommand command, boolean fastLane) {
+            this.name = name;
+            this.command = command;
+            this.fastLane = fastLane;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ChatCommand getCommand() {
+            return command;
+        }
+
+        public boolean isFastLane() {
+            return fastLane;
+        }
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private Route route;
+    }
+}
@@ -1,5 +1,6 @@
 package net.dirtydeeds.discordsoundboard.listeners;
 
+import net.dirtydeeds.discordsoundboard.service.VoiceLingerPolicy;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.VoiceChannel;
@@ -10,25 +11,38 @@ import org.apache.commons.logging.LogFactory;
 
 import java.util.List;
 
+/**
+ * Leaves a voice channel once the bot is the last member in it. The {@link VoiceLingerPolicy} decides how long the
+ * bot waits before leaving, and a user joining the channel in the meantime keeps it there.
+ */
 public class DisconnectListener extends ListenerAdapter {
 
     private static final Log LOG = LogFactory.getLog("DisconnectListener");
 
-    public DisconnectListener() {
+    private final VoiceLingerPolicy lingerPolicy;
+
+    public DisconnectListener(VoiceLingerPolicy lingerPolicy) {
+        this.lingerPolicy = lingerPolicy;
     }
 
     @Override
     public void onGuildVoiceUpdate(GuildVoiceUpdateEvent event) {
+        Guild guild = event.getGuild();
+        VoiceChannel joined = event.getChannelJoined();
+        if (joined != null && !event.getMember().equals(guild.getSelfMember())
+                && joined.equals(guild.getAudioManager().getConnectedChannel())) {
+            lingerPolicy.resume(guild.getId());
+        }
+
         VoiceChannel channel = event.getChannelLeft();
         if (channel == null) {
             return;
         }
 
         List<Member> members = channel.getMembers();
-        Guild guild = channel.getGuild();
         if (members.size() == 1 && members.get(0).equals(guild.getSelfMember())) {
-            LOG.info("Bot is the last user left in channel, disconnecting");
-            guild.getAudioManager().closeAudioConnection();
+            LOG.info("Bot is the last user left in channel " + channel.getName());
+            lingerPolicy.onLeftAlone(guild);
         }
     }
 }
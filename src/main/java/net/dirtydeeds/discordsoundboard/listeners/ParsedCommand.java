@@ -0,0 +1,153 @@
+package net.dirtydeeds.discordsoundboard.listeners;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A chat message split into a command name and its arguments. The message is parsed once by hand, so no regular
+ * expression is compiled or run per message.
+ * <p>
+ * Most commands follow the grammar {@code <command character><name>[ <word>][ <number>]}, with words made of letters,
+ * digits and underscores and single whitespace characters between the parts. {@link #matchesGrammar()} tells if the
+ * message does.
+ */
+public class ParsedCommand {
+
+    private final String originalMessage;
+    private final String message;
+    private final String name;
+    private final List<String> arguments;
+    private final String rawArguments;
+    private final boolean matchesGrammar;
+
+    private ParsedCommand(String originalMessage, String message, String name, List<String> arguments, String rawArguments, boolean matchesGrammar) {
+        this.originalMessage = originalMessage;
+        this.message = message;
+        this.name = name;
+        this.arguments = arguments;
+        this.rawArguments = rawArguments;
+        this.matchesGrammar = matchesGrammar;
+    }
+
+    /**
+     * @param originalMessage  - The trimmed message as it was sent.
+     * @param commandCharacter - The prefix of commands.
+     * @return The parsed command, or null if the message does not start with the command character.
+     */
+    public static ParsedCommand parse(String originalMessage, String commandCharacter) {
+        if (!originalMessage.startsWith(commandCharacter)) {
+            return null;
+        }
+        int length = originalMessage.length();
+        int start = commandCharacter.length();
+        int end = start;
+        while (end < length && !Character.isWhitespace(originalMessage.charAt(end))) {
+            end++;
+        }
+        String name = originalMessage.substring(start, end).toLowerCase(Locale.ROOT);
+        String rawArguments = end < length ? originalMessage.substring(end + 1) : "";
+
+        // Split on every single whitespace character, so doubled spaces leave an empty argument behind.
+        List<String> arguments = new ArrayList<>(2);
+        if (end < length) {
+            int tokenStart = end + 1;
+            for (int i = tokenStart; i <= length; i++) {
+                if (i == length || Character.isWhitespace(originalMessage.charAt(i))) {
+                    arguments.add(originalMessage.substring(tokenStart, i).toLowerCase(Locale.ROOT));
+                    tokenStart = i + 1;
+                }
+            }
+        }
+        boolean matchesGrammar = isWord(name);
+        if (arguments.size() > 2) {
+            matchesGrammar = false;
+        } else if (arguments.size() == 2) {
+            matchesGrammar &= isWord(arguments.get(0)) && isNumber(arguments.get(1));
+        } else if (arguments.size() == 1) {
+            matchesGrammar &= isWord(arguments.get(0));
+        }
+        return new ParsedCommand(originalMessage, originalMessage.toLowerCase(Locale.ROOT), name, Collections.unmodifiableList(arguments), rawArguments, matchesGrammar);
+    }
+
+    private static boolean isWord(String token) {
+        if (token.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!(c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumber(String token) {
+        if (token.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The command name in lower case, without the command character.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param index - The index of the argument.
+     * @return The argument in lower case, or null if there are not that many.
+     */
+    public String getArgument(int index) {
+        return index < arguments.size() ? arguments.get(index) : null;
+    }
+
+    public int getArgumentCount() {
+        return arguments.size();
+    }
+
+    /**
+     * @param index        - The index of the argument.
+     * @param defaultValue - The value if the argument is missing.
+     * @return The argument as a number.
+     * @throws NumberFormatException if the argument is not a number.
+     */
+    public int getNumberArgument(int index, int defaultValue) {
+        String argument = getArgument(index);
+        return argument == null || argument.isEmpty() ? defaultValue : Integer.parseInt(argument);
+    }
+
+    /**
+     * @return Everything after the command name in its original case, e.g. a link.
+     */
+    public String getRawArguments() {
+        return rawArguments;
+    }
+
+    /**
+     * @return Whether the message follows the {@code <name>[ <word>][ <number>]} grammar.
+     */
+    public boolean matchesGrammar() {
+        return matchesGrammar;
+    }
+
+    /**
+     * @return The whole message in lower case.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public String getOriginalMessage() {
+        return originalMessage;
+    }
+}
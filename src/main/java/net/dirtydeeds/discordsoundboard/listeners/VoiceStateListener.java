@@ -0,0 +1,47 @@
+package net.dirtydeeds.discordsoundboard.listeners;
+
+import net.dirtydeeds.discordsoundboard.service.VoiceStateIndex;
+import net.dv8tion.jda.core.events.ReconnectedEvent;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceJoinEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceLeaveEvent;
+import net.dv8tion.jda.core.events.guild.voice.GuildVoiceMoveEvent;
+import net.dv8tion.jda.core.hooks.ListenerAdapter;
+
+/**
+ * Keeps the {@link VoiceStateIndex} up to date with the voice channels users join, move between and leave.
+ */
+public class VoiceStateListener extends ListenerAdapter {
+
+    private final VoiceStateIndex voiceStateIndex;
+
+    public VoiceStateListener(VoiceStateIndex voiceStateIndex) {
+        this.voiceStateIndex = voiceStateIndex;
+    }
+
+    @Override
+    public void onGuildVoiceJoin(GuildVoiceJoinEvent event) {
+        voiceStateIndex.joined(event.getMember(), event.getChannelJoined());
+    }
+
+    @Override
+    public void onGuildVoiceMove(GuildVoiceMoveEvent event) {
+        voiceStateIndex.joined(event.getMember(), event.getChannelJoined());
+    }
+
+    @Override
+    public void onGuildVoiceLeave(GuildVoiceLeaveEvent event) {
+        voiceStateIndex.left(event.getMember());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event) {
+        voiceStateIndex.removeGuild(event.getGuild().getId());
+    }
+
+    @Override
+    public void onReconnect(ReconnectedEvent event) {
+        // Voice updates during the outage were not delivered, the guild cache is current again.
+        voiceStateIndex.rebuild(event.getJDA());
+    }
+}
@@ -8,6 +8,8 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 public interface PlayEventRepository extends CrudRepository<PlayEvent, UUID> {
@@ -20,4 +22,7 @@ public interface PlayEventRepository extends CrudRepository<PlayEvent, UUID> {
 
     @Query(value = "select p.username as username, p.filename as filename, count(p.id) as count from PlayEvent p group by p.username, p.filename order by count(p.id) desc")
     Collection<PlayEventUsernameFilenameCount> getUsernameFilenameCount();
+
+    @Query(value = "select p.timestamp from PlayEvent p where p.guildId = ?1 and p.timestamp > ?2 order by p.timestamp")
+    List<Date> getGuildPlayTimestamps(String guildId, Date since);
 }
@@ -0,0 +1,69 @@
+package net.dirtydeeds.discordsoundboard.repository;
+
+import net.dirtydeeds.discordsoundboard.service.PlaybackMetrics;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.AopConfigException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every call made through the {@link PlayEventRepository} and the {@link SoundFileRepository}. The repositories
+ * are proxies created by Spring Data, the timing is added to them as the outermost advice, so it includes the
+ * transaction.
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryMetricsPostProcessor.class);
+
+    /** Looked up on first use, a post processor is created before the beans the metrics depend on. */
+    private final ObjectProvider<PlaybackMetrics> metricsProvider;
+    private volatile PlaybackMetrics metrics;
+
+    public RepositoryMetricsPostProcessor(ObjectProvider<PlaybackMetrics> metricsProvider) {
+        this.metricsProvider = metricsProvider;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        String repository = null;
+        if (bean instanceof PlayEventRepository) {
+            repository = PlayEventRepository.class.getSimpleName();
+        } else if (bean instanceof SoundFileRepository) {
+            repository = SoundFileRepository.class.getSimpleName();
+        }
+        if (repository == null || !(bean instanceof Advised)) {
+            return bean;
+        }
+        String name = repository;
+        try {
+            ((Advised) bean).addAdvice(0, (MethodInterceptor) invocation -> {
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    Object result = invocation.proceed();
+                    failed = false;
+                    return result;
+                } finally {
+                    getMetrics().recordRepositoryCall(name, invocation.getMethod().getName(), System.nanoTime() - start, failed);
+                }
+            });
+        } catch (AopConfigException e) {
+            LOG.warn("Could not time the calls of {}", name, e);
+        }
+        return bean;
+    }
+
+    private PlaybackMetrics getMetrics() {
+        PlaybackMetrics current = metrics;
+        if (current == null) {
+            current = metricsProvider.getObject();
+            metrics = current;
+        }
+        return current;
+    }
+}
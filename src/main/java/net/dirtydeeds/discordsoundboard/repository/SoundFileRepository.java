@@ -4,7 +4,6 @@ import net.dirtydeeds.discordsoundboard.beans.SoundFile;
 import net.dirtydeeds.discordsoundboard.beans.SoundFilePlayEventCount;
 import org.apache.commons.io.FilenameUtils;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
@@ -21,18 +20,6 @@ public interface SoundFileRepository extends CrudRepository<SoundFile, String> {
     SoundFile findOneBySoundFileIdIgnoreCase(String name);
     Page<SoundFile> findAll(Pageable pageable);
 
-    default SoundFile findRandom() {
-        long count = count();
-        int random = (int) (Math.random() * count);
-
-        Page<SoundFile> page = findAll(PageRequest.of(random, 1));
-
-        if (page.hasContent()) {
-            return page.getContent().get(0);
-        }
-        return null;
-    }
-
     @Query(value = "select s.soundFileLocation as soundFileLocation from SoundFile s")
     Collection<String> getSoundFileLocations();
 
@@ -0,0 +1,77 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+
+/**
+ * Keeps a loaded {@link AudioTrack} per local sound file so later plays can start a clone of it instead of going
+ * through source manager detection and container probing again. An entry is dropped once the file's modification time
+ * changes. {@code TrackStartBenchmark} compares the time to the first frame with and without it.
+ *
+ * @author dfurrer.
+ */
+public class AudioTrackCache {
+
+    private final Cache<String, Template> cache;
+
+    public AudioTrackCache(int maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param soundFile - The sound file to look up.
+     * @return A fresh clone of the cached track, or null if none is cached for the current version of the file.
+     */
+    public AudioTrack get(SoundFile soundFile) {
+        String key = soundFile.getSoundFileLocation();
+        Template template = cache.getIfPresent(key);
+        if (template == null) {
+            return null;
+        }
+        if (template.lastModified != lastModified(soundFile)) {
+            cache.invalidate(key);
+            return null;
+        }
+        return template.track.makeClone();
+    }
+
+    /**
+     * @param soundFile - The sound file the track was loaded from.
+     * @param track     - The loaded track. A clone of it is kept, so the track itself can still be played.
+     */
+    public void put(SoundFile soundFile, AudioTrack track) {
+        cache.put(soundFile.getSoundFileLocation(), new Template(track.makeClone(), lastModified(soundFile)));
+    }
+
+    public void invalidate(SoundFile soundFile) {
+        cache.invalidate(soundFile.getSoundFileLocation());
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    private static long lastModified(SoundFile soundFile) {
+        return soundFile.getLastModified() == null ? 0 : soundFile.getLastModified().getTime();
+    }
+
+    private static class Template {
+        private final AudioTrack track;
+        private final long lastModified;
+
+        private Template(AudioTrack track, long lastModified) {
+            this.track = track;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs chat commands on its own threads instead of JDA's event thread, so a slow command does not hold up events of
+ * every guild.
+ * <p>
+ * Commands with the same key (a guild, or a user for private messages) run one after another in the order they were
+ * submitted, commands with different keys run in parallel. A key only takes one worker at a time and goes to the back
+ * of the line after each command, so a busy guild can not starve the others. The number of waiting commands is limited
+ * per key and in total, commands over the limit are rejected.
+ * <p>
+ * Commands that must not wait behind others, like stopping playback, go through a separate fast lane.
+ */
+@Service
+public class CommandPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CommandPipeline.class);
+
+    private final ExecutorService workers;
+    private final ThreadPoolExecutor fastLane;
+    private final int maxQueuedPerKey;
+    private final int maxQueued;
+    private final Map<String, Deque<Command>> queues = new HashMap<>();
+    private int queued;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong fastLaneCount = new AtomicLong();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    @Autowired
+    public CommandPipeline(DiscordSoundboardProperties appProperties) {
+        this.maxQueuedPerKey = appProperties.getCommandQueuePerGuild();
+        this.maxQueued = appProperties.getCommandQueueLimit();
+        this.workers = Executors.newFixedThreadPool(appProperties.getCommandThreads(), threadFactory("command-worker-"));
+        this.fastLane = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedPerKey), threadFactory("command-fast-lane-"));
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Queues a command behind the other commands of its key.
+     *
+     * @param key     - The guild id, or the user id for commands sent by private message.
+     * @param command - The command to run.
+     * @return false if the command was rejected because too many commands are waiting.
+     */
+    public boolean submit(String key, Runnable command) {
+        Command queuedCommand = new Command(command);
+        synchronized (queues) {
+            Deque<Command> queue = queues.get(key);
+            if (queued >= maxQueued || (queue != null && queue.size() >= maxQueuedPerKey)) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            queued++;
+            submitted.incrementAndGet();
+            if (queue != null) {
+                queue.add(queuedCommand);
+                return true;
+            }
+            queue = new ArrayDeque<>();
+            queue.add(queuedCommand);
+            queues.put(key, queue);
+            schedule(key, queue);
+        }
+        return true;
+    }
+
+    /**
+     * Runs a command right away on the fast lane, without waiting for the commands of its key.
+     *
+     * @param command - The command to run, it should be quick.
+     * @return false if the command was rejected because the fast lane is full.
+     */
+    public boolean submitFastLane(Runnable command) {
+        Command queuedCommand = new Command(command);
+        try {
+            fastLane.execute(queuedCommand::run);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        fastLaneCount.incrementAndGet();
+        return true;
+    }
+
+    private void schedule(String key, Deque<Command> queue) {
+        try {
+            workers.execute(() -> runNext(key, queue));
+        } catch (RejectedExecutionException e) {
+            // Only happens while shutting down.
+            queues.remove(key);
+            queued -= queue.size();
+        }
+    }
+
+    private void runNext(String key, Deque<Command> queue) {
+        Command command;
+        synchronized (queues) {
+            command = queue.poll();
+            queued--;
+        }
+        try {
+            command.run();
+        } finally {
+            // Also after an Error, otherwise the key would never run another command.
+            synchronized (queues) {
+                if (queue.isEmpty()) {
+                    queues.remove(key);
+                } else {
+                    schedule(key, queue);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of commands waiting to run.
+     */
+    public int getQueuedCount() {
+        synchronized (queues) {
+            return queued + fastLane.getQueue().size();
+        }
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * @return The number of commands that were not run because too many commands were waiting.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The number of commands that ended with an exception.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getFastLaneCount() {
+        return fastLaneCount.get();
+    }
+
+    /**
+     * @return How long commands waited before they started.
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    @PreDestroy
+    @SuppressWarnings("unused")
+    public void cleanUp() {
+        workers.shutdownNow();
+        fastLane.shutdownNow();
+    }
+
+    private class Command {
+        private final Runnable command;
+        private final long submittedAt = System.nanoTime();
+
+        private Command(Runnable command) {
+            this.command = command;
+        }
+
+        void run() {
+            queueWait.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt));
+            try {
+                command.run();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                LOG.error("Command failed", e);
+            }
+        }
+    }
+}
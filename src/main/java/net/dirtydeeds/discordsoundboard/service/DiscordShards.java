@@ -0,0 +1,132 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dv8tion.jda.bot.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.bot.sharding.ShardManager;
+import net.dv8tion.jda.core.entities.Guild;
+
+import javax.security.auth.login.LoginException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * The shards this instance runs. Guilds are assigned to shards the way Discord does it, by their id, so everything
+ * about a guild is found in the {@link ShardContext} of its shard.
+ * <p>
+ * The shards are started through a {@link DefaultShardManagerBuilder} without waiting for them to log in, each one
+ * reports readiness through its context.
+ */
+public class DiscordShards {
+
+    private final int shardsTotal;
+    private final Map<Integer, ShardContext> shards;
+    private volatile ShardManager shardManager;
+
+    /**
+     * @param shardsTotal    - The number of shards of the bot across all instances.
+     * @param rangeStart     - The first shard this instance runs, -1 for the first one.
+     * @param rangeEnd       - The last shard this instance runs, -1 for the last one.
+     * @param contextFactory - Creates the context of a shard by its id.
+     * @throws IllegalArgumentException if the range is not within the shards of the bot.
+     */
+    public DiscordShards(int shardsTotal, int rangeStart, int rangeEnd, IntFunction<ShardContext> contextFactory) {
+        int first = rangeStart < 0 ? 0 : rangeStart;
+        int last = rangeEnd < 0 ? shardsTotal - 1 : rangeEnd;
+        if (shardsTotal < 1 || first > last || last >= shardsTotal) {
+            throw new IllegalArgumentException("Invalid shard range " + first + "-" + last + " of " + shardsTotal + " shards.");
+        }
+        this.shardsTotal = shardsTotal;
+        Map<Integer, ShardContext> contexts = new LinkedHashMap<>();
+        for (int shardId = first; shardId <= last; shardId++) {
+            contexts.put(shardId, contextFactory.apply(shardId));
+        }
+        this.shards = Collections.unmodifiableMap(contexts);
+    }
+
+    /**
+     * Starts the shards. Listeners added to the builder beforehand are added to every shard, the context of each
+     * shard is added to it as well.
+     *
+     * @param builder - The builder, configured with the token and listeners.
+     * @return The shard manager, the shards log in in the background.
+     */
+    public ShardManager start(DefaultShardManagerBuilder builder) throws LoginException {
+        shardManager = builder
+                .setShardsTotal(shardsTotal)
+                .setShards(shards.keySet())
+                .addEventListenerProvider(shards::get)
+                .build();
+        return shardManager;
+    }
+
+    /**
+     * @param guild - A guild of the bot.
+     * @return The context of the shard the guild belongs to.
+     */
+    public ShardContext forGuild(Guild guild) {
+        return shards.get(shardIdOf(guild.getIdLong()));
+    }
+
+    /**
+     * @param guildId - The id of a guild.
+     * @return The guild if its shard runs here and has connected, otherwise null.
+     */
+    public Guild getGuildById(String guildId) {
+        ShardContext shard = shards.get(shardIdOf(Long.parseLong(guildId)));
+        return shard == null ? null : shard.getGuildById(guildId);
+    }
+
+    private int shardIdOf(long guildId) {
+        return (int) ((guildId >>> 22) % shardsTotal);
+    }
+
+    /**
+     * @param shardId - The id of a shard run by this instance.
+     * @return The context of the shard.
+     */
+    public ShardContext getShard(int shardId) {
+        return shards.get(shardId);
+    }
+
+    public Collection<ShardContext> getShards() {
+        return shards.values();
+    }
+
+    /**
+     * @return The number of shards run by this instance.
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return The number of shards of this instance that are connected and ready.
+     */
+    public int getReadyCount() {
+        int ready = 0;
+        for (ShardContext shard : shards.values()) {
+            if (shard.isReady()) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    public int getShardsTotal() {
+        return shardsTotal;
+    }
+
+    /**
+     * Shuts the shards down and releases the music managers of all their guilds.
+     */
+    public void shutdown() {
+        if (shardManager != null) {
+            shardManager.shutdown();
+        }
+        for (ShardContext shard : shards.values()) {
+            shard.getMusicManagers().shutdown();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Decodes local sound files outside of playback, for the {@link OpusFrameCache} and the {@link LoudnessNormalizer}.
+ * The output format is a setting of the player manager, so there is one manager for Opus frames and one for PCM.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class LocalAudioDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalAudioDecoder.class);
+    private static final long LOAD_TIMEOUT_SECONDS = 10;
+    private static final long FRAME_TIMEOUT_SECONDS = 5;
+    /** lavaplayer scales samples by tan(volume * 0.0079) up to volume 150 and linearly above. */
+    private static final double VOLUME_CURVE = 0.0079;
+    private static final int VOLUME_CURVE_END = 150;
+    private static final int MAX_VOLUME = 1000;
+    /** At exactly this volume lavaplayer leaves the samples untouched. */
+    static final int UNCHANGED_VOLUME = 100;
+
+    private final AudioPlayerManager opusManager;
+    private final AudioPlayerManager pcmManager;
+
+    public LocalAudioDecoder() {
+        this.opusManager = createManager(StandardAudioDataFormats.DISCORD_OPUS);
+        this.pcmManager = createManager(StandardAudioDataFormats.COMMON_PCM_S16_BE);
+    }
+
+    /**
+     * Decodes a file to the 20 ms Opus frames that are sent to Discord.
+     *
+     * @param path          - The absolute path of the file.
+     * @param volume        - The lavaplayer volume to decode at, see {@link #volumeForGain(double)}.
+     * @param maxDurationMs - Files that play longer are not decoded.
+     * @param consumer      - Called with every frame in order.
+     * @return Whether the file was decoded, false if it could not be loaded or is too long.
+     */
+    public boolean decodeOpus(String path, int volume, long maxDurationMs, Consumer<byte[]> consumer) throws InterruptedException, ExecutionException, TimeoutException {
+        return decode(opusManager, path, volume, maxDurationMs, consumer);
+    }
+
+    /**
+     * Decodes a file to 16 bit big endian 48 kHz stereo PCM.
+     *
+     * @param path     - The absolute path of the file.
+     * @param consumer - Called with every 20 ms of samples in order.
+     * @return Whether the file could be loaded.
+     */
+    public boolean decodePcm(String path, Consumer<byte[]> consumer) throws InterruptedException, ExecutionException, TimeoutException {
+        return decode(pcmManager, path, UNCHANGED_VOLUME, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Finds the lavaplayer volume that comes closest to a gain.
+     *
+     * @param gainDb - The gain in dB.
+     * @return The volume between 1 and 1000, exactly 100 if no gain is needed.
+     */
+    public static int volumeForGain(double gainDb) {
+        double multiplier = Math.pow(10, gainDb / 20);
+        double curveEnd = Math.tan(VOLUME_CURVE_END * VOLUME_CURVE);
+        double volume = multiplier <= curveEnd
+                ? Math.atan(multiplier) / VOLUME_CURVE
+                : VOLUME_CURVE_END * multiplier / curveEnd;
+        int lower = (int) Math.max(1, Math.min(MAX_VOLUME - 1, Math.floor(volume)));
+        // 100 is not on the curve, so compare the two neighbours by what they actually do.
+        double lowerError = Math.abs(Math.log(volumeMultiplier(lower) / multiplier));
+        double upperError = Math.abs(Math.log(volumeMultiplier(lower + 1) / multiplier));
+        return lowerError <= upperError ? lower : lower + 1;
+    }
+
+    /**
+     * @return The factor lavaplayer scales samples by at the volume.
+     */
+    static double volumeMultiplier(int volume) {
+        if (volume == UNCHANGED_VOLUME) {
+            return 1;
+        }
+        if (volume <= VOLUME_CURVE_END) {
+            return Math.tan(volume * VOLUME_CURVE);
+        }
+        return volume * Math.tan(VOLUME_CURVE_END * VOLUME_CURVE) / VOLUME_CURVE_END;
+    }
+
+    private boolean decode(AudioPlayerManager manager, String path, int volume, long maxDurationMs, Consumer<byte[]> consumer) throws InterruptedException, ExecutionException, TimeoutException {
+        AudioTrack track = loadTrack(manager, path);
+        if (track == null) {
+            return false;
+        }
+        if (track.getDuration() > maxDurationMs) {
+            LOG.debug("Not decoding {}, it is longer than {} ms", path, maxDurationMs);
+            return false;
+        }
+
+        AudioPlayer player = manager.createPlayer();
+        try {
+            player.setVolume(volume);
+            player.playTrack(track);
+            while (player.getPlayingTrack() != null) {
+                AudioFrame frame = player.provide(FRAME_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (frame != null) {
+                    consumer.accept(frame.getData());
+                }
+            }
+        } finally {
+            player.destroy();
+        }
+        return true;
+    }
+
+    private AudioTrack loadTrack(AudioPlayerManager manager, String path) throws InterruptedException, ExecutionException, TimeoutException {
+        AtomicReference<AudioTrack> loaded = new AtomicReference<>();
+        manager.loadItem(path, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                loaded.set(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                loaded.set(playlist.getSelectedTrack());
+            }
+
+            @Override
+            public void noMatches() {
+                LOG.debug("Could not find file {}", path);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                LOG.warn("Could not load file {}: {}", path, exception.getMessage());
+            }
+        }).get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return loaded.get();
+    }
+
+    private static AudioPlayerManager createManager(AudioDataFormat outputFormat) {
+        AudioPlayerManager manager = new DefaultAudioPlayerManager();
+        manager.getConfiguration().setOutputFormat(outputFormat);
+        manager.registerSourceManager(new LocalAudioSourceManager());
+        return manager;
+    }
+
+    @PreDestroy
+    @SuppressWarnings("unused")
+    public void cleanUp() {
+        opusManager.shutdown();
+        pcmManager.shutdown();
+    }
+}
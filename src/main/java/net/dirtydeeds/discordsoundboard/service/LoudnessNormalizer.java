@@ -0,0 +1,398 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures the integrated loudness of every sound file (ITU-R BS.1770 / EBU R128 style: K-weighting, 400 ms blocks,
+ * absolute and relative gating) and keeps the gain that brings it to the configured target loudness. The
+ * {@link OpusFrameCache} applies the gain when it decodes a sound, so cached plays have a similar level while the player
+ * stays at 100% and the frames are sent as they are. Plays that are not served from the frame cache use the original.
+ * <p>
+ * The gains are saved to a small file keyed by the location and modification time of each sound, so only new or
+ * changed files are measured again after a restart. Files are measured one at a time in the background.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class LoudnessNormalizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoudnessNormalizer.class);
+    private static final int MAGIC = 0x4C554653;
+    private static final int VERSION = 1;
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    /** Loudness is measured in 100 ms segments, four of them make one 400 ms gating block. */
+    private static final int SEGMENT_FRAMES = SAMPLE_RATE / 10;
+    private static final int SEGMENTS_PER_BLOCK = 4;
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double RELATIVE_GATE_LU = -10;
+    private static final double PEAK_CEILING_DBFS = -1;
+
+    private final boolean enabled;
+    private final double targetLufs;
+    private final double maxGainDb;
+    private final Path gainsFile;
+    private final Map<String, Gain> gains = new ConcurrentHashMap<>();
+    private final List<Consumer<SoundFile>> listeners = new CopyOnWriteArrayList<>();
+    private final LocalAudioDecoder decoder;
+    private final ExecutorService executor;
+    private final AtomicLong measured = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Autowired
+    public LoudnessNormalizer(DiscordSoundboardProperties appProperties, LocalAudioDecoder decoder) {
+        this.enabled = appProperties.isLoudnessNormalization();
+        this.targetLufs = appProperties.getLoudnessTargetLufs();
+        this.maxGainDb = appProperties.getLoudnessMaxGainDb();
+        String file = appProperties.getLoudnessGainsFile();
+        this.gainsFile = file == null || file.isEmpty() ? null : Paths.get(file);
+        this.decoder = decoder;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "loudness-normalizer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (enabled) {
+            loadGains();
+        }
+    }
+
+    /**
+     * @param listener - Called with the sound file whenever its gain was measured or dropped.
+     */
+    public void addListener(Consumer<SoundFile> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the lavaplayer volume to decode the sound file at so it reaches the target loudness.
+     *
+     * @param soundFile - The sound file to decode.
+     * @return The volume for the measured gain, or 100 if the current version of the file was not measured yet.
+     */
+    public int getVolume(SoundFile soundFile) {
+        Gain gain = enabled ? gains.get(soundFile.getSoundFileLocation()) : null;
+        if (gain == null || gain.sourceLastModified != lastModified(soundFile)) {
+            return LocalAudioDecoder.UNCHANGED_VOLUME;
+        }
+        return LocalAudioDecoder.volumeForGain(gain.gainDb);
+    }
+
+    /**
+     * Queues the sound files that were not measured yet or changed since.
+     *
+     * @param soundFiles - The sound files that were added or changed.
+     */
+    public void submit(Collection<SoundFile> soundFiles) {
+        if (!enabled || soundFiles.isEmpty()) {
+            return;
+        }
+        List<SoundFile> copy = new ArrayList<>(soundFiles);
+        executor.execute(() -> {
+            boolean changed = false;
+            for (SoundFile soundFile : copy) {
+                changed |= measureIfStale(soundFile);
+            }
+            if (changed) {
+                saveGains();
+            }
+        });
+    }
+
+    /**
+     * Drops the gain of a sound file that was removed.
+     *
+     * @param soundFile - The removed sound file.
+     */
+    public void remove(SoundFile soundFile) {
+        if (!enabled) {
+            return;
+        }
+        executor.execute(() -> {
+            if (gains.remove(soundFile.getSoundFileLocation()) != null) {
+                notifyListeners(soundFile);
+                saveGains();
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getTargetLufs() {
+        return targetLufs;
+    }
+
+    /**
+     * @return The number of sound files with a known gain, including those loaded from the gains file.
+     */
+    public int getGainCount() {
+        return gains.size();
+    }
+
+    /**
+     * @return The number of sound files measured since startup.
+     */
+    public long getMeasuredCount() {
+        return measured.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return Whether a new gain was stored.
+     */
+    private boolean measureIfStale(SoundFile soundFile) {
+        String key = soundFile.getSoundFileLocation();
+        long sourceLastModified = lastModified(soundFile);
+        Gain current = gains.get(key);
+        if (current != null && current.sourceLastModified == sourceLastModified) {
+            return false;
+        }
+
+        try {
+            LoudnessMeter meter = new LoudnessMeter();
+            if (!decoder.decodePcm(Paths.get(key).toAbsolutePath().toString(), meter::accept)) {
+                return false;
+            }
+            double gainDb = gainFor(meter);
+            LOG.debug("Measured {}: gain {} dB", soundFile.getSoundFileId(), String.format("%.1f", gainDb));
+            gains.put(key, new Gain(gainDb, sourceLastModified));
+            measured.incrementAndGet();
+            notifyListeners(soundFile);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOG.warn("Could not measure loudness of " + key, e);
+        }
+        return false;
+    }
+
+    /**
+     * @return The gain that brings the measured sound to the target, limited by the maximum gain and the peak ceiling.
+     * 0 for silent sounds, so they are not measured again.
+     */
+    private double gainFor(LoudnessMeter meter) {
+        double loudness = meter.getIntegratedLoudness();
+        if (Double.isNaN(loudness)) {
+            return 0;
+        }
+        double peakDb = meter.getPeak() == 0 ? Double.NEGATIVE_INFINITY : 20 * Math.log10(meter.getPeak() / 32768.0);
+        return Math.min(Math.min(targetLufs - loudness, maxGainDb), PEAK_CEILING_DBFS - peakDb);
+    }
+
+    private void loadGains() {
+        if (gainsFile == null || !Files.isReadable(gainsFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(gainsFile))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("Ignoring loudness gains {} with unknown format", gainsFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String location = in.readUTF();
+                long sourceLastModified = in.readLong();
+                double gainDb = in.readDouble();
+                gains.put(location, new Gain(gainDb, sourceLastModified));
+            }
+            LOG.info("Loaded loudness gains of {} sound files", count);
+        } catch (IOException e) {
+            LOG.warn("Could not read loudness gains " + gainsFile, e);
+        }
+    }
+
+    /**
+     * Replaces the gains file. It is written next to the old one and moved in place, like the catalog snapshot.
+     */
+    private void saveGains() {
+        if (gainsFile == null) {
+            return;
+        }
+        Path tempFile = gainsFile.resolveSibling(gainsFile.getFileName() + ".tmp");
+        try {
+            List<Map.Entry<String, Gain>> entries = new ArrayList<>(gains.entrySet());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Gain> entry : entries) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().sourceLastModified);
+                    out.writeDouble(entry.getValue().gainDb);
+                }
+            }
+            Files.move(tempFile, gainsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not save loudness gains " + gainsFile, e);
+        }
+    }
+
+    private void notifyListeners(SoundFile soundFile) {
+        for (Consumer<SoundFile> listener : listeners) {
+            listener.accept(soundFile);
+        }
+    }
+
+    private static long lastModified(SoundFile soundFile) {
+        return soundFile.getLastModified() == null ? 0 : soundFile.getLastModified().getTime();
+    }
+
+    @PreDestroy
+    @SuppressWarnings("unused")
+    public void cleanUp() {
+        executor.shutdownNow();
+    }
+
+    private static class Gain {
+        private final double gainDb;
+        private final long sourceLastModified;
+
+        private Gain(double gainDb, long sourceLastModified) {
+            this.gainDb = gainDb;
+            this.sourceLastModified = sourceLastModified;
+        }
+    }
+
+    /**
+     * Integrated loudness of 48 kHz stereo PCM. The samples are K-weighted, their mean square is summed per 100 ms
+     * segment and the 400 ms blocks overlapping by 75% are gated as described in BS.1770.
+     */
+    static class LoudnessMeter {
+        // K-weighting for 48 kHz: a high shelf followed by a high pass.
+        private static final double[] SHELF_B = {1.53512485958697, -2.69169618940638, 1.19839281085285};
+        private static final double[] SHELF_A = {-1.69065929318241, 0.73248077421585};
+        private static final double[] HIGH_PASS_B = {1.0, -2.0, 1.0};
+        private static final double[] HIGH_PASS_A = {-1.99004745483398, 0.99007225036621};
+
+        private final Biquad[] shelf = {new Biquad(SHELF_B, SHELF_A), new Biquad(SHELF_B, SHELF_A)};
+        private final Biquad[] highPass = {new Biquad(HIGH_PASS_B, HIGH_PASS_A), new Biquad(HIGH_PASS_B, HIGH_PASS_A)};
+        private final List<Double> segments = new ArrayList<>();
+        private double segmentSum;
+        private int segmentFrames;
+        private int peak;
+
+        void accept(byte[] pcm) {
+            for (int i = 0; i + 2 * CHANNELS <= pcm.length; i += 2 * CHANNELS) {
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    int sample = (short) ((pcm[i + 2 * channel] << 8) | (pcm[i + 2 * channel + 1] & 0xFF));
+                    peak = Math.max(peak, Math.abs(sample));
+                    double weighted = highPass[channel].filter(shelf[channel].filter(sample / 32768.0));
+                    segmentSum += weighted * weighted;
+                }
+                if (++segmentFrames == SEGMENT_FRAMES) {
+                    segments.add(segmentSum);
+                    segmentSum = 0;
+                    segmentFrames = 0;
+                }
+            }
+        }
+
+        int getPeak() {
+            return peak;
+        }
+
+        /**
+         * @return The integrated loudness in LUFS, NaN if no block is above the absolute gate.
+         */
+        double getIntegratedLoudness() {
+            List<Double> blocks = new ArrayList<>();
+            if (segments.size() < SEGMENTS_PER_BLOCK) {
+                // Shorter than one block, measure the whole clip as one.
+                double sum = segmentSum;
+                for (double segment : segments) {
+                    sum += segment;
+                }
+                int frames = segments.size() * SEGMENT_FRAMES + segmentFrames;
+                if (frames > 0) {
+                    blocks.add(sum / frames);
+                }
+            } else {
+                for (int i = 0; i + SEGMENTS_PER_BLOCK <= segments.size(); i++) {
+                    double sum = 0;
+                    for (int j = i; j < i + SEGMENTS_PER_BLOCK; j++) {
+                        sum += segments.get(j);
+                    }
+                    blocks.add(sum / (SEGMENTS_PER_BLOCK * SEGMENT_FRAMES));
+                }
+            }
+
+            double absoluteGated = gatedLoudness(blocks, ABSOLUTE_GATE_LUFS);
+            if (Double.isNaN(absoluteGated)) {
+                return Double.NaN;
+            }
+            return gatedLoudness(blocks, Math.max(ABSOLUTE_GATE_LUFS, absoluteGated + RELATIVE_GATE_LU));
+        }
+
+        private static double gatedLoudness(List<Double> blocks, double gate) {
+            double sum = 0;
+            int count = 0;
+            for (double block : blocks) {
+                if (loudness(block) > gate) {
+                    sum += block;
+                    count++;
+                }
+            }
+            return count == 0 ? Double.NaN : loudness(sum / count);
+        }
+
+        private static double loudness(double meanSquare) {
+            return -0.691 + 10 * Math.log10(meanSquare);
+        }
+    }
+
+    private static class Biquad {
+        private final double b0, b1, b2, a1, a2;
+        private double x1, x2, y1, y2;
+
+        private Biquad(double[] b, double[] a) {
+            this.b0 = b[0];
+            this.b1 = b[1];
+            this.b2 = b[2];
+            this.a1 = a[0];
+            this.a2 = a[1];
+        }
+
+        private double filter(double x) {
+            double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+            return y;
+        }
+    }
+}
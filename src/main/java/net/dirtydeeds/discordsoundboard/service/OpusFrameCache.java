@@ -0,0 +1,149 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.audio.CachedSound;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps the decoded Opus frames of local sound files so repeated plays can skip lavaplayer's load and decode steps.
+ * Sounds are decoded in the background the first time they are requested and evicted least recently used first
+ * once the configured byte budget is exceeded. The gain measured by the {@link LoudnessNormalizer} is applied while
+ * decoding.
+ */
+@Service
+public class OpusFrameCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpusFrameCache.class);
+
+    private final Cache<String, CachedSound> cache;
+    private final Set<String> pendingDecodes = ConcurrentHashMap.newKeySet();
+    private final LoudnessNormalizer loudnessNormalizer;
+    private final LocalAudioDecoder decoder;
+    private final ExecutorService decoderExecutor;
+    private final long maxTrackDurationMs;
+    private final boolean enabled;
+
+    @Autowired
+    public OpusFrameCache(DiscordSoundboardProperties appProperties, LoudnessNormalizer loudnessNormalizer, LocalAudioDecoder decoder) {
+        long maxWeight = appProperties.getFrameCacheSizeMb() * 1024L * 1024L;
+        this.enabled = maxWeight > 0;
+        this.maxTrackDurationMs = TimeUnit.SECONDS.toMillis(appProperties.getFrameCacheMaxTrackSeconds());
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String key, CachedSound sound) -> sound.getSizeInBytes())
+                .recordStats()
+                .build();
+
+        // Frames decoded before the gain of a sound was measured are decoded again with the gain.
+        this.loudnessNormalizer = loudnessNormalizer;
+        loudnessNormalizer.addListener(this::invalidate);
+
+        this.decoder = decoder;
+        this.decoderExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "opus-frame-cache-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the cached frames of the sound file. On a miss, or if the file changed since it was decoded, the file is
+     * queued for decoding so a later play can use the cache.
+     *
+     * @param soundFile - The sound file to look up.
+     * @return The cached frames or null if they are not available yet.
+     */
+    public CachedSound get(SoundFile soundFile) {
+        if (!enabled) {
+            return null;
+        }
+
+        String key = soundFile.getSoundFileLocation();
+        CachedSound cached = cache.getIfPresent(key);
+        if (cached != null && cached.getLastModified() != lastModified(soundFile)) {
+            cache.invalidate(key);
+            cached = null;
+        }
+        if (cached == null) {
+            decodeAsync(soundFile);
+        }
+        return cached;
+    }
+
+    public void invalidate(SoundFile soundFile) {
+        cache.invalidate(soundFile.getSoundFileLocation());
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    public long getSizeInBytes() {
+        return cache.asMap().values().stream().mapToLong(CachedSound::getSizeInBytes).sum();
+    }
+
+    private void decodeAsync(SoundFile soundFile) {
+        String key = soundFile.getSoundFileLocation();
+        if (!pendingDecodes.add(key)) {
+            return;
+        }
+        decoderExecutor.execute(() -> {
+            try {
+                int volume = loudnessNormalizer.getVolume(soundFile);
+                CachedSound sound = decode(soundFile, volume);
+                // Skip the result if the gain was measured while decoding.
+                if (sound != null && volume == loudnessNormalizer.getVolume(soundFile)) {
+                    cache.put(key, sound);
+                    LOG.debug("Cached {} frames ({} bytes) of {}", sound.getFrameCount(), sound.getSizeInBytes(), key);
+                }
+            } catch (Exception e) {
+                LOG.warn("Could not cache frames of " + key, e);
+            } finally {
+                pendingDecodes.remove(key);
+            }
+        });
+    }
+
+    private CachedSound decode(SoundFile soundFile, int volume) throws InterruptedException, ExecutionException, TimeoutException {
+        long lastModified = lastModified(soundFile);
+        String path = new File(soundFile.getSoundFileLocation()).getAbsolutePath();
+        List<byte[]> frames = new ArrayList<>();
+        if (!decoder.decodeOpus(path, volume, maxTrackDurationMs, frames::add)) {
+            return null;
+        }
+        return frames.isEmpty() ? null : CachedSound.of(frames, lastModified);
+    }
+
+    private static long lastModified(SoundFile soundFile) {
+        return soundFile.getLastModified() == null ? 0 : soundFile.getLastModified().getTime();
+    }
+
+    @PreDestroy
+    @SuppressWarnings("unused")
+    public void cleanUp() {
+        decoderExecutor.shutdownNow();
+    }
+}
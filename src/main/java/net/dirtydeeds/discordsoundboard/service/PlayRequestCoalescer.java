@@ -0,0 +1,57 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges requests for the same sound in the same guild that arrive within a short window into one playback. The first
+ * request of a window plays, the others only count as merged. Callers still record every request for the statistics.
+ */
+public class PlayRequestCoalescer {
+
+    private final Cache<String, Boolean> recentPlays;
+    private final boolean enabled;
+    private final AtomicLong played = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+
+    /**
+     * @param windowMs - How long after a play identical requests are merged into it. 0 disables merging.
+     */
+    public PlayRequestCoalescer(long windowMs) {
+        this.enabled = windowMs > 0;
+        this.recentPlays = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(1, windowMs), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @param guildId      - The guild the sound is requested in.
+     * @param soundFileId  - The requested sound.
+     * @param repeatNumber - The requested number of repeats, requests only merge if it is the same.
+     * @return true if the request should be played, false if it was merged into a play that just started.
+     */
+    public boolean tryStart(String guildId, String soundFileId, int repeatNumber) {
+        if (enabled) {
+            String key = guildId + '/' + soundFileId.toLowerCase(Locale.ROOT) + '/' + repeatNumber;
+            // Expired entries are cleaned up before the write, so only a play inside the window is found.
+            if (recentPlays.asMap().putIfAbsent(key, Boolean.TRUE) != null) {
+                merged.incrementAndGet();
+                return false;
+            }
+        }
+        played.incrementAndGet();
+        return true;
+    }
+
+    public long getPlayedCount() {
+        return played.get();
+    }
+
+    public long getMergedCount() {
+        return merged.get();
+    }
+}
@@ -0,0 +1,144 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The timeline of one play request, from the chat message to the first audio frame sent to Discord. Each stage is
+ * timestamped once, by whichever thread reaches it.
+ */
+public class PlayTrace {
+
+    public enum Stage {
+        /** The message arrived on JDA's event thread. */
+        RECEIVED,
+        /** The command left the command pipeline and started. */
+        COMMAND_STARTED,
+        /** The sound was looked up and the play was requested. */
+        PLAY_REQUESTED,
+        /** The bot was connected to the user's voice channel. */
+        CONNECTED,
+        /** The audio was found in a cache or loaded by lavaplayer. */
+        LOADED,
+        /** The audio was handed to the guild's player. */
+        SCHEDULED,
+        /** The first frame of the audio was sent. */
+        FIRST_FRAME
+    }
+
+    private final String id;
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private volatile String sound;
+    private volatile String guildId;
+    private volatile String source;
+
+    /**
+     * @param id    - Identifies the request, the id of the chat message if there is one.
+     * @param first - The stage the request starts at.
+     */
+    PlayTrace(String id, Stage first) {
+        this.id = id;
+        mark(first);
+    }
+
+    /**
+     * Timestamps the stage, unless it was reached before.
+     *
+     * @param stage - The stage that was reached.
+     */
+    public void mark(Stage stage) {
+        stageNanos.compareAndSet(stage.ordinal(), 0, System.nanoTime());
+    }
+
+    /**
+     * @param stage - The stage to look at.
+     * @return Whether the request reached the stage.
+     */
+    public boolean reached(Stage stage) {
+        return stageNanos.get(stage.ordinal()) != 0;
+    }
+
+    /**
+     * @param stage - The stage to look at.
+     * @return The milliseconds from the previous stage that was reached to this one, -1 if this stage or no previous
+     * one was reached.
+     */
+    public long getStageMs(Stage stage) {
+        long at = stageNanos.get(stage.ordinal());
+        if (at == 0) {
+            return -1;
+        }
+        for (int i = stage.ordinal() - 1; i >= 0; i--) {
+            long before = stageNanos.get(i);
+            if (before != 0) {
+                return TimeUnit.NANOSECONDS.toMillis(at - before);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The milliseconds from the first to the last stage that was reached.
+     */
+    public long getTotalMs() {
+        long first = 0;
+        long last = 0;
+        for (int i = 0; i < stageNanos.length(); i++) {
+            long at = stageNanos.get(i);
+            if (at != 0) {
+                if (first == 0) {
+                    first = at;
+                }
+                last = at;
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(last - first);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSound() {
+        return sound;
+    }
+
+    public void setSound(String sound) {
+        this.sound = sound;
+    }
+
+    public String getGuildId() {
+        return guildId;
+    }
+
+    public void setGuildId(String guildId) {
+        this.guildId = guildId;
+    }
+
+    /**
+     * @return Where the audio came from: the frame cache, the track cache or a load.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("play id=").append(id)
+                .append(" sound=").append(sound)
+                .append(" guild=").append(guildId)
+                .append(" source=").append(source)
+                .append(" total=").append(getTotalMs()).append("ms");
+        for (Stage stage : Stage.values()) {
+            long ms = getStageMs(stage);
+            if (ms >= 0) {
+                sb.append(' ').append(stage.name().toLowerCase()).append('=').append(ms).append("ms");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.dirtydeeds.discordsoundboard.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows play requests from the chat message to the first audio frame, see {@link PlayTrace}. A trace is opened for
+ * every chat command under the id of its message and taken over by the play it leads to. Traces of commands that do
+ * not play anything expire.
+ * <p>
+ * Every finished trace is logged as one line and its stages are added to a histogram per stage, so a slow p99 can be
+ * pinned to the stage behind it.
+ */
+@Service
+public class PlayTracer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlayTracer.class);
+
+    private final PlaybackMetrics metrics;
+    private final Cache<String, PlayTrace> open = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .maximumSize(10000)
+            .build();
+    private final Map<PlayTrace.Stage, LatencyHistogram> stages = new EnumMap<>(PlayTrace.Stage.class);
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final AtomicLong finished = new AtomicLong();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "play-trace");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public PlayTracer(PlaybackMetrics metrics) {
+        this.metrics = metrics;
+        for (PlayTrace.Stage stage : PlayTrace.Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Opens a trace for a chat message that just arrived.
+     *
+     * @param messageId - The id of the message.
+     */
+    public void received(String messageId) {
+        open.put(messageId, new PlayTrace(messageId, PlayTrace.Stage.RECEIVED));
+    }
+
+    /**
+     * @param messageId - The id of the message.
+     * @param stage     - The stage the command of the message reached.
+     */
+    public void mark(String messageId, PlayTrace.Stage stage) {
+        PlayTrace trace = open.getIfPresent(messageId);
+        if (trace != null) {
+            trace.mark(stage);
+        }
+    }
+
+    /**
+     * Takes the trace of a message over for the play it requested. Plays that did not come from a chat message get a
+     * trace that starts now.
+     *
+     * @param messageId - The id of the message, or null.
+     * @return The trace, with the play marked as requested.
+     */
+    public PlayTrace take(String messageId) {
+        PlayTrace trace = messageId == null ? null : open.getIfPresent(messageId);
+        if (trace == null) {
+            trace = new PlayTrace(messageId == null ? "-" : messageId, PlayTrace.Stage.PLAY_REQUESTED);
+        } else {
+            open.invalidate(messageId);
+            trace.mark(PlayTrace.Stage.PLAY_REQUESTED);
+        }
+        return trace;
+    }
+
+    /**
+     * Marks the first frame as sent and records the trace. Called from the audio sending thread, so the recording is
+     * handed to a thread of its own.
+     *
+     * @param trace - The trace of the play.
+     */
+    public void firstFrame(PlayTrace trace) {
+        trace.mark(PlayTrace.Stage.FIRST_FRAME);
+        try {
+            executor.execute(() -> record(trace));
+        } catch (RejectedExecutionException e) {
+            // Shutting down.
+        }
+    }
+
+    private void record(PlayTrace trace) {
+        for (PlayTrace.Stage stage : PlayTrace.Stage.values()) {
+            long ms = trace.getStageMs(stage);
+            if (ms >= 0) {
+                stages.get(stage).record(ms);
+                metrics.recordPlayStage(stage.name().toLowerCase(), ms);
+            }
+        }
+        long totalMs = trace.getTotalMs();
+        total.record(totalMs);
+        metrics.recordPlayStage("total", totalMs);
+        finished.incrementAndGet();
+        LOG.info("{}", trace);
+    }
+
+    /**
+     * @param stage - The stage.
+     * @return How long plays took to get from the previous stage to this one.
+     */
+    public LatencyHistogram getStageLatency(PlayTrace.Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * @return How long plays took from the first stage they were traced at to their first frame.
+     */
+    public LatencyHistogram getTotalLatency() {
+        return total;
+    }
+
+    public long getFinishedCount() {
+        return finished.get();
+    }
+
+    @PreDestroy
+    @SuppressWarnings("unused")
+    public void cleanUp() {
+        executor.shutdownNow();
+    }
+}
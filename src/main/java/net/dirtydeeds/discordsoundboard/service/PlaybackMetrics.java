@@ -0,0 +1,129 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The meters of the playback path, from a chat command to a voice connection. They are kept in the Micrometer registry
+ * of Spring Boot, which exports them for Prometheus on the actuator's {@code /actuator/prometheus} endpoint.
+ */
+@Service
+public class PlaybackMetrics {
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public PlaybackMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param command - The name of the command.
+     * @param nanos   - How long the command ran.
+     * @param failed  - Whether the command ended with an exception.
+     */
+    public void recordCommand(String command, long nanos, boolean failed) {
+        timer("soundboard.command", "Time to handle a chat command",
+                "command", command, "outcome", failed ? "failed" : "success").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param millis  - How long it took until audio could be sent, or until the connect failed.
+     * @param success - Whether the bot connected.
+     */
+    public void recordVoiceConnect(long millis, boolean success) {
+        timer("soundboard.voice.connect", "Time to join a voice channel",
+                "outcome", success ? "success" : "failed").record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param repository - The simple name of the repository.
+     * @param method     - The repository method that was called.
+     * @param nanos      - How long the call took.
+     * @param failed     - Whether the call ended with an exception.
+     */
+    public void recordRepositoryCall(String repository, String method, long nanos, boolean failed) {
+        timer("soundboard.repository", "Time of a database call through a repository",
+                "repository", repository, "method", method, "outcome", failed ? "failed" : "success")
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param stage  - The stage of a play request, or total for the whole request.
+     * @param millis - How long the play took to get from the previous stage to this one.
+     */
+    public void recordPlayStage(String stage, long millis) {
+        timer("soundboard.play.stage", "Time of each stage from a chat message to the first audio frame",
+                "stage", stage).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wraps a load result handler so the time from now until lavaplayer reports the result is recorded.
+     *
+     * @param handler - The handler of the load.
+     * @return The handler to pass to lavaplayer.
+     */
+    public AudioLoadResultHandler timeLoad(AudioLoadResultHandler handler) {
+        long start = System.nanoTime();
+        return new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                record("track");
+                handler.trackLoaded(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                record("playlist");
+                handler.playlistLoaded(playlist);
+            }
+
+            @Override
+            public void noMatches() {
+                record("no_matches");
+                handler.noMatches();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                record("failed");
+                handler.loadFailed(exception);
+            }
+
+            private void record(String result) {
+                timer("soundboard.track.load", "Time for lavaplayer to load a track", "result", result)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    /**
+     * Registers a gauge that reads its value from the object whenever the registry is scraped.
+     *
+     * @param name        - The name of the gauge.
+     * @param description - What the gauge shows.
+     * @param obj         - The object to read from, only weakly referenced.
+     * @param value       - Reads the value, it has to be cheap and must not block.
+     */
+    public <T> void gauge(String name, String description, T obj, ToDoubleFunction<T> value) {
+        Gauge.builder(name, obj, value).description(description).register(registry);
+    }
+
+    private Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,181 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.util.MessageSplitter;
+import net.dv8tion.jda.core.entities.PrivateChannel;
+import net.dv8tion.jda.core.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends private messages to users without blocking the caller. Private channels are kept per user, so a reply does not
+ * have to open the channel again.
+ * <p>
+ * Each user has at most one message on its way. Replies sent meanwhile wait in the user's outbox and go out together
+ * as few messages as the message size limit allows. Replies longer than the limit are split on line boundaries by the
+ * {@link MessageSplitter}. Sending one message at a time per channel stays within the rate
+ * limit bucket of the channel, JDA delays the request if the bucket is exhausted instead of the caller waiting for it.
+ */
+@Service
+public class PrivateMessageService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrivateMessageService.class);
+
+    /** Fences and the trailing line break the splitter adds to every part. */
+    private static final int SPLIT_OVERHEAD = 7;
+    private static final String CODE_FENCE = "```";
+
+    private final int messageSizeLimit;
+    private final MessageSplitter splitter;
+    private final Cache<String, PrivateChannel> channels = CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .maximumSize(10000)
+            .build();
+    /** Replies waiting per user id. A user is present while a message of theirs is on its way. */
+    private final Map<String, Deque<String>> outboxes = new ConcurrentHashMap<>();
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Autowired
+    public PrivateMessageService(DiscordSoundboardProperties appProperties) {
+        this.messageSizeLimit = Math.max(1, appProperties.getMessageSizeLimit());
+        this.splitter = new MessageSplitter(Math.max(1, messageSizeLimit - SPLIT_OVERHEAD));
+    }
+
+    /**
+     * Queues a private message to the user and returns right away.
+     *
+     * @param user    - The user to send the message to.
+     * @param message - The message.
+     */
+    public void send(User user, String message) {
+        if (message == null || message.isEmpty()) {
+            return;
+        }
+        replies.incrementAndGet();
+        List<String> parts = split(message);
+        boolean[] idle = new boolean[1];
+        outboxes.compute(user.getId(), (id, outbox) -> {
+            if (outbox == null) {
+                outbox = new ArrayDeque<>();
+                idle[0] = true;
+            }
+            outbox.addAll(parts);
+            return outbox;
+        });
+        if (idle[0]) {
+            deliver(user);
+        }
+    }
+
+    private void deliver(User user) {
+        PrivateChannel channel = channels.getIfPresent(user.getId());
+        if (channel != null) {
+            sendNext(user, channel);
+            return;
+        }
+        user.openPrivateChannel().queue(opened -> {
+            channels.put(user.getId(), opened);
+            sendNext(user, opened);
+        }, error -> {
+            Deque<String> dropped = outboxes.remove(user.getId());
+            failed.addAndGet(dropped == null ? 0 : dropped.size());
+            LOG.warn("Could not open private channel to {}: {}", user.getName(), error.getMessage());
+        });
+    }
+
+    private void sendNext(User user, PrivateChannel channel) {
+        String batch = takeBatch(user.getId());
+        if (batch == null) {
+            return;
+        }
+        channel.sendMessage(batch).queue(message -> {
+            sent.incrementAndGet();
+            sendNext(user, channel);
+        }, error -> {
+            // The channel may be gone, open it again for the next reply.
+            channels.invalidate(user.getId());
+            failed.incrementAndGet();
+            LOG.warn("Could not send private message to {}: {}", user.getName(), error.getMessage());
+            deliver(user);
+        });
+    }
+
+    /**
+     * Takes as many waiting replies of the user as fit into one message. If none are waiting the user's outbox is
+     * removed, so the next reply starts a new delivery.
+     *
+     * @return The message to send, or null if nothing is waiting.
+     */
+    private String takeBatch(String userId) {
+        String[] batch = new String[1];
+        outboxes.compute(userId, (id, outbox) -> {
+            if (outbox == null || outbox.isEmpty()) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(outbox.poll());
+            while (!outbox.isEmpty() && sb.length() + 1 + outbox.peek().length() <= messageSizeLimit) {
+                sb.append('\n').append(outbox.poll());
+            }
+            batch[0] = sb.toString();
+            return outbox;
+        });
+        return batch[0];
+    }
+
+    /**
+     * Splits a reply that is longer than the message size limit. The splitter puts every part into a code block, so
+     * the code block around a whole reply is removed first.
+     *
+     * @return The reply itself if it fits into one message, its parts otherwise.
+     */
+    private List<String> split(String message) {
+        if (message.length() <= messageSizeLimit) {
+            return Collections.singletonList(message);
+        }
+        String text = message;
+        if (text.length() >= 2 * CODE_FENCE.length() && text.startsWith(CODE_FENCE) && text.endsWith(CODE_FENCE)) {
+            text = text.substring(CODE_FENCE.length(), text.length() - CODE_FENCE.length());
+        }
+        return splitter.splitMessage(new StringBuilder(text));
+    }
+
+    /**
+     * @return The number of replies that were requested.
+     */
+    public long getReplyCount() {
+        return replies.get();
+    }
+
+    /**
+     * @return The number of messages that were sent, replies that were merged count once.
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return The number of users whose private channel is kept.
+     */
+    public long getCachedChannelCount() {
+        return channels.size();
+    }
+}
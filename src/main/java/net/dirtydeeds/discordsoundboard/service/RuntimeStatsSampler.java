@@ -0,0 +1,304 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.google.common.cache.CacheStats;
+import com.sun.management.OperatingSystemMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.RuntimeMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the figures shown by the info command in the background, so the command answers right away from the latest
+ * {@link Snapshot} instead of measuring while the user waits.
+ * <p>
+ * CPU usage and garbage collection are rolling figures: the last sample interval and the last minute. Heap usage is
+ * taken after the last collection, which is what the live data really needs.
+ */
+public class RuntimeStatsSampler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuntimeStatsSampler.class);
+    private static final long WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final DiscordShards shards;
+    private final SoundCatalog soundCatalog;
+    private final OpusFrameCache opusFrameCache;
+    private final AudioTrackCache audioTrackCache;
+    private final OperatingSystemMXBean operatingSystem = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    /** The raw readings of the last minute, oldest first. Only touched by the sampler thread. */
+    private final Deque<Reading> readings = new ArrayDeque<>();
+    private final ScheduledExecutorService executor;
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param intervalMs      - How often to sample.
+     * @param shards          - The shards, for the players of their guilds.
+     * @param soundCatalog    - The sound catalog.
+     * @param opusFrameCache  - The cache of decoded sounds.
+     * @param audioTrackCache - The cache of loaded tracks.
+     */
+    public RuntimeStatsSampler(long intervalMs, DiscordShards shards, SoundCatalog soundCatalog, OpusFrameCache opusFrameCache, AudioTrackCache audioTrackCache) {
+        this.shards = shards;
+        this.soundCatalog = soundCatalog;
+        this.opusFrameCache = opusFrameCache;
+        this.audioTrackCache = audioTrackCache;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "runtime-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The first snapshot covers the time since the JVM started, so there is one before the first interval ends.
+        readings.add(new Reading(0, 0, 0, 0));
+        // Served until a sample succeeds, so the info command always has figures to show.
+        CacheStats none = new CacheStats(0, 0, 0, 0, 0, 0);
+        snapshot = new Snapshot(System.currentTimeMillis(), runtime.getUptime(), 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                none, 0, none);
+        sample();
+        executor.scheduleAtFixedRate(this::sample, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        try {
+            Reading reading = read();
+            Reading last = readings.peekLast();
+            while (readings.size() > 1 && reading.uptimeMs - readings.peekFirst().uptimeMs > WINDOW_MS) {
+                readings.pollFirst();
+            }
+            Reading windowStart = readings.peekFirst();
+            readings.add(reading);
+
+            int players = 0;
+            int playing = 0;
+            for (ShardContext shard : shards.getShards()) {
+                players += shard.getMusicManagers().size();
+                playing += shard.getMusicManagers().getPlayingCount();
+            }
+            snapshot = new Snapshot(System.currentTimeMillis(), reading.uptimeMs,
+                    cpuPercent(last, reading), cpuPercent(windowStart, reading), heapAfterGc(),
+                    reading.gcCount, reading.gcTimeMs, gcPauseMs(windowStart, reading),
+                    threads.getThreadCount(), threads.getPeakThreadCount(), soundCatalog.size(), players, playing,
+                    opusFrameCache.getSize(), opusFrameCache.getSizeInBytes(), opusFrameCache.getStats(),
+                    audioTrackCache.getSize(), audioTrackCache.getStats());
+        } catch (Exception e) {
+            LOG.warn("Could not sample runtime stats", e);
+        }
+    }
+
+    private Reading read() {
+        long gcCount = 0;
+        long gcTimeMs = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, collector.getCollectionCount());
+            gcTimeMs += Math.max(0, collector.getCollectionTime());
+        }
+        return new Reading(runtime.getUptime(), operatingSystem.getProcessCpuTime(), gcCount, gcTimeMs);
+    }
+
+    private double cpuPercent(Reading from, Reading to) {
+        long elapsedMs = to.uptimeMs - from.uptimeMs;
+        if (elapsedMs <= 0) {
+            return 0;
+        }
+        double cpuMs = TimeUnit.NANOSECONDS.toMicros(to.cpuTimeNanos - from.cpuTimeNanos) / 1000.0;
+        return Math.min(100, cpuMs * 100 / (elapsedMs * (double) operatingSystem.getAvailableProcessors()));
+    }
+
+    private static double gcPauseMs(Reading from, Reading to) {
+        long collections = to.gcCount - from.gcCount;
+        return collections <= 0 ? 0 : (to.gcTimeMs - from.gcTimeMs) / (double) collections;
+    }
+
+    private static long heapAfterGc() {
+        long used = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                MemoryUsage usage = memoryPool.getCollectionUsage();
+                if (usage != null) {
+                    used += usage.getUsed();
+                }
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return The latest snapshot, never older than the sample interval unless sampling fails. Never null.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class Reading {
+        private final long uptimeMs;
+        private final long cpuTimeNanos;
+        private final long gcCount;
+        private final long gcTimeMs;
+
+        private Reading(long uptimeMs, long cpuTimeNanos, long gcCount, long gcTimeMs) {
+            this.uptimeMs = uptimeMs;
+            this.cpuTimeNanos = cpuTimeNanos;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+        }
+    }
+
+    /**
+     * The figures of one sample.
+     */
+    public static class Snapshot {
+        private final long sampledAt;
+        private final long uptimeMs;
+        private final double cpuPercent;
+        private final double cpuPercentMinute;
+        private final long heapAfterGcBytes;
+        private final long gcCount;
+        private final long gcTimeMs;
+        private final double gcPauseMsMinute;
+        private final int threadCount;
+        private final int peakThreadCount;
+        private final int soundFileCount;
+        private final int guildPlayers;
+        private final int playingGuilds;
+        private final long frameCacheSize;
+        private final long frameCacheBytes;
+        private final CacheStats frameCacheStats;
+        private final long trackCacheSize;
+        private final CacheStats trackCacheStats;
+
+        Snapshot(long sampledAt, long uptimeMs, double cpuPercent, double cpuPercentMinute, long heapAfterGcBytes,
+                 long gcCount, long gcTimeMs, double gcPauseMsMinute, int threadCount, int peakThreadCount,
+                 int soundFileCount, int guildPlayers, int playingGuilds, long frameCacheSize, long frameCacheBytes,
+                 CacheStats frameCacheStats, long trackCacheSize, CacheStats trackCacheStats) {
+            this.sampledAt = sampledAt;
+            this.uptimeMs = uptimeMs;
+            this.cpuPercent = cpuPercent;
+            this.cpuPercentMinute = cpuPercentMinute;
+            this.heapAfterGcBytes = heapAfterGcBytes;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+            this.gcPauseMsMinute = gcPauseMsMinute;
+            this.threadCount = threadCount;
+            this.peakThreadCount = peakThreadCount;
+            this.soundFileCount = soundFileCount;
+            this.guildPlayers = guildPlayers;
+            this.playingGuilds = playingGuilds;
+            this.frameCacheSize = frameCacheSize;
+            this.frameCacheBytes = frameCacheBytes;
+            this.frameCacheStats = frameCacheStats;
+            this.trackCacheSize = trackCacheSize;
+            this.trackCacheStats = trackCacheStats;
+        }
+
+        /**
+         * @return When the snapshot was taken, in milliseconds since the epoch.
+         */
+        public long getSampledAt() {
+            return sampledAt;
+        }
+
+        public long getUptimeMs() {
+            return uptimeMs;
+        }
+
+        /**
+         * @return The CPU usage of the process over the last sample interval, 100 is all processors busy.
+         */
+        public double getCpuPercent() {
+            return cpuPercent;
+        }
+
+        /**
+         * @return The CPU usage of the process over the last minute.
+         */
+        public double getCpuPercentMinute() {
+            return cpuPercentMinute;
+        }
+
+        /**
+         * @return The heap in use after the last garbage collection.
+         */
+        public long getHeapAfterGcBytes() {
+            return heapAfterGcBytes;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        /**
+         * @return The total time spent collecting garbage.
+         */
+        public long getGcTimeMs() {
+            return gcTimeMs;
+        }
+
+        /**
+         * @return The average time of the collections in the last minute, 0 if there were none.
+         */
+        public double getGcPauseMsMinute() {
+            return gcPauseMsMinute;
+        }
+
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        public int getPeakThreadCount() {
+            return peakThreadCount;
+        }
+
+        public int getSoundFileCount() {
+            return soundFileCount;
+        }
+
+        /**
+         * @return The number of guilds that have a player.
+         */
+        public int getGuildPlayers() {
+            return guildPlayers;
+        }
+
+        /**
+         * @return The number of guilds that are playing.
+         */
+        public int getPlayingGuilds() {
+            return playingGuilds;
+        }
+
+        public long getFrameCacheSize() {
+            return frameCacheSize;
+        }
+
+        public long getFrameCacheBytes() {
+            return frameCacheBytes;
+        }
+
+        public CacheStats getFrameCacheStats() {
+            return frameCacheStats;
+        }
+
+        public long getTrackCacheSize() {
+            return trackCacheSize;
+        }
+
+        public CacheStats getTrackCacheStats() {
+            return trackCacheStats;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.audio.GuildMusicManagerRegistry;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.ReconnectedEvent;
+import net.dv8tion.jda.core.events.ResumedEvent;
+import net.dv8tion.jda.core.events.StatusChangeEvent;
+import net.dv8tion.jda.core.hooks.ListenerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Consumer;
+
+/**
+ * Everything that belongs to one shard: its connection once it is up, the voice channels of its users and the music
+ * managers of its guilds. A shard is ready on its own, so guilds of ready shards are served while others still log in.
+ */
+public class ShardContext extends ListenerAdapter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardContext.class);
+
+    private final int shardId;
+    private final VoiceStateIndex voiceStateIndex;
+    private final GuildMusicManagerRegistry musicManagers;
+    private final Consumer<ShardContext> readyListener;
+    private volatile JDA jda;
+    private volatile boolean ready;
+
+    /**
+     * @param shardId       - The id of the shard.
+     * @param musicManagers - The music managers of the shard's guilds.
+     * @param readyListener - Called every time the shard became ready.
+     */
+    public ShardContext(int shardId, GuildMusicManagerRegistry musicManagers, Consumer<ShardContext> readyListener) {
+        this.shardId = shardId;
+        this.musicManagers = musicManagers;
+        this.readyListener = readyListener;
+        this.voiceStateIndex = new VoiceStateIndex(this::getGuildById);
+    }
+
+    @Override
+    public void onReady(ReadyEvent event) {
+        jda = event.getJDA();
+        voiceStateIndex.rebuild(jda);
+        ready = true;
+        LOG.info("Shard {} is ready with {} guilds", shardId, jda.getGuilds().size());
+        readyListener.accept(this);
+    }
+
+    @Override
+    public void onReconnect(ReconnectedEvent event) {
+        jda = event.getJDA();
+        ready = true;
+    }
+
+    @Override
+    public void onResume(ResumedEvent event) {
+        jda = event.getJDA();
+        ready = true;
+    }
+
+    @Override
+    public void onStatusChange(StatusChangeEvent event) {
+        if (event.getNewStatus() != JDA.Status.CONNECTED) {
+            ready = false;
+        }
+    }
+
+    /**
+     * @param guildId - The id of the guild.
+     * @return The guild if it belongs to this shard and the shard has connected, otherwise null.
+     */
+    public Guild getGuildById(String guildId) {
+        JDA current = jda;
+        return current == null ? null : current.getGuildById(guildId);
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    /**
+     * @return The connection of the shard, null until it connected for the first time.
+     */
+    public JDA getJda() {
+        return jda;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public VoiceStateIndex getVoiceStateIndex() {
+        return voiceStateIndex;
+    }
+
+    public GuildMusicManagerRegistry getMusicManagers() {
+        return musicManagers;
+    }
+}
@@ -0,0 +1,133 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * In memory index of the available sound files keyed by their case folded id. Reads never touch the database. Every
+ * change builds a new snapshot that replaces the current one, so readers always see a consistent catalog without
+ * locking.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class SoundCatalog {
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyMap());
+
+    /**
+     * Looks up a sound file by id, ignoring case.
+     *
+     * @param soundFileId - The id of the sound file.
+     * @return The sound file, or null if there is none with that id.
+     */
+    public SoundFile get(String soundFileId) {
+        if (soundFileId == null) {
+            return null;
+        }
+        return snapshot.soundFiles.get(key(soundFileId));
+    }
+
+    public Collection<SoundFile> getAll() {
+        return snapshot.soundFiles.values();
+    }
+
+    /**
+     * @return The sound files sorted by id, ignoring case.
+     */
+    public SortedMap<String, SoundFile> getSorted() {
+        return snapshot.getSorted();
+    }
+
+    public int size() {
+        return snapshot.soundFiles.size();
+    }
+
+    /**
+     * Picks a sound file uniformly at random in constant time.
+     *
+     * @return A random sound file, or null if the catalog is empty.
+     */
+    public SoundFile random(Random random) {
+        SoundFile[] entries = snapshot.entries;
+        if (entries.length == 0) {
+            return null;
+        }
+        return entries[random.nextInt(entries.length)];
+    }
+
+    /**
+     * @return The sound files of the current snapshot. The array is shared and must not be modified. A new array is
+     * returned after every change, so callers can detect changes by identity.
+     */
+    SoundFile[] entries() {
+        return snapshot.entries;
+    }
+
+    /**
+     * Replaces the whole catalog.
+     *
+     * @param soundFiles - All available sound files.
+     */
+    public synchronized void replace(Collection<SoundFile> soundFiles) {
+        Map<String, SoundFile> index = new HashMap<>(soundFiles.size() * 4 / 3 + 1);
+        for (SoundFile soundFile : soundFiles) {
+            index.put(key(soundFile.getSoundFileId()), soundFile);
+        }
+        snapshot = new Snapshot(index);
+    }
+
+    /**
+     * Adds or replaces some sound files and removes others in one step.
+     *
+     * @param upserted   - Sound files that were added or changed.
+     * @param removedIds - Ids of sound files that are no longer available.
+     */
+    public synchronized void apply(Collection<SoundFile> upserted, Collection<String> removedIds) {
+        if (upserted.isEmpty() && removedIds.isEmpty()) {
+            return;
+        }
+        Map<String, SoundFile> index = new HashMap<>(snapshot.soundFiles);
+        for (String removedId : removedIds) {
+            index.remove(key(removedId));
+        }
+        for (SoundFile soundFile : upserted) {
+            index.put(key(soundFile.getSoundFileId()), soundFile);
+        }
+        snapshot = new Snapshot(index);
+    }
+
+    public void remove(String soundFileId) {
+        apply(Collections.emptyList(), Collections.singletonList(soundFileId));
+    }
+
+    private static String key(String soundFileId) {
+        return soundFileId.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Snapshot {
+        private final Map<String, SoundFile> soundFiles;
+        private final SoundFile[] entries;
+        private volatile SortedMap<String, SoundFile> sorted;
+
+        private Snapshot(Map<String, SoundFile> soundFiles) {
+            this.soundFiles = Collections.unmodifiableMap(soundFiles);
+            this.entries = soundFiles.values().toArray(new SoundFile[0]);
+        }
+
+        private SortedMap<String, SoundFile> getSorted() {
+            SortedMap<String, SoundFile> result = sorted;
+            if (result == null) {
+                TreeMap<String, SoundFile> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (SoundFile soundFile : soundFiles.values()) {
+                    map.put(soundFile.getSoundFileId(), soundFile);
+                }
+                result = Collections.unmodifiableSortedMap(map);
+                sorted = result;
+            }
+            return result;
+        }
+    }
+}
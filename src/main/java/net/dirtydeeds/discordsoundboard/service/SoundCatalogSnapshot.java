@@ -0,0 +1,112 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves the {@link SoundCatalog} to a compact file so it can be served right away on the next start, before the sounds
+ * directory has been scanned again.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class SoundCatalogSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SoundCatalogSnapshot.class);
+    private static final int MAGIC = 0x53434154;
+    private static final int VERSION = 1;
+
+    private final Path snapshotFile;
+
+    @Autowired
+    public SoundCatalogSnapshot(DiscordSoundboardProperties appProperties) {
+        String file = appProperties.getCatalogSnapshotFile();
+        this.snapshotFile = file == null || file.isEmpty() ? null : Paths.get(file);
+    }
+
+    /**
+     * @return The sound files of the last saved snapshot. Empty if there is none or it could not be read.
+     */
+    public List<SoundFile> load() {
+        if (snapshotFile == null || !Files.isReadable(snapshotFile)) {
+            return Collections.emptyList();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshotFile))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("Ignoring catalog snapshot {} with unknown format", snapshotFile);
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            List<SoundFile> soundFiles = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String soundFileId = in.readUTF();
+                String location = in.readUTF();
+                String category = in.readBoolean() ? in.readUTF() : null;
+                long lastModified = in.readLong();
+                long size = in.readLong();
+                soundFiles.add(new SoundFile(soundFileId, location, category, new Date(lastModified), size < 0 ? null : size));
+            }
+            return soundFiles;
+        } catch (IOException e) {
+            LOG.warn("Could not read catalog snapshot " + snapshotFile, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return true if a snapshot has been saved, whether or not it can be read.
+     */
+    public boolean exists() {
+        return snapshotFile != null && Files.exists(snapshotFile);
+    }
+
+    /**
+     * Replaces the snapshot with the given sound files. The file is written next to the old one and moved in place, so
+     * a crash while saving leaves the previous snapshot intact.
+     *
+     * @param soundFiles - The sound files to save.
+     */
+    public void save(Collection<SoundFile> soundFiles) {
+        if (snapshotFile == null) {
+            return;
+        }
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(soundFiles.size());
+                for (SoundFile soundFile : soundFiles) {
+                    out.writeUTF(soundFile.getSoundFileId());
+                    out.writeUTF(soundFile.getSoundFileLocation());
+                    out.writeBoolean(soundFile.getCategory() != null);
+                    if (soundFile.getCategory() != null) {
+                        out.writeUTF(soundFile.getCategory());
+                    }
+                    out.writeLong(soundFile.getLastModified() == null ? 0 : soundFile.getLastModified().getTime());
+                    out.writeLong(soundFile.getSize() == null ? -1 : soundFile.getSize());
+                }
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not save catalog snapshot " + snapshotFile, e);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import net.dirtydeeds.discordsoundboard.repository.SoundFileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Brings the SoundFile table and the {@link SoundCatalog} in line with the sounds directory. A full synchronization
+ * compares the directory against a single read of the repository and only writes the rows that were added, changed or
+ * removed on disk. Single file changes reported by the {@link SoundFolderWatch} are applied without scanning the
+ * directory. Synchronizations run one at a time, each in its own transaction. After each of them the catalog is saved
+ * to the {@link SoundCatalogSnapshot}.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class SoundCatalogSync {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SoundCatalogSync.class);
+
+    private final DiscordSoundboardProperties appProperties;
+    private final SoundFileRepository soundFileRepository;
+    private final SoundCatalog soundCatalog;
+    private final OpusFrameCache opusFrameCache;
+    private final SoundCatalogSnapshot catalogSnapshot;
+    private final LoudnessNormalizer loudnessNormalizer;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public SoundCatalogSync(DiscordSoundboardProperties appProperties, SoundFileRepository soundFileRepository, SoundCatalog soundCatalog, OpusFrameCache opusFrameCache, SoundCatalogSnapshot catalogSnapshot, LoudnessNormalizer loudnessNormalizer, PlatformTransactionManager transactionManager) {
+        this.appProperties = appProperties;
+        this.soundFileRepository = soundFileRepository;
+        this.soundCatalog = soundCatalog;
+        this.opusFrameCache = opusFrameCache;
+        this.catalogSnapshot = catalogSnapshot;
+        this.loudnessNormalizer = loudnessNormalizer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Fills the catalog from the saved snapshot without looking at the sounds directory or the repository.
+     *
+     * @return The number of sound files loaded, 0 if there was no snapshot.
+     */
+    public synchronized int loadSnapshot() {
+        List<SoundFile> soundFiles = catalogSnapshot.load();
+        if (!soundFiles.isEmpty()) {
+            soundCatalog.replace(soundFiles);
+        }
+        return soundFiles.size();
+    }
+
+    /**
+     * Scans the sounds directory and applies the differences to the repository. Creates the directory if it does not
+     * exist yet.
+     *
+     * @return The number of rows changed and how long it took.
+     */
+    public synchronized Result synchronize() {
+        Result result = transactionTemplate.execute(status -> doSynchronize());
+        if (result.getChanged() > 0 || !catalogSnapshot.exists()) {
+            catalogSnapshot.save(soundCatalog.getAll());
+        }
+        return result;
+    }
+
+    /**
+     * Runs {@link #synchronize()} in the background, used to verify a catalog loaded from the snapshot.
+     */
+    @Async
+    public void synchronizeAsync() {
+        synchronize();
+    }
+
+    /**
+     * Applies changes to single paths of the sounds directory. An {@link SoundFileChange.Kind#OVERFLOW} falls back to
+     * a full {@link #synchronize()}.
+     *
+     * @param changes - The changes in the order they happened.
+     * @return The number of rows changed and how long it took.
+     */
+    public synchronized Result apply(Collection<SoundFileChange> changes) {
+        for (SoundFileChange change : changes) {
+            if (change.getKind() == SoundFileChange.Kind.OVERFLOW) {
+                return synchronize();
+            }
+        }
+        Result result = transactionTemplate.execute(status -> doApply(changes));
+        if (result.getChanged() > 0) {
+            catalogSnapshot.save(soundCatalog.getAll());
+        }
+        return result;
+    }
+
+    private Result doSynchronize() {
+        long start = System.nanoTime();
+        Map<String, SoundFile> onDisk = scanSoundsDirectory();
+
+        Map<String, SoundFile> existing = new HashMap<>();
+        for (SoundFile soundFile : soundFileRepository.findAll()) {
+            existing.put(soundFile.getSoundFileId().toLowerCase(), soundFile);
+        }
+
+        List<SoundFile> inserted = new ArrayList<>();
+        List<SoundFile> removed = new ArrayList<>();
+        int updated = 0;
+        for (Map.Entry<String, SoundFile> entry : onDisk.entrySet()) {
+            SoundFile scanned = entry.getValue();
+            SoundFile current = existing.remove(entry.getKey());
+            if (current == null) {
+                inserted.add(scanned);
+            } else if (!current.getSoundFileId().equals(scanned.getSoundFileId())) {
+                // The id is the primary key, so a change in case has to be a delete and insert.
+                removed.add(current);
+                inserted.add(scanned);
+            } else if (isChanged(current, scanned)) {
+                // Managed entity, flushed in a batch when the transaction commits.
+                current.setSoundFileLocation(scanned.getSoundFileLocation());
+                current.setCategory(scanned.getCategory());
+                current.setLastModified(scanned.getLastModified());
+                current.setSize(scanned.getSize());
+                opusFrameCache.invalidate(current);
+                updated++;
+            }
+        }
+        removed.addAll(existing.values());
+
+        soundFileRepository.deleteAll(removed);
+        soundFileRepository.saveAll(inserted);
+        removed.forEach(opusFrameCache::invalidate);
+        removed.forEach(loudnessNormalizer::remove);
+        soundCatalog.replace(onDisk.values());
+        loudnessNormalizer.submit(onDisk.values());
+
+        Result result = new Result(inserted.size(), updated, removed.size(), (System.nanoTime() - start) / 1_000_000);
+        LOG.info("Synchronized {} sound files in {} ms: {} added, {} updated, {} removed", onDisk.size(),
+                result.getDurationMs(), result.getInserted(), result.getUpdated(), result.getDeleted());
+        return result;
+    }
+
+    private Result doApply(Collection<SoundFileChange> changes) {
+        long start = System.nanoTime();
+        // Changes already applied in this batch, the catalog is only updated at the end. Removed ids map to null.
+        Map<String, SoundFile> pending = new HashMap<>();
+        int inserted = 0;
+        int updated = 0;
+        int deleted = 0;
+
+        for (SoundFileChange change : changes) {
+            Path path = change.getPath();
+            if (change.getKind() == SoundFileChange.Kind.REMOVED) {
+                for (SoundFile removed : findUnder(path, pending)) {
+                    deleteRow(removed);
+                    opusFrameCache.invalidate(removed);
+                    loudnessNormalizer.remove(removed);
+                    pending.put(removed.getSoundFileId().toLowerCase(), null);
+                    deleted++;
+                }
+                continue;
+            }
+
+            if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+                continue;
+            }
+            SoundFile scanned = toSoundFile(path);
+            if (scanned == null) {
+                continue;
+            }
+            String key = scanned.getSoundFileId().toLowerCase();
+            SoundFile current = pending.containsKey(key) ? pending.get(key) : soundCatalog.get(key);
+            if (current == null) {
+                soundFileRepository.save(scanned);
+                inserted++;
+            } else if (!current.getSoundFileId().equals(scanned.getSoundFileId())) {
+                deleteRow(current);
+                soundFileRepository.save(scanned);
+                opusFrameCache.invalidate(current);
+                loudnessNormalizer.remove(current);
+                deleted++;
+                inserted++;
+            } else if (isChanged(current, scanned)) {
+                SoundFile persisted = soundFileRepository.findById(current.getSoundFileId()).orElse(null);
+                if (persisted == null) {
+                    soundFileRepository.save(scanned);
+                } else {
+                    persisted.setSoundFileLocation(scanned.getSoundFileLocation());
+                    persisted.setCategory(scanned.getCategory());
+                    persisted.setLastModified(scanned.getLastModified());
+                    persisted.setSize(scanned.getSize());
+                }
+                opusFrameCache.invalidate(current);
+                updated++;
+            } else {
+                continue;
+            }
+            pending.put(key, scanned);
+        }
+
+        List<SoundFile> upserted = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+        pending.forEach((key, soundFile) -> {
+            if (soundFile == null) {
+                removedIds.add(key);
+            } else {
+                upserted.add(soundFile);
+            }
+        });
+        soundCatalog.apply(upserted, removedIds);
+        loudnessNormalizer.submit(upserted);
+
+        Result result = new Result(inserted, updated, deleted, (System.nanoTime() - start) / 1_000_000);
+        LOG.info("Applied {} sound file changes in {} ms: {} added, {} updated, {} removed", changes.size(),
+                result.getDurationMs(), result.getInserted(), result.getUpdated(), result.getDeleted());
+        return result;
+    }
+
+    /**
+     * Deletes the row of a sound file taken from the catalog. Catalog entries were scanned or read from the snapshot,
+     * not loaded by the repository, so they count as new and a repository may skip deleting them. The managed entity is
+     * looked up by id instead, and a row that is already gone is ignored.
+     */
+    private void deleteRow(SoundFile soundFile) {
+        soundFileRepository.findById(soundFile.getSoundFileId()).ifPresent(soundFileRepository::delete);
+    }
+
+    /**
+     * Finds the sound files at a removed path. The path may have been a file or a whole directory.
+     */
+    private List<SoundFile> findUnder(Path removedPath, Map<String, SoundFile> pending) {
+        String fileName = removedPath.getFileName().toString();
+        int extensionIndex = fileName.indexOf(".");
+        if (extensionIndex > 0) {
+            String key = fileName.substring(0, extensionIndex).toLowerCase();
+            SoundFile soundFile = pending.containsKey(key) ? pending.get(key) : soundCatalog.get(key);
+            if (soundFile != null && Paths.get(soundFile.getSoundFileLocation()).equals(removedPath)) {
+                return Collections.singletonList(soundFile);
+            }
+        }
+
+        List<SoundFile> found = new ArrayList<>();
+        for (SoundFile soundFile : soundCatalog.getAll()) {
+            if (!pending.containsKey(soundFile.getSoundFileId().toLowerCase())
+                    && Paths.get(soundFile.getSoundFileLocation()).startsWith(removedPath)) {
+                found.add(soundFile);
+            }
+        }
+        for (SoundFile soundFile : pending.values()) {
+            if (soundFile != null && Paths.get(soundFile.getSoundFileLocation()).startsWith(removedPath)) {
+                found.add(soundFile);
+            }
+        }
+        return found;
+    }
+
+    private Map<String, SoundFile> scanSoundsDirectory() {
+        String soundFileDir = appProperties.getSoundsDirectory();
+
+        LOG.info("Loading from " + soundFileDir);
+        Path soundFilePath = Paths.get(soundFileDir);
+
+        if (!soundFilePath.toFile().exists()) {
+            LOG.info("creating directory: " + soundFilePath.toFile().toString());
+            boolean result = false;
+
+            try {
+                result = soundFilePath.toFile().mkdir();
+            } catch (SecurityException se) {
+                LOG.error("Could not create directory: " + soundFilePath.toFile().toString());
+            }
+            if (result) {
+                LOG.info("DIR: " + soundFilePath.toFile().toString() + " created.");
+            }
+        }
+
+        Map<String, SoundFile> soundFiles = new LinkedHashMap<>();
+        try (Stream<Path> paths = Files.walk(soundFilePath)) {
+            paths.filter(p -> Files.isReadable(p) && !Files.isDirectory(p) && !Files.isSymbolicLink(p))
+                    .forEach(filePath -> {
+                        SoundFile soundFile = toSoundFile(filePath);
+                        if (soundFile != null) {
+                            soundFiles.put(soundFile.getSoundFileId().toLowerCase(), soundFile);
+                        }
+                    });
+        } catch (IOException e) {
+            LOG.error("Could not scan sounds directory " + soundFilePath, e);
+        }
+        return soundFiles;
+    }
+
+    /**
+     * Reads the catalog entry for a file in the sounds directory. The id is the file name without extension and the
+     * category is the name of the folder the file is in.
+     *
+     * @param filePath - The file to read.
+     * @return The sound file, or null if the file has no extension or could not be read.
+     */
+    static SoundFile toSoundFile(Path filePath) {
+        String fileName = filePath.getFileName().toString();
+        int extensionIndex = fileName.indexOf(".");
+        if (extensionIndex <= 0) {
+            LOG.debug("Skipping file without extension: {}", filePath);
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            String parent = filePath.toAbsolutePath().getParent().getFileName().toString();
+            return new SoundFile(fileName.substring(0, extensionIndex), filePath.toString(), parent,
+                    new Date(attributes.lastModifiedTime().toMillis()), attributes.size());
+        } catch (IOException e) {
+            LOG.error("Could not read attributes of " + filePath, e);
+            return null;
+        }
+    }
+
+    private static boolean isChanged(SoundFile current, SoundFile scanned) {
+        return !Objects.equals(current.getSoundFileLocation(), scanned.getSoundFileLocation())
+                || !Objects.equals(current.getCategory(), scanned.getCategory())
+                || !Objects.equals(current.getSize(), scanned.getSize())
+                || current.getLastModified() == null
+                || current.getLastModified().getTime() != scanned.getLastModified().getTime();
+    }
+
+    public static class Result {
+        private final int inserted;
+        private final int updated;
+        private final int deleted;
+        private final long durationMs;
+
+        Result(int inserted, int updated, int deleted, long durationMs) {
+            this.inserted = inserted;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.durationMs = durationMs;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public int getChanged() {
+            return inserted + updated + deleted;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import java.nio.file.Path;
+
+/**
+ * A change to a single path in the sounds directory, as reported by {@link SoundFolderWatch}.
+ *
+ * @author dfurrer.
+ */
+public class SoundFileChange {
+
+    public enum Kind {
+        ADDED,
+        MODIFIED,
+        REMOVED,
+        /**
+         * Events were lost, the whole sounds directory has to be reconciled. There is no path.
+         */
+        OVERFLOW
+    }
+
+    private final Kind kind;
+    private final Path path;
+
+    public SoundFileChange(Kind kind, Path path) {
+        this.kind = kind;
+        this.path = path;
+    }
+
+    public static SoundFileChange overflow() {
+        return new SoundFileChange(Kind.OVERFLOW, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return kind + (path == null ? "" : " " + path);
+    }
+}
@@ -0,0 +1,129 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the file changes reported by the {@link SoundFolderWatch} and hands them to the {@link SoundCatalogSync}
+ * in bursts. A burst ends once no change arrived for the quiet period, or once the maximum delay after its first
+ * change has passed. Only the last change of every path is kept.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class SoundFileChangeCoalescer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SoundFileChangeCoalescer.class);
+
+    private final SoundCatalogSync soundCatalogSync;
+    private final long quietPeriodNanos;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService executor;
+    private final LongSupplier nanoTime;
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong reconciles = new AtomicLong();
+
+    private Map<Path, SoundFileChange> pending = new LinkedHashMap<>();
+    private boolean overflow;
+    private long burstStart;
+    private ScheduledFuture<?> scheduledFlush;
+
+    @Autowired
+    public SoundFileChangeCoalescer(DiscordSoundboardProperties appProperties, SoundCatalogSync soundCatalogSync) {
+        this(appProperties, soundCatalogSync, Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sound-file-change-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        }), System::nanoTime);
+    }
+
+    /**
+     * @param executor - Runs the reconciles, on a single thread.
+     * @param nanoTime - The clock bursts are timed by, {@link System#nanoTime()} outside of tests.
+     */
+    SoundFileChangeCoalescer(DiscordSoundboardProperties appProperties, SoundCatalogSync soundCatalogSync,
+                             ScheduledExecutorService executor, LongSupplier nanoTime) {
+        this.soundCatalogSync = soundCatalogSync;
+        this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(appProperties.getFileChangeQuietPeriodMs());
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(appProperties.getFileChangeMaxDelayMs());
+        this.executor = executor;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Adds a change to the current burst and postpones its reconcile until the quiet period has passed.
+     *
+     * @param change - The change reported by the watcher.
+     */
+    public synchronized void submit(SoundFileChange change) {
+        eventsReceived.incrementAndGet();
+        long now = nanoTime.getAsLong();
+        if (pending.isEmpty() && !overflow) {
+            burstStart = now;
+        }
+
+        if (change.getKind() == SoundFileChange.Kind.OVERFLOW) {
+            overflow = true;
+            pending.clear();
+        } else if (!overflow) {
+            // Re-insert so the paths stay in the order of their last change.
+            pending.remove(change.getPath());
+            pending.put(change.getPath(), change);
+        }
+
+        long delay = Math.min(quietPeriodNanos, Math.max(0, burstStart + maxDelayNanos - now));
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = executor.schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    public long getReconciles() {
+        return reconciles.get();
+    }
+
+    private void flush() {
+        List<SoundFileChange> changes;
+        synchronized (this) {
+            changes = overflow ? Collections.singletonList(SoundFileChange.overflow()) : new ArrayList<>(pending.values());
+            pending = new LinkedHashMap<>();
+            overflow = false;
+            scheduledFlush = null;
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        reconciles.incrementAndGet();
+        LOG.info("Reconciling {} changed paths. {} file events received in {} reconciles so far.",
+                changes.size(), eventsReceived.get(), reconciles.get());
+        try {
+            soundCatalogSync.apply(changes);
+        } catch (Exception e) {
+            LOG.error("Could not apply sound file changes", e);
+        }
+    }
+
+    @PreDestroy
+    @SuppressWarnings("unused")
+    public void cleanUp() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,193 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.beans.PlayEventFilenameCount;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import net.dirtydeeds.discordsoundboard.repository.PlayEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks random sound files from the {@link SoundCatalog} without querying the database. Play counts are read once at
+ * startup and kept up to date by {@link #recordPlay(String)}.
+ * <p>
+ * Weighted picks use a Fenwick tree over the catalog entries, weighted by play count plus one so sounds that were
+ * never played can still come up. Picks among the most or least played sounds use a ranking that is rebuilt only
+ * after play counts or the catalog changed.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class SoundFileSampler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SoundFileSampler.class);
+
+    private final SoundCatalog soundCatalog;
+    private final Map<String, Integer> playCounts = new ConcurrentHashMap<>();
+
+    private SoundFile[] indexedEntries;
+    private Map<String, Integer> entryIndex = Collections.emptyMap();
+    private long[] tree = new long[1];
+    private long totalWeight;
+    private List<SoundFile> ranked;
+
+    @Autowired
+    public SoundFileSampler(SoundCatalog soundCatalog, PlayEventRepository playEventRepository) {
+        this.soundCatalog = soundCatalog;
+        for (PlayEventFilenameCount filenameCount : playEventRepository.getFilenameCount()) {
+            playCounts.merge(key(filenameCount.getFilename()), filenameCount.getCount(), Integer::sum);
+        }
+        LOG.info("Loaded play counts of {} sound files", playCounts.size());
+    }
+
+    /**
+     * @return A sound file picked uniformly at random, or null if there are none.
+     */
+    public SoundFile random() {
+        return soundCatalog.random(ThreadLocalRandom.current());
+    }
+
+    /**
+     * @return A sound file picked at random with a chance proportional to its play count plus one, or null if there
+     * are none.
+     */
+    public synchronized SoundFile weightedRandom() {
+        long total = getTotalWeight();
+        if (total == 0) {
+            return null;
+        }
+        return weightedAt(ThreadLocalRandom.current().nextLong(total));
+    }
+
+    /**
+     * @return The sum of the weights of all sound files, the bound of the points {@link #weightedAt(long)} takes.
+     */
+    synchronized long getTotalWeight() {
+        ensureIndexed();
+        return totalWeight;
+    }
+
+    /**
+     * @param target - A point between 0 and the total weight exclusive.
+     * @return The sound file whose range of cumulative weights contains the point.
+     */
+    synchronized SoundFile weightedAt(long target) {
+        ensureIndexed();
+        return indexedEntries[find(target)];
+    }
+
+    /**
+     * @param number - How many of the most played sound files to pick from.
+     * @return One of the most played sound files, or null if nothing was played yet.
+     */
+    public SoundFile randomTop(int number) {
+        return randomOfRanked(number, false);
+    }
+
+    /**
+     * @param number - How many of the least played sound files to pick from. Sounds that were never played are not
+     *               included.
+     * @return One of the least played sound files, or null if nothing was played yet.
+     */
+    public SoundFile randomBottom(int number) {
+        return randomOfRanked(number, true);
+    }
+
+    /**
+     * Counts a play of the given sound file.
+     *
+     * @param soundFileId - The id of the sound file that was played.
+     */
+    public synchronized void recordPlay(String soundFileId) {
+        String key = key(soundFileId);
+        playCounts.merge(key, 1, Integer::sum);
+        ranked = null;
+        Integer index = entryIndex.get(key);
+        if (index != null && indexedEntries == soundCatalog.entries()) {
+            add(index, 1);
+            totalWeight++;
+        }
+    }
+
+    private synchronized SoundFile randomOfRanked(int number, boolean leastPlayed) {
+        ensureIndexed();
+        if (ranked == null) {
+            List<SoundFile> played = new ArrayList<>();
+            for (SoundFile soundFile : indexedEntries) {
+                if (playCount(soundFile) > 0) {
+                    played.add(soundFile);
+                }
+            }
+            played.sort(Comparator.comparingInt(this::playCount).reversed());
+            ranked = played;
+        }
+        if (ranked.isEmpty()) {
+            return null;
+        }
+        int bound = Math.min(Math.max(number, 1), ranked.size());
+        int rank = ThreadLocalRandom.current().nextInt(bound);
+        return ranked.get(leastPlayed ? ranked.size() - 1 - rank : rank);
+    }
+
+    /**
+     * Rebuilds the Fenwick tree in linear time if the catalog changed since it was last built.
+     */
+    private void ensureIndexed() {
+        SoundFile[] entries = soundCatalog.entries();
+        if (entries == indexedEntries) {
+            return;
+        }
+        Map<String, Integer> index = new HashMap<>(entries.length * 4 / 3 + 1);
+        long[] newTree = new long[entries.length + 1];
+        long total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            index.put(key(entries[i].getSoundFileId()), i);
+            long weight = playCount(entries[i]) + 1L;
+            newTree[i + 1] += weight;
+            total += weight;
+            int parent = (i + 1) + ((i + 1) & -(i + 1));
+            if (parent <= entries.length) {
+                newTree[parent] += newTree[i + 1];
+            }
+        }
+        indexedEntries = entries;
+        entryIndex = index;
+        tree = newTree;
+        totalWeight = total;
+        ranked = null;
+    }
+
+    private void add(int index, long delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * @return The index of the entry whose cumulative weight range contains the target.
+     */
+    private int find(long target) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < tree.length && tree[next] <= target) {
+                position = next;
+                target -= tree[next];
+            }
+        }
+        return position;
+    }
+
+    private int playCount(SoundFile soundFile) {
+        return playCounts.getOrDefault(key(soundFile.getSoundFileId()), 0);
+    }
+
+    private static String key(String soundFileId) {
+        return soundFileId.toLowerCase(Locale.ROOT);
+    }
+}
@@ -8,13 +8,18 @@ import org.springframework.stereotype.Service;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.WatchEvent.Kind;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Observable;
+import java.util.stream.Stream;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardWatchEventKinds.*;
 
 /**
- * Observable class used to watch changes to files in a given directory
+ * Observable class used to watch changes to files in a given directory and all of its sub directories. Observers are
+ * notified with a {@link SoundFileChange} for every file that was added, modified or removed.
  *
  * @author dfurrer.
  */
@@ -41,59 +46,83 @@ public class SoundFolderWatch extends Observable {
         LOG.info("Watching path: " + path);
 
         // We obtain the file system of the Path
-        FileSystem fs = path.getFileSystem ();
+        FileSystem fs = path.getFileSystem();
 
         // We create the new WatchService using the new try() block
         try (WatchService service = fs.newWatchService()) {
-
-            // We register the path to the service
-            // We watch for creation events
-            path.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+            registerAll(path, service, watchedDirectories);
 
             // Start the infinite polling loop
-            WatchKey key;
-            //loop
-            key = service.take();
-
-            // Dequeueing events
-            Kind<?> kind;
-            for (WatchEvent<?> watchEvent : key.pollEvents()) {
-                // Get the type of the event
-                kind = watchEvent.kind();
-                if (kind == ENTRY_CREATE || kind == ENTRY_DELETE || kind == ENTRY_MODIFY) {
-                    // A new Path was created
-                    Path newPath = ((WatchEvent<Path>) watchEvent).context();
-                    // Output
-                    //Mark the observable object as changed.
-                    this.setChanged();
-                    LOG.info("New path created: " + newPath + " kind of operation: " + kind);
-
-                    notifyObservers(this);
-                }
-            }
-
-            while (key.reset()) {
-                key = service.take();
+            while (!watchedDirectories.isEmpty()) {
+                WatchKey key = service.take();
+                Path directory = watchedDirectories.get(key);
 
                 // Dequeueing events
-
                 for (WatchEvent<?> watchEvent : key.pollEvents()) {
-                    // Get the type of the event
-                    kind = watchEvent.kind();
-                    if (kind == ENTRY_CREATE || kind == ENTRY_DELETE || kind == ENTRY_MODIFY) {
-                        // A new Path was created
-                        Path newPath = ((WatchEvent<Path>) watchEvent).context();
-                        // Output
-                        //Mark the observable object as changed.
-                        this.setChanged();
-                        LOG.info("New path created: " + newPath + " kind of operation: " + kind);
-
-                        notifyObservers(this);
+                    Kind<?> kind = watchEvent.kind();
+                    if (kind == OVERFLOW) {
+                        LOG.warn("Missed file system events, reconciling sounds directory.");
+                        publish(SoundFileChange.overflow());
+                    } else if (directory != null) {
+                        Path changedPath = directory.resolve(((WatchEvent<Path>) watchEvent).context());
+                        LOG.info("Path changed: " + changedPath + " kind of operation: " + kind);
+                        if (kind == ENTRY_CREATE) {
+                            if (Files.isDirectory(changedPath, NOFOLLOW_LINKS)) {
+                                registerAll(changedPath, service, watchedDirectories);
+                                publishFilesIn(changedPath);
+                            } else {
+                                publish(new SoundFileChange(SoundFileChange.Kind.ADDED, changedPath));
+                            }
+                        } else if (kind == ENTRY_MODIFY) {
+                            if (!Files.isDirectory(changedPath, NOFOLLOW_LINKS)) {
+                                publish(new SoundFileChange(SoundFileChange.Kind.MODIFIED, changedPath));
+                            }
+                        } else if (kind == ENTRY_DELETE) {
+                            publish(new SoundFileChange(SoundFileChange.Kind.REMOVED, changedPath));
+                        }
                     }
                 }
+
+                // The key is no longer valid once its directory is deleted.
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
             }
-        } catch(IOException | InterruptedException ioe) {
+        } catch (IOException | InterruptedException ioe) {
             ioe.printStackTrace();
         }
     }
+
+    /**
+     * Registers the directory and every directory below it.
+     */
+    private void registerAll(Path start, WatchService service, Map<WatchKey, Path> watchedDirectories) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * A directory that was created or moved in may already contain files that no event will be reported for.
+     */
+    private void publishFilesIn(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.filter(p -> !Files.isDirectory(p))
+                    .forEach(p -> publish(new SoundFileChange(SoundFileChange.Kind.ADDED, p)));
+        } catch (IOException e) {
+            LOG.error("Could not list files in " + directory, e);
+        }
+    }
+
+    private void publish(SoundFileChange change) {
+        //Mark the observable object as changed.
+        this.setChanged();
+        notifyObservers(change);
+    }
 }
@@ -15,26 +15,25 @@ import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.audio.AudioDeliveryMonitor;
+import net.dirtydeeds.discordsoundboard.audio.CachedSound;
 import net.dirtydeeds.discordsoundboard.audio.GuildMusicManager;
+import net.dirtydeeds.discordsoundboard.audio.GuildMusicManagerRegistry;
+import net.dirtydeeds.discordsoundboard.audio.TrackScheduler;
 import net.dirtydeeds.discordsoundboard.SoundPlaybackException;
 import net.dirtydeeds.discordsoundboard.beans.PlayEvent;
 import net.dirtydeeds.discordsoundboard.beans.SoundFile;
-import net.dirtydeeds.discordsoundboard.beans.SoundFilePlayEventCount;
 import net.dirtydeeds.discordsoundboard.beans.User;
 import net.dirtydeeds.discordsoundboard.listeners.ChatSoundBoardListener;
 import net.dirtydeeds.discordsoundboard.listeners.DisconnectListener;
+import net.dirtydeeds.discordsoundboard.listeners.VoiceStateListener;
 import net.dirtydeeds.discordsoundboard.repository.PlayEventRepository;
 import net.dirtydeeds.discordsoundboard.repository.SoundFileRepository;
-import net.dv8tion.jda.core.AccountType;
-import net.dv8tion.jda.core.JDA;
-import net.dv8tion.jda.core.JDABuilder;
-import net.dv8tion.jda.core.Permission;
-import net.dv8tion.jda.core.audio.hooks.ConnectionStatus;
+import net.dirtydeeds.discordsoundboard.util.LatencyHistogram;
+import net.dv8tion.jda.bot.sharding.DefaultShardManagerBuilder;
 import net.dv8tion.jda.core.entities.*;
 import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
-import net.dv8tion.jda.core.exceptions.PermissionException;
 import net.dv8tion.jda.core.managers.AudioManager;
-import net.dv8tion.jda.core.requests.RequestFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,9 +47,12 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author dfurrer.
@@ -62,24 +64,54 @@ import java.util.concurrent.TimeUnit;
 public class SoundPlayerImpl {
 
     private final Logger LOG = LoggerFactory.getLogger(this.getClass());
-    private final Map<String, GuildMusicManager> musicManagers;
+    private final VoiceConnectionManager voiceConnections;
+    private final VoiceLingerPolicy voiceLingerPolicy;
+    private final CommandPipeline commandPipeline;
+    private final PrivateMessageService privateMessages;
+    private final DiscordShards shards;
+    private final RuntimeStatsSampler runtimeStats;
+    private final AudioDeliveryMonitor deliveryMonitor;
+    private final SoundPlayerRateLimiter rateLimiter;
+    private final Set<Integer> readyShards = ConcurrentHashMap.newKeySet();
     private final PlayEventRepository playEventRepository;
     private final DiscordSoundboardProperties appProperties;
     private final AudioPlayerManager playerManager;
     private final SoundFileRepository soundFileRepository;
-    private JDA bot;
-    private float playerVolume = (float) .75;
+    private final OpusFrameCache opusFrameCache;
+    private final SoundCatalogSync soundCatalogSync;
+    private final SoundCatalog soundCatalog;
+    private final SoundFileSampler soundFileSampler;
+    private final StartupTimings startupTimings;
+    private final AudioTrackCache audioTrackCache;
+    private final LoudnessNormalizer loudnessNormalizer;
+    private final PlayRequestCoalescer playRequestCoalescer;
+    private final PlaybackMetrics metrics;
+    private final PlayTracer playTracer;
+    private final SoundFileChangeCoalescer fileChanges;
+    private final AtomicLong transcodedPlays = new AtomicLong();
+    private long loginStart;
+    private volatile float playerVolume = 1f;
+    private volatile boolean muted;
 
     @Autowired
-    public SoundPlayerImpl(DiscordSoundboardProperties discordSoundboardProperties, SoundFileRepository soundFileRepository, PlayEventRepository playEventRepository) {
+    public SoundPlayerImpl(DiscordSoundboardProperties discordSoundboardProperties, SoundFileRepository soundFileRepository, PlayEventRepository playEventRepository, OpusFrameCache opusFrameCache, SoundCatalogSync soundCatalogSync, SoundCatalog soundCatalog, SoundFileSampler soundFileSampler, StartupTimings startupTimings, LoudnessNormalizer loudnessNormalizer, VoiceLingerPolicy voiceLingerPolicy, CommandPipeline commandPipeline, PrivateMessageService privateMessages, PlaybackMetrics metrics, PlayTracer playTracer, SoundFileChangeCoalescer fileChanges) {
         this.appProperties = discordSoundboardProperties;
         this.soundFileRepository = soundFileRepository;
         this.playEventRepository = playEventRepository;
-        this.musicManagers = new HashMap<>();
-
-        initializeDiscordBot();
-        getFileList();
-
+        this.opusFrameCache = opusFrameCache;
+        this.soundCatalogSync = soundCatalogSync;
+        this.soundCatalog = soundCatalog;
+        this.soundFileSampler = soundFileSampler;
+        this.startupTimings = startupTimings;
+        this.audioTrackCache = new AudioTrackCache(appProperties.getTrackCacheSize());
+        this.loudnessNormalizer = loudnessNormalizer;
+        this.playRequestCoalescer = new PlayRequestCoalescer(appProperties.getPlayCoalesceWindowMs());
+        this.voiceLingerPolicy = voiceLingerPolicy;
+        this.commandPipeline = commandPipeline;
+        this.privateMessages = privateMessages;
+        this.metrics = metrics;
+        this.playTracer = playTracer;
+        this.fileChanges = fileChanges;
         this.playerManager = new DefaultAudioPlayerManager();
         this.playerManager.registerSourceManager(new LocalAudioSourceManager());
         this.playerManager.registerSourceManager(new YoutubeAudioSourceManager());
@@ -89,40 +121,227 @@ public class SoundPlayerImpl {
         this.playerManager.registerSourceManager(new VimeoAudioSourceManager());
         this.playerManager.registerSourceManager(new HttpAudioSourceManager());
         this.playerManager.registerSourceManager(new BeamAudioSourceManager());
+        this.voiceConnections = new VoiceConnectionManager(appProperties.getVoiceConnectTimeoutMs(), metrics);
+        this.deliveryMonitor = new AudioDeliveryMonitor(appProperties.getStutterFrames());
+        this.rateLimiter = new SoundPlayerRateLimiter(appProperties);
+        this.shards = new DiscordShards(appProperties.getShardsTotal(), appProperties.getShardRangeStart(),
+                appProperties.getShardRangeEnd(), shardId -> new ShardContext(shardId, new GuildMusicManagerRegistry(playerManager,
+                TimeUnit.MINUTES.toMillis(appProperties.getPlayerIdleTimeoutMinutes()),
+                appProperties.getMaxQueuedPerGuild(), appProperties.getMaxQueuedPerUser(), this::closeIdleConnection, deliveryMonitor),
+                this::onShardReady));
+        this.runtimeStats = new RuntimeStatsSampler(TimeUnit.SECONDS.toMillis(appProperties.getStatsSampleSeconds()),
+                shards, soundCatalog, opusFrameCache, audioTrackCache);
+        registerGauges();
+
+        initializeDiscordBot();
+        loadSoundCatalog();
+    }
+
+    private void registerGauges() {
+        metrics.gauge("soundboard.players", "Guilds that have a player", this, SoundPlayerImpl::getLivePlayerCount);
+        metrics.gauge("soundboard.players.playing", "Guilds that are playing", this, SoundPlayerImpl::getPlayingCount);
+        metrics.gauge("soundboard.tracks.queued", "Tracks waiting in all guilds", this, SoundPlayerImpl::getQueuedTrackCount);
+        metrics.gauge("soundboard.commands.queued", "Chat commands waiting to run", commandPipeline, CommandPipeline::getQueuedCount);
+        metrics.gauge("soundboard.shards.ready", "Shards that are connected and ready", shards, DiscordShards::getReadyCount);
+        metrics.gauge("soundboard.voice.warm", "Voice connections kept open after the last user left", voiceLingerPolicy, VoiceLingerPolicy::getWarmCount);
+        metrics.gauge("soundboard.audio.frames.provided", "Audio frames sent to Discord", deliveryMonitor, AudioDeliveryMonitor::getProvidedCount);
+        metrics.gauge("soundboard.audio.frames.missed", "Audio frames missing while audio was playing", deliveryMonitor, AudioDeliveryMonitor::getMissedCount);
+        metrics.gauge("soundboard.audio.stutters", "Runs of missed frames long enough to be heard", deliveryMonitor, AudioDeliveryMonitor::getStutterCount);
+        metrics.gauge("soundboard.sounds", "Sound files in the catalog", soundCatalog, SoundCatalog::size);
+        metrics.gauge("soundboard.files.events", "Sound folder events received", fileChanges, SoundFileChangeCoalescer::getEventsReceived);
+        metrics.gauge("soundboard.files.reconciles", "Bursts of sound folder events applied to the catalog", fileChanges, SoundFileChangeCoalescer::getReconciles);
     }
 
     private GuildMusicManager getGuildAudioPlayer(Guild guild) {
-        String guildId = guild.getId();
-        GuildMusicManager mng = musicManagers.get(guildId);
-        if (mng == null) {
-            synchronized (musicManagers) {
-                mng = musicManagers.computeIfAbsent(guildId, k -> new GuildMusicManager(playerManager));
+        return shards.forGuild(guild).getMusicManagers().get(guild.getId());
+    }
+
+    /**
+     * Closes the audio connection of a guild whose music manager is being evicted. Called while the registry holds the
+     * guild's entry, so a play cannot create a new manager and connect in the meantime.
+     *
+     * @param guildId - The id of the guild.
+     */
+    private void closeIdleConnection(String guildId) {
+        voiceConnections.forget(guildId);
+        voiceLingerPolicy.forget(guildId);
+        Guild guild = shards.getGuildById(guildId);
+        if (guild != null) {
+            AudioManager audioManager = guild.getAudioManager();
+            audioManager.setSendingHandler(null);
+            if (audioManager.isConnected() || audioManager.isAttemptingToConnect()) {
+                LOG.info("Closing idle audio connection in guild {}", guild.getName());
+                audioManager.closeAudioConnection();
             }
         }
-        return mng;
+    }
+
+    /**
+     * @return The number of guilds that currently have a player.
+     */
+    public int getLivePlayerCount() {
+        int players = 0;
+        for (ShardContext shard : shards.getShards()) {
+            players += shard.getMusicManagers().size();
+        }
+        return players;
+    }
+
+    /**
+     * @return The latest sample of the runtime figures, such as CPU, memory, players and caches.
+     */
+    public RuntimeStatsSampler.Snapshot getRuntimeStats() {
+        return runtimeStats.getSnapshot();
+    }
+
+    /**
+     * @return The number of guilds that are playing right now.
+     */
+    public int getPlayingCount() {
+        int playing = 0;
+        for (ShardContext shard : shards.getShards()) {
+            playing += shard.getMusicManagers().getPlayingCount();
+        }
+        return playing;
+    }
+
+    /**
+     * @return The number of tracks waiting in all guilds.
+     */
+    public int getQueuedTrackCount() {
+        int queued = 0;
+        for (ShardContext shard : shards.getShards()) {
+            queued += shard.getMusicManagers().getQueuedTrackCount();
+        }
+        return queued;
+    }
+
+    public AudioDeliveryMonitor getDeliveryMonitor() {
+        return deliveryMonitor;
+    }
+
+    public PlayTracer getPlayTracer() {
+        return playTracer;
+    }
+
+    /**
+     * @return How long joining a voice channel took, from the request until audio could be sent.
+     */
+    public LatencyHistogram getConnectLatency() {
+        return voiceConnections.getConnectLatency();
+    }
+
+    /**
+     * @return The number of plays and joins that found the bot already connected.
+     */
+    public long getWarmConnectionHits() {
+        return voiceConnections.getWarmHitCount();
+    }
+
+    /**
+     * @return The number of plays and joins that had to wait for a voice connection.
+     */
+    public long getVoiceReconnects() {
+        return voiceConnections.getReconnectCount();
+    }
+
+    public VoiceLingerPolicy getVoiceLingerPolicy() {
+        return voiceLingerPolicy;
+    }
+
+    /**
+     * @return The number of shards run by this instance.
+     */
+    public int getShardCount() {
+        return shards.getShardCount();
+    }
+
+    /**
+     * @return The number of shards of this instance that are connected and ready.
+     */
+    public int getReadyShardCount() {
+        return shards.getReadyCount();
+    }
+
+    /**
+     * @return The number of players that were released after being idle.
+     */
+    public long getEvictedPlayerCount() {
+        long evicted = 0;
+        for (ShardContext shard : shards.getShards()) {
+            evicted += shard.getMusicManagers().getEvictedCount();
+        }
+        return evicted;
+    }
+
+    /**
+     * @return The number of play requests that were merged into an identical request that had just started.
+     */
+    public long getMergedPlayCount() {
+        return playRequestCoalescer.getMergedCount();
+    }
+
+    /**
+     * @param guild - The guild to look at.
+     * @return The number of tracks waiting in the guild.
+     */
+    public int getQueueSize(Guild guild) {
+        return getGuildAudioPlayer(guild).scheduler.getQueueSize();
+    }
+
+    /**
+     * @param guild  - The guild to look at.
+     * @param userId - The id of the user.
+     * @return The number of tracks the user has waiting in the guild.
+     */
+    public int getQueueSize(Guild guild, String userId) {
+        return getGuildAudioPlayer(guild).scheduler.getQueueSize(userId);
+    }
+
+    /**
+     * @param guild  - The guild to look at.
+     * @param userId - The id of the user.
+     * @return The estimated milliseconds until a track the user queues now would start, -1 if unknown.
+     */
+    public long getEstimatedWaitMs(Guild guild, String userId) {
+        return getGuildAudioPlayer(guild).scheduler.getEstimatedWaitMs(userId);
+    }
+
+    /**
+     * Makes sure the user may queue the given number of tracks in the guild.
+     *
+     * @throws SoundPlaybackException with a message for the user if a queue limit would be exceeded.
+     */
+    private void checkQueueCapacity(Guild guild, String userId, int count) throws SoundPlaybackException {
+        TrackScheduler.QueueResult result = getGuildAudioPlayer(guild).scheduler.checkCapacity(userId, count);
+        if (result == TrackScheduler.QueueResult.GUILD_QUEUE_FULL) {
+            throw new SoundPlaybackException("The queue of this server is full (" + appProperties.getMaxQueuedPerGuild() +
+                    " tracks). Try again once some of them have played.");
+        } else if (result == TrackScheduler.QueueResult.USER_QUEUE_FULL) {
+            throw new SoundPlaybackException("You already have " + appProperties.getMaxQueuedPerUser() +
+                    " tracks queued. Try again once some of them have played.");
+        }
     }
 
     /**
      * Gets a Map of the loaded sound files.
      *
-     * @return Map of sound files that have been loaded.
+     * @return Map of sound files that have been loaded, sorted by id ignoring case.
      */
     public Map<String, SoundFile> getAvailableSoundFiles() {
-        Map<String, SoundFile> returnFiles = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        for (SoundFile soundFile : soundFileRepository.findAll()) {
-            returnFiles.put(soundFile.getSoundFileId(), soundFile);
-        }
-        return returnFiles;
+        return soundCatalog.getSorted();
     }
 
     /**
      * Sets volume of the player.
      *
      * @param volume - The volume value to set.
+     * @param userId - The id of the requesting user, the volume is set in the guild of their voice channel.
      */
-    public void setSoundPlayerVolume(int volume, String username) {
+    public void setSoundPlayerVolume(int volume, String userId) {
         playerVolume = (float) volume / 100;
-        Guild guild = getUsersGuild(username);
+        muted = volume == 0;
+        Guild guild = getUsersVoiceGuild(userId);
         GuildMusicManager gmm;
         if (guild != null) {
             gmm = getGuildAudioPlayer(guild);
@@ -139,9 +358,25 @@ public class SoundPlayerImpl {
         return playerVolume;
     }
 
+    /**
+     * @return true if the volume was set to 0, sounds are not played until it is raised again. Shared by the chat
+     * listeners of all shards.
+     */
+    public boolean isMuted() {
+        return muted;
+    }
+
+    /**
+     * @return The number of sounds played at a volume other than 100%, which have to be decoded and encoded again.
+     */
+    public long getTranscodedPlays() {
+        return transcodedPlays.get();
+    }
+
     public void playRandomSoundFile(String requestingUser, MessageReceivedEvent event) throws SoundPlaybackException {
         try {
-            SoundFile randomValue = soundFileRepository.findRandom();
+            SoundFile randomValue = appProperties.isRandomWeightedByPlayCount()
+                    ? soundFileSampler.weightedRandom() : soundFileSampler.random();
 
             LOG.info("Attempting to play random file: " + randomValue.getSoundFileId() + ", requested by : " + requestingUser);
             try {
@@ -154,15 +389,20 @@ public class SoundPlayerImpl {
         }
     }
 
-    public void playUrlForUser(String url, String userName) {
-        try {
-            Guild guild = getUsersGuild(userName);
-            joinUsersCurrentChannel(userName);
-
-            queueFile(url, guild, userName);
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Queues a URL in the guild of the user.
+     *
+     * @param url      - The URL to play.
+     * @param userName - The name of the requesting user, used for logging.
+     * @param userId   - The id of the requesting user, used to find their channel and for their share of the queue.
+     * @throws SoundPlaybackException if the user may not queue more tracks.
+     */
+    public void playUrlForUser(String url, String userName, String userId) throws SoundPlaybackException {
+        Guild guild = getUsersVoiceGuild(userId);
+        if (guild != null) {
+            checkQueueCapacity(guild, userId, 1);
         }
+        whenConnected(joinUsersCurrentChannel(userId), null, () -> queueFile(url, guild, userName, userId));
     }
 
     /**
@@ -189,13 +429,16 @@ public class SoundPlayerImpl {
     public void playFileForEvent(String fileName, MessageReceivedEvent event, int repeatNumber) throws Exception {
         SoundFile fileToPlay = getSoundFileById(fileName);
         if (event != null) {
+            PlayTrace trace = playTracer.take(event.getMessageId());
+            trace.setSound(fileName);
             String userName = event.getAuthor().getName();
-            playEventRepository.save(new PlayEvent(userName, fileName));
-
             Guild guild = event.getGuild();
             if (guild == null) {
-                guild = getUsersGuild(userName);
+                guild = getUsersVoiceGuild(event.getAuthor().getId());
             }
+            playEventRepository.save(new PlayEvent(userName, fileName, guild == null ? null : guild.getId()));
+            soundFileSampler.recordPlay(fileName);
+
             if (guild == null) {
                 sendPrivateMessage(event, "I can not find a voice channel you are connected to.");
                 LOG.warn("no guild to play to.");
@@ -207,15 +450,17 @@ public class SoundPlayerImpl {
                 return;
             }
 
-            try {
-                moveToUserIdsChannel(event, guild);
-            } catch (SoundPlaybackException e) {
-                sendPrivateMessage(event, e.getLocalizedMessage());
-                return;
-            }
-
-            File soundFile = new File(fileToPlay.getSoundFileLocation());
-            playFile(userName, soundFile.getAbsolutePath(), guild, repeatNumber);
+            Guild playGuild = guild;
+            trace.setGuildId(guild.getId());
+            whenConnected(moveToUserIdsChannel(event, guild), event, () -> {
+                // Only a play that got its connection counts, so requests are not merged into one that failed to join.
+                if (!playRequestCoalescer.tryStart(playGuild.getId(), fileToPlay.getSoundFileId(), repeatNumber)) {
+                    LOG.info("Merged request of {} for {} into the play that just started", userName, fileName);
+                    return;
+                }
+                trace.mark(PlayTrace.Stage.CONNECTED);
+                playFile(userName, event.getAuthor().getId(), fileToPlay, playGuild, repeatNumber, trace);
+            });
         }
     }
 
@@ -231,14 +476,10 @@ public class SoundPlayerImpl {
         if (event != null) {
             Guild guild = event.getGuild();
             if (guild == null) {
-                guild = getUsersGuild(event.getAuthor().getName());
+                guild = getUsersVoiceGuild(event.getAuthor().getId());
             }
             if (guild != null) {
-                try {
-                    moveToUserIdsChannel(event, guild);
-                } catch (SoundPlaybackException e) {
-                    sendPrivateMessage(event, e.getLocalizedMessage());
-                }
+                whenConnected(moveToUserIdsChannel(event, guild), event, () -> { });
             } else {
                 sendPrivateMessage(event, "I can not find a voice channel you are connected to.");
                 LOG.warn("no guild to join.");
@@ -249,10 +490,11 @@ public class SoundPlayerImpl {
     /**
      * Stops sound playback and returns true or false depending on if playback was stopped.
      *
+     * @param userId - The id of the requesting user, playback stops in the guild of their voice channel.
      * @return boolean representing whether playback was stopped.
      */
-    public boolean stop(String requestingUser) {
-        Guild guild = getUsersGuild(requestingUser);
+    public boolean stop(String userId) {
+        Guild guild = getUsersVoiceGuild(userId);
         GuildMusicManager mng;
         if (guild != null) {
             mng = getGuildAudioPlayer(guild);
@@ -280,14 +522,30 @@ public class SoundPlayerImpl {
         }
     }
 
-    public void sendPrivateMessage(MessageReceivedEvent event, String message) throws InterruptedException, java.util.concurrent.ExecutionException, java.util.concurrent.TimeoutException {
-        RequestFuture<PrivateChannel> privateChannel = event.getAuthor().openPrivateChannel().submit();
-        PrivateChannel channel = privateChannel.get(5, TimeUnit.SECONDS);
-        channel.sendMessage(message).submit();
+    /**
+     * Sends a private message to the author of the event without waiting for it to be sent.
+     *
+     * @param event   - The event whose author gets the message.
+     * @param message - The message.
+     */
+    public void sendPrivateMessage(MessageReceivedEvent event, String message) {
+        privateMessages.send(event.getAuthor(), message);
+    }
+
+    public PrivateMessageService getPrivateMessages() {
+        return privateMessages;
+    }
+
+    public SoundFileChangeCoalescer getFileChanges() {
+        return fileChanges;
+    }
+
+    public StartupTimings getStartupTimings() {
+        return startupTimings;
     }
 
     private SoundFile getSoundFileById(String soundFileId) {
-        return soundFileRepository.findOneBySoundFileIdIgnoreCase(soundFileId);
+        return soundCatalog.get(soundFileId);
     }
 
     /**
@@ -296,11 +554,14 @@ public class SoundPlayerImpl {
      * @return true if the sound file was successfully deleted, false if the sound file was not found or there was an error
      */
     public boolean deleteSoundFileById(String soundFileId) {
-        SoundFile soundFile = soundFileRepository.findOneBySoundFileIdIgnoreCase(soundFileId);
+        SoundFile soundFile = soundCatalog.get(soundFileId);
         if (soundFile == null) {
             return false;
         }
+        soundCatalog.remove(soundFile.getSoundFileId());
         soundFileRepository.delete(soundFile);
+        opusFrameCache.invalidate(soundFile);
+        audioTrackCache.invalidate(soundFile);
         try {
             Path path = Paths.get(soundFile.getSoundFileLocation());
             LOG.info("Deleting file={}", path);
@@ -316,58 +577,56 @@ public class SoundPlayerImpl {
      * Find the "author" of the event and join the voice channel they are in.
      *
      * @param event - The event
-     * @throws Exception Throws exception if the bot couldn't join the users channel.
+     * @return A future that completes once the bot can play in the channel. If the author is not in a voice channel
+     * they are told so and the future is already complete.
      */
-    private void moveToUserIdsChannel(MessageReceivedEvent event, Guild guild) throws Exception {
+    private CompletableFuture<Void> moveToUserIdsChannel(MessageReceivedEvent event, Guild guild) {
         VoiceChannel channel = findUsersChannel(event, guild);
 
         if (channel == null) {
             sendPrivateMessage(event, "Hello @" + event.getAuthor().getName() + "! I can not find you in any Voice Channel. Are you sure you are connected to voice?.");
             LOG.warn("Problem moving to requested users channel. Maybe user, " + event.getAuthor().getName() + " is not connected to Voice?");
-        } else {
-            moveToChannel(channel, guild);
+            return CompletableFuture.completedFuture(null);
         }
+        return moveToChannel(channel, guild);
     }
 
     /**
-     * Moves to the specified voice channel.
+     * Moves to the specified voice channel without waiting for the connection.
      *
      * @param channel - The channel specified.
+     * @return A future that completes once the bot can play in the channel, or fails with a
+     * {@link SoundPlaybackException} if it can not join it.
      */
-    private void moveToChannel(VoiceChannel channel, Guild guild) throws SoundPlaybackException {
+    private CompletableFuture<Void> moveToChannel(VoiceChannel channel, Guild guild) {
         GuildMusicManager mng = getGuildAudioPlayer(guild);
+        voiceLingerPolicy.resume(guild.getId());
+        return voiceConnections.connect(channel, mng.sendHandler);
+    }
 
-        AudioManager audioManager = guild.getAudioManager();
-        audioManager.setSendingHandler(mng.sendHandler);
-
-        if (!audioManager.isAttemptingToConnect() || !audioManager.getConnectionStatus().equals(ConnectionStatus.CONNECTED)) {
-            LOG.info("Connection Status during move to channel: " + audioManager.getConnectionStatus().toString());
-            try {
-                guild.getAudioManager().openAudioConnection(channel);
-            } catch (PermissionException e) {
-                if (e.getPermission() == Permission.VOICE_CONNECT) {
-                    throw new SoundPlaybackException("The bot does not have permission to speak in the requested channel: " + channel.getName() + ".");
-                }
+    /**
+     * Runs the action once the bot is connected. If connecting failed the user is told why instead.
+     *
+     * @param connected - The future of the connect.
+     * @param event     - The event of the request, null if there is nobody to tell about a failure.
+     * @param action    - What to do once connected.
+     */
+    private void whenConnected(CompletableFuture<Void> connected, MessageReceivedEvent event, Runnable action) {
+        connected.handle((ignored, error) -> {
+            if (error == null) {
+                action.run();
+                return null;
             }
-
-            int i = 0;
-            int waitTime = 100;
-            int maxIterations = 80;
-            //Wait for the audio connection to be ready before proceeding.
-            synchronized (this) {
-                while (!audioManager.isConnected()) {
-                    try {
-                        wait(waitTime);
-                        i++;
-                        if (i >= maxIterations) {
-                            break; //break out if after some time if it doesn't get a connection;
-                        }
-                    } catch (InterruptedException e) {
-                        LOG.warn("Waiting for audio connection was interrupted.");
-                    }
-                }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            LOG.warn("Could not join voice channel: {}", cause.getLocalizedMessage());
+            if (event != null) {
+                sendPrivateMessage(event, cause.getLocalizedMessage());
             }
-        }
+            return null;
+        }).exceptionally(e -> {
+            LOG.error("Could not start playback after joining voice channel.", e);
+            return null;
+        });
     }
 
     /**
@@ -378,183 +637,177 @@ public class SoundPlayerImpl {
      * @return The VoiceChannel if one is found. Otherwise return null.
      */
     private VoiceChannel findUsersChannel(MessageReceivedEvent event, Guild guild) {
-        VoiceChannel channel = null;
-
-        outerloop:
-        for (VoiceChannel channel1 : guild.getVoiceChannels()) {
-            for (Member user : channel1.getMembers()) {
-                if (user.getUser().getId().equals(event.getAuthor().getId())) {
-                    channel = channel1;
-                    break outerloop;
-                }
-            }
-        }
-
-        return channel;
+        return shards.forGuild(guild).getVoiceStateIndex().getChannel(guild, event.getAuthor().getId());
     }
 
     /**
      * Join the users current channel.
+     *
+     * @param userId - The id of the user.
+     * @return A future that completes once the bot can play in the channel, already complete if the user is not in a
+     * voice channel.
      */
-    private void joinUsersCurrentChannel(String userName) throws SoundPlaybackException {
-        for (Guild guild : bot.getGuilds()) {
-            for (VoiceChannel channel : guild.getVoiceChannels()) {
-                for (Member user : channel.getMembers()) {
-                    if (user.getUser().getName().equalsIgnoreCase(userName)) {
-                        try {
-                            moveToChannel(channel, guild);
-                            return;
-                        } catch (SoundPlaybackException e) {
-                            LOG.error(e.toString());
-                            throw e;
-                        }
-                    }
-                }
+    private CompletableFuture<Void> joinUsersCurrentChannel(String userId) {
+        for (ShardContext shard : shards.getShards()) {
+            VoiceChannel channel = shard.getVoiceStateIndex().getChannel(userId);
+            if (channel != null) {
+                return moveToChannel(channel, channel.getGuild());
             }
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     /**
-     * Looks through all the guilds the bot has access to and returns the Guild the requested user is connected to.
+     * Returns the Guild the requested user is connected to a voice channel in.
      *
-     * @param userName - The username to look for.
-     * @return The voice channel the user is connected to. If user is not connected to a voice channel will return null.
-     */
-    private Guild getUsersGuild(String userName) {
-        for (Guild guild : bot.getGuilds()) {
-            for (VoiceChannel channel : guild.getVoiceChannels()) {
-                for (Member user : channel.getMembers()) {
-                    if (user.getUser().getName().equalsIgnoreCase(userName)) {
-                        return guild;
-                    }
-                }
+     * @param userId - The id of the user to look for.
+     * @return The guild of the voice channel the user is connected to. If user is not connected to a voice channel will
+     * return null.
+     */
+    public Guild getUsersVoiceGuild(String userId) {
+        for (ShardContext shard : shards.getShards()) {
+            Guild guild = shard.getVoiceStateIndex().getGuild(userId);
+            if (guild != null) {
+                return guild;
             }
         }
         return null;
     }
 
     /**
-     * Play the provided File object
+     * Play the provided sound file. Cached frames are sent directly when the player is at full volume, otherwise the
+     * file is loaded through lavaplayer. Repeats replay the same frames back to back instead of loading the file again.
      *
-     * @param audioFile    - The File object to play.
+     * @param userId       - The id of the requesting user.
+     * @param soundFile    - The sound file to play.
      * @param guild        - The guild (discord server) the playback is going to happen in.
      * @param repeatNumber - The number of times to repeat the audio file.
+     * @param trace        - The trace of the request.
      */
     @Async
-    private void playFile(String userName, String audioFile, Guild guild, int repeatNumber) {
+    private void playFile(String userName, String userId, SoundFile soundFile, Guild guild, int repeatNumber, PlayTrace trace) {
         if (guild == null) {
             LOG.error("Guild is null. Have you added your bot to a guild? https://discordapp.com/developers/docs/topics/oauth2");
         } else {
+            String audioFile = new File(soundFile.getSoundFileLocation()).getAbsolutePath();
             LOG.info("Attempting to play file {} for user {}", audioFile, userName);
             GuildMusicManager mng = getGuildAudioPlayer(guild);
-            playerManager.loadItemOrdered(mng, audioFile, new RepeatableAudioLoadResultHandler(repeatNumber, mng, guild));
+            if (mng.player.getVolume() != 100) {
+                transcodedPlays.incrementAndGet();
+            } else {
+                CachedSound cachedSound = opusFrameCache.get(soundFile);
+                if (cachedSound != null) {
+                    LOG.debug("Playing {} from frame cache", audioFile);
+                    trace.setSource("frames");
+                    trace.mark(PlayTrace.Stage.LOADED);
+                    mng.scheduler.playNow(cachedSound, guild, repeatNumber);
+                    trace.mark(PlayTrace.Stage.SCHEDULED);
+                    mng.sendHandler.onFirstFrame(cachedSound, () -> playTracer.firstFrame(trace));
+                    return;
+                }
+            }
+
+            RepeatableAudioLoadResultHandler handler = new RepeatableAudioLoadResultHandler(repeatNumber, mng, guild, userId, soundFile, trace);
+            AudioTrack cachedTrack = audioTrackCache.get(soundFile);
+            if (cachedTrack != null) {
+                trace.setSource("track");
+                handler.play(cachedTrack);
+            } else {
+                playerManager.loadItemOrdered(mng, audioFile, metrics.timeLoad(handler));
+            }
         }
     }
 
     @Async
-    private void queueFile(String audioFile, Guild guild, String userName) {
+    private void queueFile(String audioFile, Guild guild, String userName, String userId) {
         if (guild == null) {
             LOG.error("Guild is null. Have you added your bot to a guild? https://discordapp.com/developers/docs/topics/oauth2");
         } else {
             LOG.info("Attempting to queue file {} for user {}", audioFile, userName);
             GuildMusicManager mng = getGuildAudioPlayer(guild);
-            playerManager.loadItemOrdered(mng, audioFile, new QueuedAudioLoadResultHandler(mng, guild));
+            playerManager.loadItemOrdered(mng, audioFile, metrics.timeLoad(new QueuedAudioLoadResultHandler(mng, guild, userId)));
         }
     }
 
     /**
-     * This method loads the files. This checks if you are running from a .jar file and loads from the /sounds dir relative
-     * to the jar file. If not it assumes you are running from code and loads relative to your resource dir.
+     * Serves the catalog saved by the last run right away and verifies it against the sounds directory in the
+     * background. Without a saved catalog the sounds directory is scanned before continuing.
      */
-    public void getFileList() {
-        String soundFileDir = appProperties.getSoundsDirectory();
-
-        LOG.info("Loading from " + soundFileDir);
-        Path soundFilePath = Paths.get(soundFileDir);
-
-        if (!soundFilePath.toFile().exists()) {
-            System.out.println("creating directory: " + soundFilePath.toFile().toString());
-            boolean result = false;
-
-            try {
-                result = soundFilePath.toFile().mkdir();
-            } catch (SecurityException se) {
-                LOG.error("Could not create directory: " + soundFilePath.toFile().toString());
-            }
-            if (result) {
-                LOG.info("DIR: " + soundFilePath.toFile().toString() + " created.");
-            }
-        }
-        try {
-            Files.walk(soundFilePath).filter(p -> Files.isReadable(p) && !Files.isDirectory(p) && !Files.isSymbolicLink(p))
-                    .forEach(filePath -> {
-                        String fileName = filePath.getFileName().toString();
-                        try {
-                            fileName = fileName.substring(fileName.indexOf("/") + 1);
-                            fileName = fileName.substring(0, fileName.indexOf("."));
-                            LOG.info(fileName);
-                            File file = filePath.toFile();
-                            String parent = file.getParentFile().getName();
-                            SoundFile soundFile = new SoundFile(fileName, filePath.toString(), parent, new Date(file.lastModified()));
-                            SoundFile existing = soundFileRepository.findOneBySoundFileIdIgnoreCase(fileName);
-                            if (existing != null) {
-                                soundFileRepository.delete(existing);
-                            }
-                            soundFileRepository.save(soundFile);
-                        } catch (Exception e) {
-                            LOG.error(e.toString());
-                            e.printStackTrace();
-                        }
-                    });
-        } catch (IOException e) {
-            LOG.error(e.toString());
-            e.printStackTrace();
+    private void loadSoundCatalog() {
+        long start = System.nanoTime();
+        int loaded = soundCatalogSync.loadSnapshot();
+        if (loaded > 0) {
+            LOG.info("Loaded {} sound files from catalog snapshot, verifying in background.", loaded);
+            startupTimings.record("Catalog load (snapshot)", (System.nanoTime() - start) / 1_000_000);
+            soundCatalogSync.synchronizeAsync();
+        } else {
+            getFileList();
+            startupTimings.record("Catalog load (scan)", (System.nanoTime() - start) / 1_000_000);
         }
     }
 
     /**
-     * Logs the discord bot in and adds the ChatSoundBoardListener if the user configured it to be used
+     * This method loads the files. Files added, changed or removed in the sounds directory since the last scan are
+     * written to the repository.
+     */
+    public void getFileList() {
+        soundCatalogSync.synchronize();
+    }
+
+    /**
+     * Starts the shards of the bot and adds the ChatSoundBoardListener if the user configured it to be used. The shards
+     * log in in the background, each one is served as soon as it is ready.
      */
     private void initializeDiscordBot() {
         try {
-            if (bot != null) {
-                bot.shutdown();
-            }
-
-            String botToken = appProperties.getBotToken();
-            bot = new JDABuilder(AccountType.BOT)
+            Game game = Game.of(Game.GameType.DEFAULT,"Type " + appProperties.getCommandCharacter() + "help for a list of commands.");
+            DefaultShardManagerBuilder builder = new DefaultShardManagerBuilder()
                     .setAudioEnabled(true)
                     .setAutoReconnect(true)
-                    .setToken(botToken)
-                    .build()
-                    .awaitReady();
+                    .setToken(appProperties.getBotToken())
+                    .setGame(game)
+                    .addEventListenerProvider(shardId -> new VoiceStateListener(shards.getShard(shardId).getVoiceStateIndex()));
 
             if (appProperties.isRespondToChatCommands()) {
-                ChatSoundBoardListener chatListener = new ChatSoundBoardListener(this, appProperties, playEventRepository, soundFileRepository, new SoundPlayerRateLimiter(appProperties));
-                this.addBotListener(chatListener);
+                builder.addEventListenerProvider(shardId -> new ChatSoundBoardListener(this, appProperties, playEventRepository, soundCatalog, opusFrameCache, loudnessNormalizer, rateLimiter, commandPipeline, metrics, playTracer));
 
                 if (appProperties.isLeaveWhenLastUserInChannel()) {
-                    DisconnectListener disconnectListener = new DisconnectListener();
-                    this.addBotListener(disconnectListener);
+                    builder.addEventListeners(new DisconnectListener(voiceLingerPolicy));
                 }
             }
 
-            Game game = Game.of(Game.GameType.DEFAULT,"Type " + appProperties.getCommandCharacter() + "help for a list of commands.");
-            bot.getPresence().setGame(game);
-
-            try {
-                File avatarFile = new File(System.getProperty("user.dir") + "/avatar.jpg");
-                Icon icon = Icon.from(avatarFile);
-                bot.getSelfUser().getManager().setAvatar(icon).queue();
-            } catch (IllegalArgumentException e) {
-                LOG.warn("Could not find avatar file " + System.getProperty("user.dir") + "/avatar.jpg");
-            }
+            loginStart = System.nanoTime();
+            shards.start(builder);
+            LOG.info("Starting {} of {} shards", shards.getShardCount(), shards.getShardsTotal());
         } catch (IllegalArgumentException e) {
             LOG.warn("Something was configured incorrectly.", e);
         } catch (LoginException e) {
             LOG.warn("The provided bot token was incorrect. Please provide valid details.", e);
-        } catch (InterruptedException e) {
-            LOG.error("Login Interrupted.", e);
+        }
+    }
+
+    /**
+     * Called when a shard is ready. The avatar is set by the first shard to be ready.
+     *
+     * @param shard - The shard that is ready.
+     */
+    private void onShardReady(ShardContext shard) {
+        boolean first = readyShards.isEmpty();
+        if (readyShards.add(shard.getShardId())) {
+            startupTimings.record("Shard " + shard.getShardId() + " login", (System.nanoTime() - loginStart) / 1_000_000);
+            if (readyShards.size() == shards.getShardCount()) {
+                startupTimings.onShardsReady();
+            }
+        }
+        if (!first) {
+            return;
+        }
+        try {
+            File avatarFile = new File(System.getProperty("user.dir") + "/avatar.jpg");
+            Icon icon = Icon.from(avatarFile);
+            shard.getJda().getSelfUser().getManager().setAvatar(icon).queue();
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Could not find avatar file " + System.getProperty("user.dir") + "/avatar.jpg");
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -564,23 +817,16 @@ public class SoundPlayerImpl {
     @SuppressWarnings("unused")
     public void cleanUp() {
         System.out.println("SoundPlayer is shutting down. Cleaning up.");
+        runtimeStats.shutdown();
+        rateLimiter.shutdown();
+        shards.shutdown();
+        voiceConnections.shutdown();
         playerManager.shutdown();
-        bot.shutdown();
-    }
-
-    /**
-     * Sets listeners
-     *
-     * @param listener - The listener object to set.
-     */
-    private void addBotListener(Object listener) {
-        bot.addEventListener(listener);
     }
 
     public void playTopSoundFile(MessageReceivedEvent event, int number) throws SoundPlaybackException {
         try {
-            List<SoundFilePlayEventCount> soundFilePlayEventCounts = soundFileRepository.getSoundFilePlayEventCountDesc();
-            playRandom(event, number, soundFilePlayEventCounts);
+            playRandom(event, soundFileSampler.randomTop(number));
         } catch (Exception e) {
             LOG.error("Problem playing top file.", e);
             throw new SoundPlaybackException("Problem playing top file.");
@@ -589,27 +835,16 @@ public class SoundPlayerImpl {
 
     public void playBottomSoundFile(MessageReceivedEvent event, int number) throws SoundPlaybackException {
         try {
-            List<SoundFilePlayEventCount> soundFilePlayEventCounts = soundFileRepository.getSoundFilePlayEventCountAsc();
-            playRandom(event, number, soundFilePlayEventCounts);
+            playRandom(event, soundFileSampler.randomBottom(number));
         } catch (Exception e) {
             LOG.error("Problem playing top file.", e);
             throw new SoundPlaybackException("Problem playing top file.");
         }
     }
 
-    private void playRandom(MessageReceivedEvent event, int number, List<SoundFilePlayEventCount> soundFilePlayEventCounts) {
-        SoundFilePlayEventCount randomValue;
-        Random random = new SecureRandom();
-        if (soundFilePlayEventCounts.size() == 0) {
+    private void playRandom(MessageReceivedEvent event, SoundFile randomValue) {
+        if (randomValue == null) {
             return;
-        } else if (soundFilePlayEventCounts.size() == 1) {
-            randomValue = soundFilePlayEventCounts.get(0);
-        } else if (soundFilePlayEventCounts.size() < number) {
-            int rand = random.nextInt(soundFilePlayEventCounts.size());
-            randomValue = soundFilePlayEventCounts.get(rand);
-        } else {
-            int rand = random.nextInt(number);
-            randomValue = soundFilePlayEventCounts.get(rand);
         }
 
         try {
@@ -623,15 +858,28 @@ public class SoundPlayerImpl {
 
         private final GuildMusicManager manager;
         private final Guild guild;
+        private final String requester;
 
-        private QueuedAudioLoadResultHandler(GuildMusicManager mng, Guild guild) {
+        private QueuedAudioLoadResultHandler(GuildMusicManager mng, Guild guild, String requester) {
             this.manager = mng;
             this.guild = guild;
+            this.requester = requester;
         }
 
         @Override
         public void trackLoaded(AudioTrack track) {
-            manager.scheduler.queue(track, guild);
+            queue(track);
+        }
+
+        /**
+         * Queues the track for the requester. The capacity was checked before loading, so a rejection here only
+         * happens if the queue filled up meanwhile.
+         */
+        void queue(AudioTrack track) {
+            TrackScheduler.QueueResult result = manager.scheduler.queue(track, guild, requester);
+            if (result.isRejected()) {
+                LOG.info("Dropped track {} of user {}: {}", track.getIdentifier(), requester, result);
+            }
         }
 
         @Override
@@ -642,7 +890,7 @@ public class SoundPlayerImpl {
                 return;
             }
 
-            getManager().scheduler.queue(firstTrack,  getGuild());
+            queue(firstTrack);
         }
         @Override
         public void noMatches() {
@@ -663,30 +911,73 @@ public class SoundPlayerImpl {
         public Guild getGuild() {
             return guild;
         }
+
+        public String getRequester() {
+            return requester;
+        }
     }
 
     private class RepeatableAudioLoadResultHandler extends QueuedAudioLoadResultHandler {
         private final int repeatNumber;
+        private final SoundFile soundFile;
+        private final PlayTrace trace;
 
-        public RepeatableAudioLoadResultHandler(int repeatNumber, GuildMusicManager mng, Guild guild) {
-            super(mng, guild);
+        public RepeatableAudioLoadResultHandler(int repeatNumber, GuildMusicManager mng, Guild guild, String requester, SoundFile soundFile, PlayTrace trace) {
+            super(mng, guild, requester);
             this.repeatNumber = repeatNumber;
+            this.soundFile = soundFile;
+            this.trace = trace;
         }
 
         @Override
         public void trackLoaded(AudioTrack track) {
+            trace.setSource("load");
+            audioTrackCache.put(soundFile, track);
+            play(track);
+        }
+
+        /**
+         * @param track - The track to play, loaded or cloned from the track cache.
+         */
+        private void play(AudioTrack track) {
+            trace.mark(PlayTrace.Stage.LOADED);
             if (repeatNumber <= 1) {
-                getManager().scheduler.playNow(track, getGuild());
+                getManager().scheduler.playNow(track, getGuild(), getRequester());
+            } else if (track.getDuration() <= TimeUnit.SECONDS.toMillis(appProperties.getFrameCacheMaxTrackSeconds())) {
+                getManager().scheduler.playNow(track, getGuild(), getRequester(), repeatNumber);
             } else {
-                for (int i = 0; i <= repeatNumber - 1; i++) {
-                    if (i == 0) {
-                        getManager().scheduler.playNow(track,  getGuild());
-                    } else {
-                        LOG.info("Queuing additional play of track.");
-                        getManager().scheduler.queue(track.makeClone(),  getGuild());
+                // Too long to keep its frames in memory, queue the repeats as separate tracks.
+                getManager().scheduler.playNow(track, getGuild(), getRequester());
+                for (int i = 1; i < repeatNumber; i++) {
+                    LOG.info("Queuing additional play of track.");
+                    TrackScheduler.QueueResult result = getManager().scheduler.queue(track.makeClone(), getGuild(), getRequester());
+                    if (result.isRejected()) {
+                        repeatsDropped(repeatNumber - i, result);
+                        break;
                     }
                 }
             }
+            trace.mark(PlayTrace.Stage.SCHEDULED);
+            // Set after scheduling, which drops the listeners of the audio being replaced.
+            getManager().sendHandler.onFirstFrame(track, () -> playTracer.firstFrame(trace));
+        }
+
+        /**
+         * Tells the requester that the queue had no room for the rest of the repeats of a long track.
+         *
+         * @param dropped - The number of plays that were not queued.
+         * @param result  - The queue limit that was reached.
+         */
+        private void repeatsDropped(int dropped, TrackScheduler.QueueResult result) {
+            LOG.info("Dropped {} repeats of {} for user {}: {}", dropped, soundFile.getSoundFileId(), getRequester(), result);
+            Member member = getGuild().getMemberById(getRequester());
+            if (member != null) {
+                String limit = result == TrackScheduler.QueueResult.GUILD_QUEUE_FULL ?
+                        "the queue of this server is full (" + appProperties.getMaxQueuedPerGuild() + " tracks)" :
+                        "you already have " + appProperties.getMaxQueuedPerUser() + " tracks queued";
+                privateMessages.send(member.getUser(), soundFile.getSoundFileId() + " is too long to repeat from memory and " +
+                        limit + ", so it plays " + (repeatNumber - dropped) + " instead of " + repeatNumber + " times.");
+            }
         }
     }
 }
@@ -1,43 +1,146 @@
 package net.dirtydeeds.discordsoundboard.service;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Instant;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+/**
+ * Limits how often users play sounds through the chat, with a token bucket per user and guild. Buckets refill at the
+ * configured rate and hold up to the burst size, a request takes as many tokens as it costs, e.g. one per repeat.
+ * <p>
+ * Each bucket is a single {@link AtomicLong} holding the time it will be full again (the generic cell rate algorithm),
+ * so a check is one compare-and-set without locks or allocation. Full buckets are swept in the background.
+ */
 public class SoundPlayerRateLimiter {
 
     private static final Logger LOG = LoggerFactory.getLogger(SoundPlayerRateLimiter.class);
-    private final int kSecondsToRestrict;
-    private final Set<String> kUnlimitedUsers;
-    private final Cache<String, Instant> userAccessTimeCache;
+    private static final String NO_GUILD = "";
+
+    private final Set<String> unlimitedUserIds;
+    /** Nanoseconds it takes to earn one token, 0 if requests are not limited. */
+    private final long nanosPerToken;
+    private final int burst;
+    private final long burstNanos;
+    /** Buckets by user id and guild id. */
+    private final Map<String, Map<String, AtomicLong>> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong limited = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+    private final LongSupplier nanoTime;
 
     public SoundPlayerRateLimiter(DiscordSoundboardProperties properties) {
-        kSecondsToRestrict = properties.getRateLimitRestrictDuration();
-        kUnlimitedUsers = properties.getUnlimitedUserIds();
-        userAccessTimeCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(kSecondsToRestrict, TimeUnit.SECONDS)
-                .removalListener(notification -> LOG.info("Removed from rate-limit list {}", notification.getKey()))
-                .build();
+        this(properties, System::nanoTime);
+    }
+
+    /**
+     * @param nanoTime - The clock buckets refill by, {@link System#nanoTime()} outside of tests.
+     */
+    SoundPlayerRateLimiter(DiscordSoundboardProperties properties, LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.unlimitedUserIds = properties.getUnlimitedUserIds();
+        double tokensPerMinute = properties.getRateLimitTokensPerMinute();
+        int burst = properties.getRateLimitBurst();
+        if (tokensPerMinute <= 0 && properties.getRateLimitRestrictDuration() > 0) {
+            // Only the old setting is configured: one request per restrict duration.
+            tokensPerMinute = 60.0 / properties.getRateLimitRestrictDuration();
+            burst = 1;
+        }
+        this.nanosPerToken = tokensPerMinute <= 0 ? 0 : (long) (TimeUnit.MINUTES.toNanos(1) / tokensPerMinute);
+        this.burst = Math.max(1, burst);
+        this.burstNanos = nanosPerToken * this.burst;
+        if (nanosPerToken > 0) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "rate-limit-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = Math.max(TimeUnit.MINUTES.toNanos(1), burstNanos);
+            this.sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.NANOSECONDS);
+        } else {
+            this.sweeper = null;
+        }
     }
 
-    public boolean userIsRateLimited(String user) {
-        final Instant instant = userAccessTimeCache.getIfPresent(user);
-        if (instant == null) {
-            if (kUnlimitedUsers.contains(user)) {
+    /**
+     * Takes the cost of a request from the user's bucket in the guild, unless the bucket holds too few tokens.
+     *
+     * @param userId  - The id of the requesting user.
+     * @param guildId - The id of the guild the request plays in, null if there is none.
+     * @param cost    - The number of tokens the request costs. A request costing more than the burst takes a full bucket.
+     * @return true if the request has to be refused.
+     */
+    public boolean userIsRateLimited(String userId, String guildId, int cost) {
+        if (nanosPerToken == 0 || unlimitedUserIds.contains(userId)) {
+            return false;
+        }
+        AtomicLong bucket = bucket(userId, guildId == null ? NO_GUILD : guildId);
+        long costNanos = nanosPerToken * Math.max(1, Math.min(cost, burst));
+        while (true) {
+            long fullAt = bucket.get();
+            // Read the clock after the bucket: a time taken before could predate the last update of the bucket, if
+            // the thread was descheduled in between, and make the bucket look emptier than it is.
+            long now = nanoTime.getAsLong();
+            long newFullAt = Math.max(fullAt, now) + costNanos;
+            if (newFullAt - now > burstNanos) {
+                limited.incrementAndGet();
+                // Refusals come in bursts while a user spams, they are counted and only logged when debugging.
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("User {} is rate-limited for another {} ms", userId,
+                            TimeUnit.NANOSECONDS.toMillis(newFullAt - now - burstNanos));
+                }
+                return true;
+            }
+            if (bucket.compareAndSet(fullAt, newFullAt)) {
                 return false;
             }
-            userAccessTimeCache.put(user, Instant.now());
-            return false;
-        } else {
-            LOG.info("User {} is rate-limited until {}", user, instant.plusSeconds(kSecondsToRestrict));
-            return true;
         }
     }
 
+    private AtomicLong bucket(String userId, String guildId) {
+        Map<String, AtomicLong> userBuckets = buckets.get(userId);
+        if (userBuckets == null) {
+            userBuckets = buckets.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+        }
+        AtomicLong bucket = userBuckets.get(guildId);
+        if (bucket == null) {
+            // A new bucket is full: it was full at any time before now.
+            bucket = userBuckets.computeIfAbsent(guildId, id -> new AtomicLong(nanoTime.getAsLong()));
+        }
+        return bucket;
+    }
+
+    /**
+     * Drops the buckets that are full again, they are no different from new ones. A request racing the sweep may get a
+     * new bucket, which forgives at most that request.
+     */
+    void sweep() {
+        long now = nanoTime.getAsLong();
+        buckets.forEach((userId, userBuckets) -> {
+            userBuckets.entrySet().removeIf(entry -> entry.getValue().get() - now <= 0);
+            if (userBuckets.isEmpty()) {
+                buckets.remove(userId, userBuckets);
+            }
+        });
+    }
+
+    /**
+     * @return The number of requests that were refused.
+     */
+    public long getLimitedCount() {
+        return limited.get();
+    }
+
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
 }
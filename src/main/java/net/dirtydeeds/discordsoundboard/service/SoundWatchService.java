@@ -10,11 +10,14 @@ import java.util.Observer;
 @Service
 public class SoundWatchService implements Observer {
 
-    private SoundPlayerImpl soundPlayer;
+    private SoundFileChangeCoalescer changeCoalescer;
 
+    /**
+     * Depends on the SoundPlayerImpl so watching only starts after the sound catalog has been loaded.
+     */
     @Autowired
-    public SoundWatchService(DiscordSoundboardProperties appProperties, SoundFolderWatch soundFolderWatch, SoundPlayerImpl soundPlayer) {
-        this.soundPlayer = soundPlayer;
+    public SoundWatchService(DiscordSoundboardProperties appProperties, SoundFolderWatch soundFolderWatch, SoundFileChangeCoalescer changeCoalescer, SoundPlayerImpl soundPlayer) {
+        this.changeCoalescer = changeCoalescer;
 
         soundFolderWatch.addObserver(this);
         soundFolderWatch.watchDirectoryPath(appProperties.getSoundsDirectory());
@@ -22,6 +25,8 @@ public class SoundWatchService implements Observer {
 
     @Override
     public void update(Observable o, Object arg) {
-        soundPlayer.getFileList();
+        if (arg instanceof SoundFileChange) {
+            changeCoalescer.submit((SoundFileChange) arg);
+        }
     }
 }
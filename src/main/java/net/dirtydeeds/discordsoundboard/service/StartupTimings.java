@@ -0,0 +1,75 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects how long the phases of startup took. They are logged once the application is ready, and again once the last
+ * shard has logged in, as shards log in in the background after the application is ready.
+ *
+ * @author dfurrer.
+ */
+@Service
+public class StartupTimings {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StartupTimings.class);
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private volatile long readyAfterMs = -1;
+    private volatile long shardsReadyAfterMs = -1;
+
+    public synchronized void record(String phase, long durationMs) {
+        phases.put(phase, durationMs);
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    /**
+     * @return Milliseconds from JVM start until the Spring context was ready, or -1 if it is not ready yet.
+     */
+    public long getReadyAfterMs() {
+        return readyAfterMs;
+    }
+
+    /**
+     * @return Milliseconds from JVM start until all shards of this instance were ready, or -1 if some are not yet.
+     */
+    public long getShardsReadyAfterMs() {
+        return shardsReadyAfterMs;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        readyAfterMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        LOG.info("Startup timings: {}", describe());
+    }
+
+    /**
+     * Called once the last shard of this instance is ready for the first time.
+     */
+    public void onShardsReady() {
+        shardsReadyAfterMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        LOG.info("Startup timings: {}", describe());
+    }
+
+    /**
+     * @return The phases and how long after JVM start the context and the shards were ready, e.g.
+     * "Catalog load (snapshot): 40 ms, Shard 0 login: 2100 ms, context ready after 3500 ms, shards ready after 5600 ms".
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        getPhases().forEach((phase, duration) -> sb.append(phase).append(": ").append(duration).append(" ms, "));
+        sb.append("context ready after ").append(readyAfterMs < 0 ? "-" : readyAfterMs + " ms");
+        sb.append(", shards ready after ").append(shardsReadyAfterMs < 0 ? "-" : shardsReadyAfterMs + " ms");
+        return sb.toString();
+    }
+}
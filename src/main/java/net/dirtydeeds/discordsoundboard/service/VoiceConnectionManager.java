@@ -0,0 +1,274 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.SoundPlaybackException;
+import net.dirtydeeds.discordsoundboard.util.LatencyHistogram;
+import net.dv8tion.jda.core.Permission;
+import net.dv8tion.jda.core.audio.AudioSendHandler;
+import net.dv8tion.jda.core.audio.hooks.ConnectionListener;
+import net.dv8tion.jda.core.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.dv8tion.jda.core.exceptions.PermissionException;
+import net.dv8tion.jda.core.managers.AudioManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects the bot to voice channels without blocking the caller. Each guild has a small state machine that follows
+ * the connection status JDA reports, and a connect returns a future that completes once the connection is
+ * {@link ConnectionStatus#CONNECTED}. Requests for a guild that is already connecting share the connect in flight.
+ */
+public class VoiceConnectionManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VoiceConnectionManager.class);
+
+    public enum State {
+        DISCONNECTED,
+        CONNECTING,
+        CONNECTED
+    }
+
+    private final Map<String, GuildConnection> connections = new ConcurrentHashMap<>();
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final AtomicLong warmHits = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final ScheduledExecutorService executor;
+    private final long connectTimeoutMs;
+    private final PlaybackMetrics metrics;
+
+    /**
+     * @param connectTimeoutMs - How long to wait for a connection before failing the requests waiting for it.
+     * @param metrics          - Where to record how long connects took.
+     */
+    public VoiceConnectionManager(long connectTimeoutMs, PlaybackMetrics metrics) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.metrics = metrics;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "voice-connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Connects to the channel, or moves there if the bot is connected to another channel of the guild.
+     *
+     * @param channel     - The channel to connect to.
+     * @param sendHandler - The handler that provides the guild's audio.
+     * @return A future that completes when audio can be sent to the channel, or fails with a
+     * {@link SoundPlaybackException} explaining why it could not connect.
+     */
+    public CompletableFuture<Void> connect(VoiceChannel channel, AudioSendHandler sendHandler) {
+        String guildId = channel.getGuild().getId();
+        return connections.computeIfAbsent(guildId, id -> new GuildConnection()).connect(channel, sendHandler);
+    }
+
+    /**
+     * @param guildId - The id of the guild.
+     * @return The connection state of the guild as last reported by JDA.
+     */
+    public State getState(String guildId) {
+        GuildConnection connection = connections.get(guildId);
+        return connection == null ? State.DISCONNECTED : connection.getState();
+    }
+
+    /**
+     * Drops the state of a guild whose connection was closed.
+     *
+     * @param guildId - The id of the guild.
+     */
+    public void forget(String guildId) {
+        GuildConnection connection = connections.remove(guildId);
+        if (connection != null) {
+            connection.fail("The voice connection was closed.");
+        }
+    }
+
+    public LatencyHistogram getConnectLatency() {
+        return connectLatency;
+    }
+
+    /**
+     * @return How many connects found the bot already connected to the guild and could play right away.
+     */
+    public long getWarmHitCount() {
+        return warmHits.get();
+    }
+
+    /**
+     * @return How many connects had to wait for a new voice connection.
+     */
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class GuildConnection implements ConnectionListener {
+        private State state = State.DISCONNECTED;
+        private CompletableFuture<Void> pending;
+        private VoiceChannel target;
+        private long connectStart;
+
+        synchronized State getState() {
+            return state;
+        }
+
+        CompletableFuture<Void> connect(VoiceChannel channel, AudioSendHandler sendHandler) {
+            AudioManager audioManager = channel.getGuild().getAudioManager();
+            audioManager.setSendingHandler(sendHandler);
+            if (audioManager.getConnectionListener() != this) {
+                audioManager.setConnectionListener(this);
+            }
+
+            CompletableFuture<Void> future;
+            boolean started = false;
+            VoiceChannel previousTarget;
+            synchronized (this) {
+                if (audioManager.isConnected()) {
+                    warmHits.incrementAndGet();
+                    state = State.CONNECTED;
+                    if (channel.equals(audioManager.getConnectedChannel())) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    // Moving keeps the connection, audio continues in the new channel.
+                    future = CompletableFuture.completedFuture(null);
+                } else if (pending != null) {
+                    reconnects.incrementAndGet();
+                    if (channel.equals(target)) {
+                        return pending;
+                    }
+                    future = pending;
+                } else {
+                    reconnects.incrementAndGet();
+                    future = new CompletableFuture<>();
+                    pending = future;
+                    started = true;
+                    state = State.CONNECTING;
+                    connectStart = System.nanoTime();
+                    LOG.info("Connecting to voice channel {} in guild {}", channel.getName(), channel.getGuild().getName());
+                    executor.schedule(() -> timeout(future), connectTimeoutMs, TimeUnit.MILLISECONDS);
+                }
+                previousTarget = target;
+                target = channel;
+            }
+
+            try {
+                audioManager.openAudioConnection(channel);
+            } catch (PermissionException e) {
+                String message = e.getPermission() == Permission.VOICE_CONNECT
+                        ? "The bot does not have permission to speak in the requested channel: " + channel.getName() + "."
+                        : "The bot can not join the requested channel: " + channel.getName() + ".";
+                if (started) {
+                    fail(message);
+                    return future;
+                }
+                // A move: the connection, or the connect in flight, to the previous channel carries on.
+                synchronized (this) {
+                    if (channel.equals(target)) {
+                        target = previousTarget;
+                    }
+                }
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new SoundPlaybackException(message));
+                return failed;
+            }
+            return future;
+        }
+
+        private void timeout(CompletableFuture<Void> future) {
+            VoiceChannel channel;
+            synchronized (this) {
+                if (pending != future) {
+                    return;
+                }
+                channel = target;
+            }
+            LOG.warn("Connecting to voice channel {} timed out after {} ms", channel.getName(), connectTimeoutMs);
+            fail("Could not connect to the voice channel " + channel.getName() + " in time.");
+        }
+
+        /**
+         * Ends the connect in flight, if any, with the given message for the users waiting for it.
+         */
+        void fail(String message) {
+            CompletableFuture<Void> future;
+            long latencyMs;
+            synchronized (this) {
+                state = State.DISCONNECTED;
+                future = pending;
+                pending = null;
+                latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+            }
+            if (future != null) {
+                metrics.recordVoiceConnect(latencyMs, false);
+                executor.execute(() -> future.completeExceptionally(new SoundPlaybackException(message)));
+            }
+        }
+
+        @Override
+        public void onStatusChange(ConnectionStatus status) {
+            switch (status) {
+                case CONNECTED:
+                    CompletableFuture<Void> future;
+                    long latencyMs;
+                    synchronized (this) {
+                        state = State.CONNECTED;
+                        future = pending;
+                        pending = null;
+                        latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+                    }
+                    if (future != null) {
+                        connectLatency.record(latencyMs);
+                        metrics.recordVoiceConnect(latencyMs, true);
+                        LOG.info("Connected to voice channel in {} ms", latencyMs);
+                        // Completed on our own thread, so playback is not scheduled from JDA's audio threads.
+                        executor.execute(() -> future.complete(null));
+                    }
+                    break;
+                case CONNECTING_AWAITING_ENDPOINT:
+                case CONNECTING_AWAITING_WEBSOCKET_CONNECT:
+                case CONNECTING_AWAITING_AUTHENTICATION:
+                case CONNECTING_ATTEMPTING_UDP_DISCOVERY:
+                case CONNECTING_AWAITING_READY:
+                case AUDIO_REGION_CHANGE:
+                    synchronized (this) {
+                        state = State.CONNECTING;
+                    }
+                    break;
+                case NOT_CONNECTED:
+                case SHUTTING_DOWN:
+                    fail("The voice connection was closed.");
+                    break;
+                default:
+                    // Disconnects JDA retries on its own keep waiting for the connection, the others end it.
+                    if (status.shouldReconnect()) {
+                        synchronized (this) {
+                            state = State.CONNECTING;
+                        }
+                    } else {
+                        LOG.warn("Voice connection failed: {}", status);
+                        fail("Could not connect to the voice channel (" + status + ").");
+                    }
+            }
+        }
+
+        @Override
+        public void onPing(long ping) {
+        }
+
+        @Override
+        public void onUserSpeaking(User user, boolean speaking) {
+        }
+    }
+}
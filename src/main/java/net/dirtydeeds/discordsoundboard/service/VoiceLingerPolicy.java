@@ -0,0 +1,268 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dirtydeeds.discordsoundboard.repository.PlayEventRepository;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.dv8tion.jda.core.managers.AudioManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides how long the bot stays in a voice channel after the last user left it, so a sound played shortly after
+ * does not have to wait for a new voice handshake.
+ * <p>
+ * The period is learned per guild from the gaps between its recent plays: it covers most of the pauses after which
+ * someone played again, capped at the configured maximum. Guilds without enough history use the configured period.
+ * At most the configured number of connections are kept warm at once; when another one would exceed it, the one that
+ * would be closed soonest is closed right away.
+ */
+@Service
+public class VoiceLingerPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VoiceLingerPolicy.class);
+    private static final long HISTORY_MS = TimeUnit.DAYS.toMillis(14);
+    private static final int MIN_GAPS = 20;
+    private static final double COVERED_GAPS = 0.9;
+
+    private final PlayEventRepository playEventRepository;
+    private final boolean learned;
+    private final long configuredMs;
+    private final long maxMs;
+    private final int maxWarmConnections;
+    private final Cache<String, Long> learnedPeriods = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .maximumSize(10000)
+            .build();
+    private final Map<String, Linger> lingering = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong lingerCount = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong capClosedCount = new AtomicLong();
+
+    @Autowired
+    public VoiceLingerPolicy(DiscordSoundboardProperties appProperties, PlayEventRepository playEventRepository) {
+        this.playEventRepository = playEventRepository;
+        this.learned = appProperties.isVoiceLingerLearned();
+        this.configuredMs = TimeUnit.SECONDS.toMillis(appProperties.getVoiceLingerSeconds());
+        this.maxMs = Math.max(configuredMs, TimeUnit.SECONDS.toMillis(appProperties.getVoiceLingerMaxSeconds()));
+        this.maxWarmConnections = appProperties.getMaxWarmConnections();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "voice-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Called when the bot was left alone in a voice channel. The connection is closed after the guild's linger period
+     * unless someone comes back or plays a sound first. The period is looked up off the calling thread.
+     *
+     * @param guild - The guild the bot was left alone in.
+     */
+    public void onLeftAlone(Guild guild) {
+        scheduler.execute(() -> linger(guild));
+    }
+
+    /**
+     * Called when the guild is active again, keeps its connection open.
+     *
+     * @param guildId - The id of the guild.
+     */
+    public void resume(String guildId) {
+        Linger linger = lingering.remove(guildId);
+        if (linger != null) {
+            linger.close.cancel(false);
+            resumedCount.incrementAndGet();
+            LOG.debug("Kept warm connection of guild {}", guildId);
+        }
+    }
+
+    /**
+     * Forgets the guild without counting it as resumed, e.g. because its connection was closed for another reason.
+     *
+     * @param guildId - The id of the guild.
+     */
+    public void forget(String guildId) {
+        Linger linger = lingering.remove(guildId);
+        if (linger != null) {
+            linger.close.cancel(false);
+        }
+    }
+
+    /**
+     * @param guildId - The id of the guild.
+     * @return How long the bot stays in the guild's voice channel after the last user left it.
+     */
+    public long getLingerMs(String guildId) {
+        if (!learned) {
+            return configuredMs;
+        }
+        try {
+            return learnedPeriods.get(guildId, () -> learn(guildId));
+        } catch (ExecutionException e) {
+            LOG.warn("Could not learn linger period of guild {}", guildId, e.getCause());
+            return configuredMs;
+        }
+    }
+
+    private long learn(String guildId) {
+        List<Date> plays = playEventRepository.getGuildPlayTimestamps(guildId, new Date(System.currentTimeMillis() - HISTORY_MS));
+        List<Long> gaps = new ArrayList<>();
+        for (int i = 1; i < plays.size(); i++) {
+            long gap = plays.get(i).getTime() - plays.get(i - 1).getTime();
+            // Longer pauses end a session, staying connected through them is not worth it.
+            if (gap > 0 && gap <= maxMs) {
+                gaps.add(gap);
+            }
+        }
+        if (gaps.size() < MIN_GAPS) {
+            return configuredMs;
+        }
+        Collections.sort(gaps);
+        long period = gaps.get((int) Math.ceil(gaps.size() * COVERED_GAPS) - 1);
+        LOG.debug("Learned linger period of {} ms for guild {} from {} gaps", period, guildId, gaps.size());
+        return period;
+    }
+
+    private void linger(Guild guild) {
+        String guildId = guild.getId();
+        long periodMs = getLingerMs(guildId);
+        if (periodMs <= 0 || maxWarmConnections == 0) {
+            closeIfAlone(guild);
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + periodMs;
+        if (!lingering.containsKey(guildId) && lingering.size() >= maxWarmConnections) {
+            Map.Entry<String, Linger> soonest = null;
+            for (Map.Entry<String, Linger> entry : lingering.entrySet()) {
+                if (soonest == null || entry.getValue().deadline < soonest.getValue().deadline) {
+                    soonest = entry;
+                }
+            }
+            if (soonest == null || soonest.getValue().deadline > deadline) {
+                capClosedCount.incrementAndGet();
+                closeIfAlone(guild);
+                return;
+            }
+            if (lingering.remove(soonest.getKey(), soonest.getValue())) {
+                soonest.getValue().close.cancel(false);
+                capClosedCount.incrementAndGet();
+                closeIfAlone(soonest.getValue().guild);
+            }
+        }
+
+        ScheduledFuture<?> close = scheduler.schedule(() -> expire(guildId), periodMs, TimeUnit.MILLISECONDS);
+        Linger previous = lingering.put(guildId, new Linger(guild, deadline, close));
+        if (previous != null) {
+            previous.close.cancel(false);
+        } else {
+            lingerCount.incrementAndGet();
+        }
+        LOG.info("Keeping voice connection in guild {} warm for {} s", guild.getName(), TimeUnit.MILLISECONDS.toSeconds(periodMs));
+    }
+
+    private void expire(String guildId) {
+        Linger linger = lingering.remove(guildId);
+        if (linger != null) {
+            expiredCount.incrementAndGet();
+            closeIfAlone(linger.guild);
+        }
+    }
+
+    /**
+     * Closes the connection of the guild if nobody but the bot is in its channel.
+     */
+    private void closeIfAlone(Guild guild) {
+        AudioManager audioManager = guild.getAudioManager();
+        VoiceChannel channel = audioManager.getConnectedChannel();
+        if (channel == null) {
+            return;
+        }
+        for (Member member : channel.getMembers()) {
+            if (!member.equals(guild.getSelfMember())) {
+                return;
+            }
+        }
+        LOG.info("Leaving voice channel {} in guild {}", channel.getName(), guild.getName());
+        audioManager.closeAudioConnection();
+    }
+
+    /**
+     * @return The number of connections currently kept warm.
+     */
+    public int getWarmCount() {
+        return lingering.size();
+    }
+
+    public int getMaxWarmConnections() {
+        return maxWarmConnections;
+    }
+
+    /**
+     * @return How often the bot stayed in a channel after being left alone.
+     */
+    public long getLingerCount() {
+        return lingerCount.get();
+    }
+
+    /**
+     * @return How often a warm connection was used again before it was closed.
+     */
+    public long getResumedCount() {
+        return resumedCount.get();
+    }
+
+    /**
+     * @return How often a warm connection was closed because its period ran out.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return How often a connection was closed early to stay within the maximum of warm connections.
+     */
+    public long getCapClosedCount() {
+        return capClosedCount.get();
+    }
+
+    @PreDestroy
+    @SuppressWarnings("unused")
+    public void cleanUp() {
+        scheduler.shutdownNow();
+    }
+
+    private static class Linger {
+        private final Guild guild;
+        private final long deadline;
+        private final ScheduledFuture<?> close;
+
+        private Linger(Guild guild, long deadline, ScheduledFuture<?> close) {
+            this.guild = guild;
+            this.deadline = deadline;
+            this.close = close;
+        }
+    }
+}
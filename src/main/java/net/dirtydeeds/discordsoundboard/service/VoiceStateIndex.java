@@ -0,0 +1,130 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Knows which voice channel every user is in, by user id. It is kept up to date from the voice join, move and leave
+ * events and rebuilt from the guilds after a reconnect, so looking up a user does not scan every guild and channel.
+ * <p>
+ * A user is only expected to be in one voice channel at a time. If they show up in another guild, the last join wins,
+ * and leaving a guild only forgets them if that is where they were.
+ */
+public class VoiceStateIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VoiceStateIndex.class);
+
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+    private final Function<String, Guild> guildLookup;
+
+    /**
+     * @param guildLookup - Finds a guild of the bot by its id, returns null if the bot is not in it.
+     */
+    public VoiceStateIndex(Function<String, Guild> guildLookup) {
+        this.guildLookup = guildLookup;
+    }
+
+    /**
+     * @param userId - The id of the user.
+     * @return The voice channel the user is in, or null if they are not in one the bot can see.
+     */
+    public VoiceChannel getChannel(String userId) {
+        Location location = locations.get(userId);
+        if (location == null) {
+            return null;
+        }
+        Guild guild = guildLookup.apply(location.guildId);
+        return guild == null ? null : guild.getVoiceChannelById(location.channelId);
+    }
+
+    /**
+     * @param guild  - The guild to look in.
+     * @param userId - The id of the user.
+     * @return The voice channel the user is in within the guild, or null if they are not in one there.
+     */
+    public VoiceChannel getChannel(Guild guild, String userId) {
+        Location location = locations.get(userId);
+        if (location == null || !location.guildId.equals(guild.getId())) {
+            return null;
+        }
+        return guild.getVoiceChannelById(location.channelId);
+    }
+
+    /**
+     * @param userId - The id of the user.
+     * @return The guild the user is in a voice channel of, or null if they are not in one the bot can see.
+     */
+    public Guild getGuild(String userId) {
+        Location location = locations.get(userId);
+        return location == null ? null : guildLookup.apply(location.guildId);
+    }
+
+    /**
+     * Records that a member joined or moved to a voice channel.
+     */
+    public void joined(Member member, VoiceChannel channel) {
+        locations.put(member.getUser().getId(), new Location(channel.getGuild().getId(), channel.getId()));
+    }
+
+    /**
+     * Records that a member left the voice channels of their guild.
+     */
+    public void left(Member member) {
+        String guildId = member.getGuild().getId();
+        locations.computeIfPresent(member.getUser().getId(), (id, location) -> location.guildId.equals(guildId) ? null : location);
+    }
+
+    /**
+     * Forgets everyone in the voice channels of a guild the bot is no longer in.
+     *
+     * @param guildId - The id of the guild.
+     */
+    public void removeGuild(String guildId) {
+        locations.values().removeIf(location -> location.guildId.equals(guildId));
+    }
+
+    /**
+     * Reads the voice channels of all guilds of the connection again, e.g. because events were missed while it was
+     * disconnected.
+     *
+     * @param jda - The connection whose guilds to read.
+     */
+    public void rebuild(JDA jda) {
+        int count = 0;
+        for (Guild guild : jda.getGuilds()) {
+            removeGuild(guild.getId());
+            for (VoiceChannel channel : guild.getVoiceChannels()) {
+                for (Member member : channel.getMembers()) {
+                    joined(member, channel);
+                    count++;
+                }
+            }
+        }
+        LOG.info("Indexed {} users in voice channels of {} guilds", count, jda.getGuilds().size());
+    }
+
+    /**
+     * @return The number of users in a voice channel the bot can see.
+     */
+    public int size() {
+        return locations.size();
+    }
+
+    private static class Location {
+        private final String guildId;
+        private final String channelId;
+
+        private Location(String guildId, String channelId) {
+            this.guildId = guildId;
+            this.channelId = channelId;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.dirtydeeds.discordsoundboard.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed millisecond buckets. Recording is lock free, percentiles are reported as the upper bound of
+ * the bucket they fall into.
+ */
+public class LatencyHistogram {
+
+    private static final long[] BUCKET_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long durationMs) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && durationMs > BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMs.addAndGet(durationMs);
+        maxMs.accumulateAndGet(durationMs, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getAverageMs() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) totalMs.get() / n;
+    }
+
+    public long getMaxMs() {
+        return maxMs.get();
+    }
+
+    /**
+     * @param percentile - Between 0 and 100.
+     * @return The upper bound of the bucket the percentile falls into, the maximum for the last bucket, 0 if empty.
+     */
+    public long getPercentileMs(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_MS[i];
+            }
+        }
+        return maxMs.get();
+    }
+
+    /**
+     * @return The bucket upper bounds in milliseconds, the last bucket has no bound.
+     */
+    public static long[] getBucketBoundsMs() {
+        return BUCKET_BOUNDS_MS.clone();
+    }
+
+    /**
+     * @return The number of durations per bucket, one more than there are bounds.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " avg=" + Math.round(getAverageMs()) + "ms p50<=" + getPercentileMs(50) +
+                "ms p95<=" + getPercentileMs(95) + "ms max=" + getMaxMs() + "ms";
+    }
+}
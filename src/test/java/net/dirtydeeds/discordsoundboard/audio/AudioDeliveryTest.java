@@ -0,0 +1,189 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Drives a send handler the way JDA does, asking for a frame every 20 ms on an audio thread of its own. The audio
+ * player is a stub that follows a script of one step per ask, so the counts do not depend on how late the asks are.
+ * The jitter of the asks on a loaded host is measured by AudioDeliveryBenchmark.
+ */
+public class AudioDeliveryTest {
+
+    private enum Step {
+        /** The player has a frame. */
+        FRAME,
+        /** The track plays but the decoder has no frame ready. */
+        STARVED,
+        /** The track ended, nothing plays anymore. */
+        ENDED
+    }
+
+    private final Deque<Step> script = new ArrayDeque<>();
+    private volatile AudioTrack playing;
+    private AudioTrack track;
+    private AudioDeliveryMonitor monitor;
+    private GuildAudioDelivery delivery;
+    private AudioPlayerSendHandler sendHandler;
+
+    @Before
+    public void setUp() {
+        track = mock(AudioTrack.class);
+        when(track.getIdentifier()).thenReturn("starved.mp3");
+        AudioFrame frame = mock(AudioFrame.class);
+        when(frame.getData()).thenReturn(new byte[160]);
+
+        AudioPlayer player = mock(AudioPlayer.class);
+        when(player.getPlayingTrack()).thenAnswer(invocation -> playing);
+        when(player.provide()).thenAnswer(invocation -> {
+            Step step = script.poll();
+            if (step == Step.ENDED) {
+                playing = null;
+            }
+            return step == Step.FRAME ? frame : null;
+        });
+
+        monitor = new AudioDeliveryMonitor(3);
+        delivery = monitor.register("1");
+        sendHandler = new AudioPlayerSendHandler(player, delivery);
+    }
+
+    @Test
+    public void countsMissedFramesAndStuttersOfAStarvedTrack() throws InterruptedException {
+        playing = track;
+        steps(Step.FRAME, 20);
+        steps(Step.STARVED, 5);
+        steps(Step.FRAME, 20);
+        steps(Step.STARVED, 2);
+        steps(Step.FRAME, 10);
+
+        drive();
+
+        assertEquals(50, delivery.getProvidedCount());
+        assertEquals(7, delivery.getMissedCount());
+        assertEquals("only the run of 5 is long enough to be heard", 1, delivery.getStutterCount());
+        assertEquals("guild 1, starved.mp3, 100 ms", monitor.getLastStutter());
+        assertEquals(7, monitor.getMissedCount());
+    }
+
+    @Test
+    public void jitterIsTheSmoothedDeviationFromTheFrameInterval() {
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        delivery.provided(1000 * ms);
+        delivery.provided(1020 * ms);
+        delivery.provided(1040 * ms);
+        assertEquals(0, delivery.getJitterMicros());
+        assertEquals(0, delivery.getMaxJitterMicros());
+
+        // 5 ms late, then on time again, which is 5 ms early compared to the late ask.
+        delivery.provided(1065 * ms);
+        assertEquals(5000 / 16, delivery.getJitterMicros());
+        delivery.missed(1080 * ms, "starved.mp3");
+        assertEquals(605, delivery.getJitterMicros());
+        assertEquals(5000, delivery.getMaxJitterMicros());
+
+        // An idle gap is not counted as jitter.
+        delivery.idle();
+        delivery.provided(2000 * ms);
+        delivery.provided(2020 * ms);
+        assertEquals(5000, delivery.getMaxJitterMicros());
+        assertTrue(delivery.getJitterMicros() < 605);
+    }
+
+    @Test
+    public void countsNothingAfterTheTrackEnded() throws InterruptedException {
+        playing = track;
+        steps(Step.FRAME, 20);
+        steps(Step.ENDED, 30);
+
+        drive();
+
+        assertEquals(20, delivery.getProvidedCount());
+        assertEquals(0, delivery.getMissedCount());
+        assertEquals(0, delivery.getStutterCount());
+        assertNull(monitor.getLastStutter());
+    }
+
+    @Test
+    public void aTrackThatEndsWhileStarvedOnlyCountsTheMissesBeforeIt() throws InterruptedException {
+        playing = track;
+        steps(Step.FRAME, 20);
+        steps(Step.STARVED, 2);
+        steps(Step.ENDED, 20);
+
+        drive();
+
+        assertEquals(20, delivery.getProvidedCount());
+        assertEquals(2, delivery.getMissedCount());
+        assertEquals(0, delivery.getStutterCount());
+    }
+
+    @Test
+    public void aTrackStillBufferingIsNotStarved() throws InterruptedException {
+        playing = track;
+        steps(Step.STARVED, 5);
+        steps(Step.FRAME, 20);
+
+        drive();
+
+        assertEquals(20, delivery.getProvidedCount());
+        assertEquals(0, delivery.getMissedCount());
+        assertEquals(0, delivery.getStutterCount());
+    }
+
+    @Test
+    public void keepsTheCountsOfAReleasedPlayer() throws InterruptedException {
+        playing = track;
+        steps(Step.FRAME, 10);
+        steps(Step.STARVED, 4);
+        steps(Step.FRAME, 10);
+
+        drive();
+        monitor.unregister(delivery);
+
+        assertNull(monitor.getGuild("1"));
+        assertEquals(20, monitor.getProvidedCount());
+        assertEquals(4, monitor.getMissedCount());
+        assertEquals(1, monitor.getStutterCount());
+    }
+
+    private void steps(Step step, int count) {
+        script.addAll(Collections.nCopies(count, step));
+    }
+
+    /**
+     * Asks for one frame per step of the script, at the 20 ms cadence of JDA's audio sending thread.
+     */
+    private void drive() throws InterruptedException {
+        CountDownLatch asks = new CountDownLatch(script.size());
+        ScheduledExecutorService audioThread = Executors.newSingleThreadScheduledExecutor();
+        audioThread.scheduleAtFixedRate(() -> {
+            if (asks.getCount() > 0) {
+                if (sendHandler.canProvide()) {
+                    assertNotNull(sendHandler.provide20MsAudio());
+                }
+                asks.countDown();
+            }
+        }, 0, 20, TimeUnit.MILLISECONDS);
+        try {
+            assertTrue("the audio thread fell too far behind", asks.await(asks.getCount() * 20 + 10000, TimeUnit.MILLISECONDS));
+        } finally {
+            audioThread.shutdownNow();
+            assertTrue(audioThread.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package net.dirtydeeds.discordsoundboard.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the scheduler against a mocked audio player that plays one track at a time, like lavaplayer's does.
+ */
+public class TrackSchedulerTest {
+
+    private static final int MAX_PER_GUILD = 5;
+    private static final int MAX_PER_USER = 3;
+
+    private final List<AudioTrack> started = new ArrayList<>();
+    private AudioTrack playing;
+    private AudioPlayer player;
+    private AudioPlayerSendHandler sendHandler;
+    private TrackScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        player = mock(AudioPlayer.class);
+        when(player.getPlayingTrack()).thenAnswer(invocation -> playing);
+        when(player.startTrack(any(), anyBoolean())).thenAnswer(invocation -> {
+            boolean noInterrupt = invocation.getArgument(1);
+            if (noInterrupt && playing != null) {
+                return false;
+            }
+            start(invocation.getArgument(0));
+            return true;
+        });
+        doAnswer(invocation -> {
+            start(invocation.getArgument(0));
+            return null;
+        }).when(player).playTrack(any());
+        doAnswer(invocation -> {
+            playing = null;
+            return null;
+        }).when(player).stopTrack();
+
+        sendHandler = new AudioPlayerSendHandler(player, new AudioDeliveryMonitor(3).register("1"));
+        scheduler = new TrackScheduler(player, sendHandler, MAX_PER_GUILD, MAX_PER_USER);
+    }
+
+    @Test
+    public void usersTakeTurns() {
+        AudioTrack a1 = track("a1", 1000);
+        assertEquals(TrackScheduler.QueueResult.PLAYING, scheduler.queue(a1, null, "alice"));
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("a2", 1000), null, "alice"));
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("a3", 1000), null, "alice"));
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("b1", 1000), null, "bob"));
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("b2", 1000), null, "bob"));
+        assertEquals(4, scheduler.getQueueSize());
+        assertEquals(2, scheduler.getQueueSize("alice"));
+
+        playAll();
+
+        assertEquals(Arrays.asList("a1", "a2", "b1", "a3", "b2"), identifiers(started));
+        assertEquals(0, scheduler.getQueueSize());
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void limitsRejectWithTheLimitThatWasReached() {
+        scheduler.queue(track("playing", 1000), null, "alice");
+        for (int i = 0; i < MAX_PER_USER; i++) {
+            assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("a", 1000), null, "alice"));
+        }
+        assertEquals(TrackScheduler.QueueResult.USER_QUEUE_FULL, scheduler.queue(track("a", 1000), null, "alice"));
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("b", 1000), null, "bob"));
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("b", 1000), null, "bob"));
+        assertEquals(TrackScheduler.QueueResult.GUILD_QUEUE_FULL, scheduler.queue(track("c", 1000), null, "carol"));
+        assertTrue(TrackScheduler.QueueResult.GUILD_QUEUE_FULL.isRejected());
+        assertFalse(TrackScheduler.QueueResult.QUEUED.isRejected());
+
+        // Rejected tracks are not counted.
+        assertEquals(MAX_PER_GUILD, scheduler.getQueueSize());
+        assertEquals(MAX_PER_USER, scheduler.getQueueSize("alice"));
+        assertEquals(0, scheduler.getQueueSize("carol"));
+    }
+
+    @Test
+    public void capacityIsCheckedForSeveralTracks() {
+        scheduler.queue(track("playing", 1000), null, "alice");
+        scheduler.queue(track("a", 1000), null, "alice");
+
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.checkCapacity("alice", MAX_PER_USER - 1));
+        assertEquals(TrackScheduler.QueueResult.USER_QUEUE_FULL, scheduler.checkCapacity("alice", MAX_PER_USER));
+        assertEquals(TrackScheduler.QueueResult.GUILD_QUEUE_FULL, scheduler.checkCapacity("bob", MAX_PER_GUILD));
+        // Checking does not queue anything.
+        assertEquals(1, scheduler.getQueueSize());
+    }
+
+    @Test
+    public void stopClearsTheQueues() {
+        scheduler.queue(track("a1", 1000), null, "alice");
+        scheduler.queue(track("a2", 1000), null, "alice");
+        scheduler.queue(track("b1", 1000), null, "bob");
+
+        scheduler.stop();
+
+        assertEquals(0, scheduler.getQueueSize());
+        assertEquals(0, scheduler.getQueueSize("alice"));
+        assertEquals(0, scheduler.getQueueSize("bob"));
+        assertTrue(scheduler.isIdle());
+        // The stopped track ending does not start anything.
+        scheduler.onTrackEnd(player, started.get(0), AudioTrackEndReason.STOPPED);
+        assertEquals(1, started.size());
+
+        // The limits start from zero again.
+        assertEquals(TrackScheduler.QueueResult.PLAYING, scheduler.queue(track("a3", 1000), null, "alice"));
+        for (int i = 0; i < MAX_PER_USER; i++) {
+            assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("a", 1000), null, "alice"));
+        }
+        assertEquals(MAX_PER_USER, scheduler.getQueueSize());
+    }
+
+    @Test
+    public void tracksWaitForACachedSound() {
+        scheduler.playNow(CachedSound.of(Collections.nCopies(50, new byte[10]), 0), null);
+
+        assertEquals(TrackScheduler.QueueResult.QUEUED, scheduler.queue(track("a1", 1000), null, "alice"));
+        assertTrue(started.isEmpty());
+        assertFalse(scheduler.isIdle());
+        // 50 frames of 20 ms are left of the cached sound.
+        assertEquals(1000 + 1000, scheduler.getEstimatedWaitMs("bob"));
+    }
+
+    @Test
+    public void waitCountsTheTurnsAhead() {
+        AudioTrack current = track("current", 10000);
+        when(current.getPosition()).thenReturn(4000L);
+        scheduler.queue(current, null, "alice");
+        scheduler.queue(track("a1", 1000), null, "alice");
+        scheduler.queue(track("a2", 2000), null, "alice");
+        scheduler.queue(track("b1", 3000), null, "bob");
+
+        // Carol waits for the rest of the current track and the next track of every user.
+        assertEquals(6000 + 1000 + 3000, scheduler.getEstimatedWaitMs("carol"));
+        // Bob's next track waits for his own and one more turn of Alice.
+        assertEquals(6000 + 1000 + 2000 + 3000, scheduler.getEstimatedWaitMs("bob"));
+    }
+
+    @Test
+    public void waitIsUnknownBehindAStream() {
+        scheduler.queue(track("current", 10000), null, "alice");
+        scheduler.queue(track("stream", Long.MAX_VALUE), null, "alice");
+
+        assertEquals(-1, scheduler.getEstimatedWaitMs("bob"));
+
+        scheduler.stop();
+        scheduler.queue(track("stream", Long.MAX_VALUE), null, "alice");
+
+        assertEquals(-1, scheduler.getEstimatedWaitMs("bob"));
+    }
+
+    /**
+     * Lets the playing track finish until nothing is left.
+     */
+    private void playAll() {
+        while (playing != null) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        AudioTrack track = playing;
+        playing = null;
+        scheduler.onTrackEnd(player, track, AudioTrackEndReason.FINISHED);
+    }
+
+    private void start(AudioTrack track) {
+        playing = track;
+        started.add(track);
+    }
+
+    private static AudioTrack track(String identifier, long duration) {
+        AudioTrack track = mock(AudioTrack.class);
+        when(track.getIdentifier()).thenReturn(identifier);
+        when(track.getDuration()).thenReturn(duration);
+        return track;
+    }
+
+    private static List<String> identifiers(List<AudioTrack> tracks) {
+        List<String> identifiers = new ArrayList<>();
+        for (AudioTrack track : tracks) {
+            identifiers.add(track.getIdentifier());
+        }
+        return identifiers;
+    }
+}
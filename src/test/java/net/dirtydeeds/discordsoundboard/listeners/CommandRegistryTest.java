@@ -0,0 +1,79 @@
+package net.dirtydeeds.discordsoundboard.listeners;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommandRegistryTest {
+
+    private final ChatCommand stop = (event, command) -> { };
+    private final ChatCommand list = (event, command) -> { };
+    private final ChatCommand top = (event, command) -> { };
+    private final ChatCommand sound = (event, command) -> { };
+    private CommandRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new CommandRegistry("?")
+                .register("stop", stop, true)
+                .register("list", list)
+                .register("top", top)
+                .setFallback("sound", sound);
+    }
+
+    @Test
+    public void routesCommandsByTheirWholeName() {
+        assertSame(stop, registry.route("?stop").getCommand());
+        assertSame(list, registry.route("?list").getCommand());
+        assertSame(top, registry.route("?top 5").getCommand());
+        assertSame(top, registry.route("?TOP").getCommand());
+        assertTrue(registry.route("?stop").isFastLane());
+        assertFalse(registry.route("?list").isFastLane());
+        assertEquals("top", registry.route("?top 5").getName());
+    }
+
+    @Test
+    public void stopwatchIsNotStop() {
+        CommandRegistry.Route route = registry.route("?stopwatch");
+
+        assertSame(sound, route.getCommand());
+        assertEquals("sound", route.getName());
+        assertFalse(registry.isCommand("?stopwatch"));
+        assertTrue(registry.isCommand("?stop"));
+    }
+
+    @Test
+    public void listenIsNotList() {
+        assertSame(sound, registry.route("?listen").getCommand());
+        assertSame(sound, registry.route("?listen 3").getCommand());
+        assertFalse(registry.isCommand("?listen"));
+    }
+
+    @Test
+    public void prefixesOfCommandsAreSounds() {
+        assertSame(sound, registry.route("?sto").getCommand());
+        assertSame(sound, registry.route("?").getCommand());
+        assertSame(sound, registry.route("? stop").getCommand());
+    }
+
+    @Test
+    public void messagesWithoutTheCommandCharacterAreNotRouted() {
+        assertNull(registry.route("stop"));
+        assertFalse(registry.isCommand("stop"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANameRegisteredTwice() {
+        registry.register("STOP", stop);
+    }
+
+    @Test
+    public void routesWithALongerCommandPrefix() {
+        CommandRegistry bang = new CommandRegistry("!!").register("stop", stop).setFallback("sound", sound);
+
+        assertSame(stop, bang.route("!!stop").getCommand());
+        assertSame(sound, bang.route("!!stopwatch").getCommand());
+        assertNull(bang.route("!stop"));
+    }
+}
@@ -0,0 +1,103 @@
+package net.dirtydeeds.discordsoundboard.listeners;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParsedCommandTest {
+
+    @Test
+    public void ignoresMessagesWithoutTheCommandCharacter() {
+        assertNull(ParsedCommand.parse("top 5", "?"));
+        assertNull(ParsedCommand.parse("!top 5", "?"));
+    }
+
+    @Test
+    public void parsesANameAndANumber() {
+        ParsedCommand command = ParsedCommand.parse("?TOP 5", "?");
+
+        assertEquals("top", command.getName());
+        assertEquals(1, command.getArgumentCount());
+        assertEquals("5", command.getArgument(0));
+        assertNull(command.getArgument(1));
+        assertEquals(5, command.getNumberArgument(0, 10));
+        assertEquals(10, command.getNumberArgument(1, 10));
+        assertTrue(command.matchesGrammar());
+    }
+
+    @Test
+    public void parsesASoundWithARepeatCount() {
+        ParsedCommand command = ParsedCommand.parse("?stats airhorn 3", "?");
+
+        assertEquals("stats", command.getName());
+        assertEquals("airhorn", command.getArgument(0));
+        assertEquals(3, command.getNumberArgument(1, 1));
+        assertTrue(command.matchesGrammar());
+    }
+
+    @Test
+    public void parsesACommandWithoutArguments() {
+        ParsedCommand command = ParsedCommand.parse("?list", "?");
+
+        assertEquals("list", command.getName());
+        assertEquals(0, command.getArgumentCount());
+        assertEquals("", command.getRawArguments());
+        assertTrue(command.matchesGrammar());
+    }
+
+    @Test
+    public void emptyNameDoesNotMatchTheGrammar() {
+        ParsedCommand alone = ParsedCommand.parse("?", "?");
+        assertEquals("", alone.getName());
+        assertEquals(0, alone.getArgumentCount());
+        assertFalse(alone.matchesGrammar());
+
+        ParsedCommand spaced = ParsedCommand.parse("? top", "?");
+        assertEquals("", spaced.getName());
+        assertEquals("top", spaced.getArgument(0));
+        assertFalse(spaced.matchesGrammar());
+    }
+
+    @Test
+    public void doubleSpacesLeaveAnEmptyArgument() {
+        ParsedCommand command = ParsedCommand.parse("?top  5", "?");
+
+        assertEquals("top", command.getName());
+        assertEquals(2, command.getArgumentCount());
+        assertEquals("", command.getArgument(0));
+        assertEquals("5", command.getArgument(1));
+        assertEquals(10, command.getNumberArgument(0, 10));
+        assertFalse(command.matchesGrammar());
+    }
+
+    @Test
+    public void moreThanTwoArgumentsDoNotMatchTheGrammar() {
+        assertFalse(ParsedCommand.parse("?stats airhorn 3 4", "?").matchesGrammar());
+        assertFalse(ParsedCommand.parse("?stats airhorn three", "?").matchesGrammar());
+        assertFalse(ParsedCommand.parse("?stats air-horn", "?").matchesGrammar());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void aWordIsNotANumber() {
+        ParsedCommand.parse("?top five", "?").getNumberArgument(0, 10);
+    }
+
+    @Test
+    public void keepsTheCaseOfRawArguments() {
+        ParsedCommand command = ParsedCommand.parse("?yt https://www.youtube.com/watch?v=dQw4w9WgXcQ", "?");
+
+        assertEquals("yt", command.getName());
+        assertEquals("https://www.youtube.com/watch?v=dQw4w9WgXcQ", command.getRawArguments());
+        assertEquals("https://www.youtube.com/watch?v=dqw4w9wgxcq", command.getArgument(0));
+        assertEquals("?yt https://www.youtube.com/watch?v=dqw4w9wgxcq", command.getMessage());
+        assertEquals("?yt https://www.youtube.com/watch?v=dQw4w9WgXcQ", command.getOriginalMessage());
+    }
+
+    @Test
+    public void supportsLongerCommandPrefixes() {
+        ParsedCommand command = ParsedCommand.parse("!!random", "!!");
+
+        assertEquals("random", command.getName());
+        assertNull(ParsedCommand.parse("!random", "!!"));
+    }
+}
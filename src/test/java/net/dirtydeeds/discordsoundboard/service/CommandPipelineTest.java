@@ -0,0 +1,167 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Blocks commands on latches to hold a key or a worker, and checks what still gets through.
+ */
+public class CommandPipelineTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final DiscordSoundboardProperties properties = new DiscordSoundboardProperties();
+    private final List<CountDownLatch> blocked = new ArrayList<>();
+    private CommandPipeline pipeline;
+
+    @After
+    public void tearDown() {
+        blocked.forEach(CountDownLatch::countDown);
+        if (pipeline != null) {
+            pipeline.cleanUp();
+        }
+    }
+
+    @Test
+    public void commandsOfOneKeyRunInOrderOneAtATime() throws InterruptedException {
+        start(4, 20, 100);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            int number = i;
+            assertTrue(pipeline.submit("guild", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                order.add(number);
+                running.decrementAndGet();
+                done.countDown();
+            }));
+        }
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), order);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void aBlockedKeyDoesNotHoldUpOtherKeys() throws InterruptedException {
+        start(2, 20, 100);
+        CountDownLatch release = block("slow guild");
+        CountDownLatch sameKey = new CountDownLatch(1);
+        pipeline.submit("slow guild", sameKey::countDown);
+        CountDownLatch otherKey = new CountDownLatch(1);
+        pipeline.submit("other guild", otherKey::countDown);
+
+        assertTrue(otherKey.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("waits behind the blocked command", 1, sameKey.getCount());
+
+        release.countDown();
+        assertTrue(sameKey.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fastLaneRunsWhileEveryWorkerIsBusy() throws InterruptedException {
+        start(1, 20, 100);
+        block("guild");
+        CountDownLatch otherKey = new CountDownLatch(1);
+        pipeline.submit("other guild", otherKey::countDown);
+        CountDownLatch stop = new CountDownLatch(1);
+
+        assertTrue(pipeline.submitFastLane(stop::countDown));
+
+        assertTrue(stop.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("the only worker is taken", 1, otherKey.getCount());
+        assertEquals(1, pipeline.getFastLaneCount());
+    }
+
+    @Test
+    public void limitsRejectAndCount() throws InterruptedException {
+        start(1, 2, 3);
+        block("guild");
+
+        assertTrue(pipeline.submit("guild", () -> { }));
+        assertTrue(pipeline.submit("guild", () -> { }));
+        assertFalse("over the limit of the key", pipeline.submit("guild", () -> { }));
+        assertEquals(1, pipeline.getRejectedCount());
+
+        assertTrue(pipeline.submit("other guild", () -> { }));
+        assertFalse("over the total limit", pipeline.submit("third guild", () -> { }));
+        assertEquals(2, pipeline.getRejectedCount());
+        assertEquals(3, pipeline.getQueuedCount());
+        assertEquals(4, pipeline.getSubmittedCount());
+    }
+
+    @Test
+    public void fullFastLaneRejects() throws InterruptedException {
+        start(1, 2, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        blocked.add(release);
+        CountDownLatch started = new CountDownLatch(1);
+        assertTrue(pipeline.submitFastLane(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        }));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertTrue(pipeline.submitFastLane(() -> { }));
+        assertTrue(pipeline.submitFastLane(() -> { }));
+        assertFalse(pipeline.submitFastLane(() -> { }));
+        assertEquals(1, pipeline.getRejectedCount());
+        assertEquals(3, pipeline.getFastLaneCount());
+    }
+
+    @Test
+    public void aFailedCommandDoesNotStopItsKey() throws InterruptedException {
+        start(1, 20, 100);
+        pipeline.submit("guild", () -> {
+            throw new IllegalStateException("expected by the test");
+        });
+        CountDownLatch next = new CountDownLatch(1);
+        pipeline.submit("guild", next::countDown);
+
+        assertTrue(next.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, pipeline.getFailedCount());
+    }
+
+    private void start(int threads, int maxPerKey, int maxTotal) {
+        properties.setCommandThreads(threads);
+        properties.setCommandQueuePerGuild(maxPerKey);
+        properties.setCommandQueueLimit(maxTotal);
+        pipeline = new CommandPipeline(properties);
+    }
+
+    /**
+     * Submits a command that holds its key and a worker until the returned latch is released.
+     */
+    private CountDownLatch block(String key) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        blocked.add(release);
+        CountDownLatch started = new CountDownLatch(1);
+        assertTrue(pipeline.submit(key, () -> {
+            started.countDown();
+            awaitQuietly(release);
+        }));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_SECONDS * 2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
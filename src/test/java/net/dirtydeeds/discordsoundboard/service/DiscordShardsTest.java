@@ -0,0 +1,141 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import net.dirtydeeds.discordsoundboard.audio.AudioDeliveryMonitor;
+import net.dirtydeeds.discordsoundboard.audio.GuildMusicManagerRegistry;
+import net.dv8tion.jda.bot.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.bot.sharding.ShardManager;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.events.ReadyEvent;
+import net.dv8tion.jda.core.events.ResumedEvent;
+import net.dv8tion.jda.core.events.StatusChangeEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Drives the shards of an instance that runs shards 1 and 2 of 4 against a mocked gateway.
+ */
+public class DiscordShardsTest {
+
+    private final List<Integer> readyShards = new ArrayList<>();
+    private DiscordShards shards;
+
+    @Before
+    public void setUp() {
+        shards = new DiscordShards(4, 1, 2, shardId -> new ShardContext(shardId,
+                new GuildMusicManagerRegistry(mock(AudioPlayerManager.class), 0, 10, 10, guildId -> { }, new AudioDeliveryMonitor(3)),
+                shard -> readyShards.add(shard.getShardId())));
+    }
+
+    @After
+    public void tearDown() {
+        shards.shutdown();
+    }
+
+    @Test
+    public void startsOnlyTheShardsOfItsRange() throws Exception {
+        DefaultShardManagerBuilder builder = mock(DefaultShardManagerBuilder.class, RETURNS_SELF);
+        ShardManager shardManager = mock(ShardManager.class);
+        when(builder.build()).thenReturn(shardManager);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<IntFunction<Object>> provider = ArgumentCaptor.forClass((Class) IntFunction.class);
+
+        assertSame(shardManager, shards.start(builder));
+
+        verify(builder).setShardsTotal(4);
+        verify(builder).setShards(new HashSet<>(Arrays.asList(1, 2)));
+        verify(builder).addEventListenerProvider(provider.capture());
+        assertSame(shards.getShard(1), provider.getValue().apply(1));
+        assertSame(shards.getShard(2), provider.getValue().apply(2));
+        assertEquals(2, shards.getShardCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsARangeOutsideTheShardsOfTheBot() {
+        new DiscordShards(4, 2, 4, shardId -> null);
+    }
+
+    @Test
+    public void routesGuildsToTheShardOfTheirId() {
+        assertEquals(1, shards.forGuild(guild(5)).getShardId());
+        assertEquals(2, shards.forGuild(guild(6)).getShardId());
+        assertEquals(1, shards.forGuild(guild(9)).getShardId());
+        assertNull("shard 3 runs on another instance", shards.forGuild(guild(7)));
+    }
+
+    @Test
+    public void findsGuildsOnlyOnceTheirShardConnected() {
+        Guild guild = guild(5);
+        JDA jda = mock(JDA.class);
+        when(jda.getGuildById(guild.getId())).thenReturn(guild);
+        assertNull(shards.getGuildById(guild.getId()));
+
+        shards.getShard(1).onReady(ready(jda));
+
+        assertSame(guild, shards.getGuildById(guild.getId()));
+        assertNull(shards.getGuildById(guild(6).getId()));
+    }
+
+    @Test
+    public void shardsBecomeReadyOnTheirOwn() {
+        ShardContext shard = shards.getShard(1);
+        JDA jda = mock(JDA.class);
+
+        shard.onReady(ready(jda));
+
+        assertTrue(shard.isReady());
+        assertFalse(shards.getShard(2).isReady());
+        assertEquals(1, shards.getReadyCount());
+        assertEquals(Collections.singletonList(1), readyShards);
+        assertSame(jda, shard.getJda());
+
+        shard.onStatusChange(statusChange(JDA.Status.ATTEMPTING_TO_RECONNECT));
+        assertFalse(shard.isReady());
+        assertEquals(0, shards.getReadyCount());
+
+        ResumedEvent resumed = mock(ResumedEvent.class);
+        when(resumed.getJDA()).thenReturn(jda);
+        shard.onResume(resumed);
+        assertTrue(shard.isReady());
+        assertEquals("only a ready event reports the shard again", Collections.singletonList(1), readyShards);
+
+        shard.onStatusChange(statusChange(JDA.Status.CONNECTED));
+        assertTrue(shard.isReady());
+    }
+
+    /**
+     * @param shardOf4 - Discord's shard number of the guild's creation time, the guild lands on this modulo 4.
+     */
+    private static Guild guild(long shardOf4) {
+        long id = (shardOf4 << 22) | 1234;
+        Guild guild = mock(Guild.class);
+        when(guild.getIdLong()).thenReturn(id);
+        when(guild.getId()).thenReturn(Long.toString(id));
+        return guild;
+    }
+
+    private static ReadyEvent ready(JDA jda) {
+        ReadyEvent event = mock(ReadyEvent.class);
+        when(event.getJDA()).thenReturn(jda);
+        return event;
+    }
+
+    private static StatusChangeEvent statusChange(JDA.Status newStatus) {
+        StatusChangeEvent event = mock(StatusChangeEvent.class);
+        when(event.getNewStatus()).thenReturn(newStatus);
+        return event;
+    }
+}
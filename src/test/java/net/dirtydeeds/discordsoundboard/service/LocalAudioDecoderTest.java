@@ -0,0 +1,35 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocalAudioDecoderTest {
+
+    @Test
+    public void noGainKeepsTheSamplesUntouched() {
+        assertEquals(100, LocalAudioDecoder.volumeForGain(0));
+        assertEquals(100, LocalAudioDecoder.volumeForGain(0.02));
+    }
+
+    @Test
+    public void volumeComesCloseToTheGain() {
+        for (double gainDb = -10; gainDb <= 12; gainDb += 0.5) {
+            int volume = LocalAudioDecoder.volumeForGain(gainDb);
+            double actualDb = 20 * Math.log10(LocalAudioDecoder.volumeMultiplier(volume));
+            // Volume steps get coarser towards 0, in this range they are at most about 0.2 dB.
+            assertEquals("gain " + gainDb, gainDb, actualDb, 0.15);
+        }
+    }
+
+    @Test
+    public void volumeFollowsTheLinearPartAbove150() {
+        assertEquals(300, LocalAudioDecoder.volumeForGain(20 * Math.log10(LocalAudioDecoder.volumeMultiplier(300))));
+    }
+
+    @Test
+    public void volumeStaysInRange() {
+        assertEquals(1, LocalAudioDecoder.volumeForGain(-100));
+        assertEquals(1000, LocalAudioDecoder.volumeForGain(100));
+    }
+}
@@ -0,0 +1,91 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the meter against the stereo 1 kHz sine cases of EBU Tech 3341, where a tone at a given dBFS in both channels
+ * measures as the same number of LUFS.
+ */
+public class LoudnessMeterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAMES_PER_CHUNK = SAMPLE_RATE / 50;
+    private static final double TOLERANCE_LU = 0.1;
+
+    @Test
+    public void referenceToneMeasuresAtItsLevel() {
+        assertEquals(-23.0, measure(tone(-23, 20)), TOLERANCE_LU);
+        assertEquals(-33.0, measure(tone(-33, 20)), TOLERANCE_LU);
+    }
+
+    @Test
+    public void quietPartsAreGatedOut() {
+        // Without the relative gate the -36 dBFS parts would pull the result down by more than a LU.
+        assertEquals(-23.0, measure(tone(-36, 10), tone(-23, 60), tone(-36, 10)), TOLERANCE_LU);
+        // The -72 dBFS parts are below the absolute gate.
+        assertEquals(-23.0, measure(tone(-72, 10), tone(-36, 10), tone(-23, 60), tone(-36, 10), tone(-72, 10)), TOLERANCE_LU);
+    }
+
+    @Test
+    public void clipShorterThanOneBlockIsMeasuredAsAWhole() {
+        assertEquals(-23.0, measure(tone(-23, 0.2)), 0.2);
+    }
+
+    @Test
+    public void silenceHasNoLoudness() {
+        assertTrue(Double.isNaN(measure(tone(-80, 5))));
+        assertTrue(Double.isNaN(new LoudnessNormalizer.LoudnessMeter().getIntegratedLoudness()));
+    }
+
+    @Test
+    public void peakIsTheLargestSample() {
+        LoudnessNormalizer.LoudnessMeter meter = new LoudnessNormalizer.LoudnessMeter();
+        feed(meter, tone(-6, 1));
+        assertEquals(Math.round(32768 * Math.pow(10, -6 / 20.0)), meter.getPeak(), 1);
+    }
+
+    private static double measure(Tone... tones) {
+        LoudnessNormalizer.LoudnessMeter meter = new LoudnessNormalizer.LoudnessMeter();
+        feed(meter, tones);
+        return meter.getIntegratedLoudness();
+    }
+
+    /**
+     * Hands the tones to the meter as 20 ms chunks of 16 bit big endian stereo PCM, like the decoder does.
+     */
+    private static void feed(LoudnessNormalizer.LoudnessMeter meter, Tone... tones) {
+        long frame = 0;
+        for (Tone tone : tones) {
+            double amplitude = 32768 * Math.pow(10, tone.dbfs / 20);
+            long end = frame + Math.round(tone.seconds * SAMPLE_RATE);
+            while (frame < end) {
+                int frames = (int) Math.min(FRAMES_PER_CHUNK, end - frame);
+                byte[] pcm = new byte[frames * 4];
+                for (int i = 0; i < frames; i++, frame++) {
+                    short sample = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 1000 * frame / SAMPLE_RATE));
+                    for (int channel = 0; channel < 2; channel++) {
+                        pcm[4 * i + 2 * channel] = (byte) (sample >> 8);
+                        pcm[4 * i + 2 * channel + 1] = (byte) sample;
+                    }
+                }
+                meter.accept(pcm);
+            }
+        }
+    }
+
+    private static Tone tone(double dbfs, double seconds) {
+        return new Tone(dbfs, seconds);
+    }
+
+    private static class Tone {
+        private final double dbfs;
+        private final double seconds;
+
+        private Tone(double dbfs, double seconds) {
+            this.dbfs = dbfs;
+            this.seconds = seconds;
+        }
+    }
+}
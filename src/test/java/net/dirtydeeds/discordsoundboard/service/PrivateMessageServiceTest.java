@@ -0,0 +1,197 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import net.dv8tion.jda.core.entities.Message;
+import net.dv8tion.jda.core.entities.PrivateChannel;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.requests.RestAction;
+import net.dv8tion.jda.core.requests.restaction.MessageAction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Requests are not completed by themselves, the tests complete them one at a time to control what is on its way.
+ */
+public class PrivateMessageServiceTest {
+
+    private static final int SIZE_LIMIT = 100;
+
+    private final DiscordSoundboardProperties properties = new DiscordSoundboardProperties();
+    private final Deque<Request<PrivateChannel>> opens = new ArrayDeque<>();
+    private final Deque<Request<Message>> sends = new ArrayDeque<>();
+    private final List<String> sentTexts = new ArrayList<>();
+    private PrivateMessageService service;
+    private User user;
+    private PrivateChannel channel;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        properties.setMessageSizeLimit(SIZE_LIMIT);
+        service = new PrivateMessageService(properties);
+
+        channel = mock(PrivateChannel.class);
+        when(channel.sendMessage(anyString())).thenAnswer(invocation -> {
+            sentTexts.add(invocation.getArgument(0));
+            MessageAction action = mock(MessageAction.class);
+            doAnswer(queued -> sends.add(new Request<>(queued.getArgument(0), queued.getArgument(1))))
+                    .when(action).queue(any(), any());
+            return action;
+        });
+
+        user = mock(User.class);
+        when(user.getId()).thenReturn("user");
+        when(user.getName()).thenReturn("User");
+        when(user.openPrivateChannel()).thenAnswer(invocation -> {
+            RestAction<PrivateChannel> action = mock(RestAction.class);
+            doAnswer(queued -> opens.add(new Request<>(queued.getArgument(0), queued.getArgument(1))))
+                    .when(action).queue(any(), any());
+            return action;
+        });
+    }
+
+    @Test
+    public void repliesWaitingForTheChannelGoOutTogether() {
+        service.send(user, "one");
+        service.send(user, "two");
+        opens.poll().succeed(channel);
+        service.send(user, "three");
+        sends.poll().succeed(null);
+        sends.poll().succeed(null);
+
+        assertEquals(Arrays.asList("one\ntwo", "three"), sentTexts);
+        assertTrue(sends.isEmpty());
+        assertEquals(3, service.getReplyCount());
+        assertEquals(2, service.getSentCount());
+        verify(user, times(1)).openPrivateChannel();
+    }
+
+    @Test
+    public void batchesStayWithinTheLimit() {
+        String reply = repeat('a', 60);
+        service.send(user, reply);
+        service.send(user, reply);
+        opens.poll().succeed(channel);
+        sends.poll().succeed(null);
+        sends.poll().succeed(null);
+
+        assertEquals(Arrays.asList(reply, reply), sentTexts);
+    }
+
+    @Test
+    public void openChannelIsReused() {
+        service.send(user, "one");
+        opens.poll().succeed(channel);
+        sends.poll().succeed(null);
+        service.send(user, "two");
+        sends.poll().succeed(null);
+
+        assertEquals(Arrays.asList("one", "two"), sentTexts);
+        verify(user, times(1)).openPrivateChannel();
+        assertEquals(1, service.getCachedChannelCount());
+    }
+
+    @Test
+    public void longReplyIsSplitOnLineBoundaries() {
+        StringBuilder reply = new StringBuilder("```");
+        for (int i = 0; i < 10; i++) {
+            reply.append("line ").append(i).append(' ').append(repeat('x', 20)).append('\n');
+        }
+        reply.append("```");
+        service.send(user, reply.toString());
+        opens.poll().succeed(channel);
+        while (!sends.isEmpty()) {
+            sends.poll().succeed(null);
+        }
+
+        assertTrue(sentTexts.size() > 1);
+        StringBuilder lines = new StringBuilder();
+        for (String text : sentTexts) {
+            assertTrue(text, text.length() <= SIZE_LIMIT);
+            assertTrue(text, text.startsWith("```") && text.endsWith("```"));
+            lines.append(text, 3, text.length() - 3);
+        }
+        // Every line arrives whole and in order.
+        assertEquals(reply.substring(3, reply.length() - 3).trim(), lines.toString().trim());
+    }
+
+    @Test
+    public void failedSendReopensTheChannel() {
+        PrivateChannel reopened = mock(PrivateChannel.class);
+        when(reopened.sendMessage(anyString())).thenAnswer(invocation -> {
+            sentTexts.add("reopened: " + invocation.getArgument(0));
+            MessageAction action = mock(MessageAction.class);
+            doAnswer(queued -> sends.add(new Request<>(queued.getArgument(0), queued.getArgument(1))))
+                    .when(action).queue(any(), any());
+            return action;
+        });
+
+        service.send(user, "one");
+        opens.poll().succeed(channel);
+        service.send(user, "two");
+        sends.poll().fail(new RuntimeException("Unknown Channel"));
+
+        // The waiting reply is not sent to the channel that just failed.
+        assertEquals(0, service.getCachedChannelCount());
+        assertEquals(1, opens.size());
+        opens.poll().succeed(reopened);
+        sends.poll().succeed(null);
+
+        assertEquals(Arrays.asList("one", "reopened: two"), sentTexts);
+        assertEquals(1, service.getFailedCount());
+        assertEquals(1, service.getSentCount());
+    }
+
+    @Test
+    public void failedOpenDropsTheWaitingReplies() {
+        service.send(user, "one");
+        service.send(user, "two");
+        opens.poll().fail(new RuntimeException("Cannot send messages to this user"));
+
+        assertEquals(2, service.getFailedCount());
+        assertTrue(sentTexts.isEmpty());
+
+        // The next reply starts a new delivery.
+        service.send(user, "three");
+        opens.poll().succeed(channel);
+        sends.poll().succeed(null);
+        assertEquals(Collections.singletonList("three"), sentTexts);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static class Request<T> {
+        private final Consumer<? super T> success;
+        private final Consumer<? super Throwable> failure;
+
+        private Request(Consumer<? super T> success, Consumer<? super Throwable> failure) {
+            this.success = success;
+            this.failure = failure;
+        }
+
+        private void succeed(T result) {
+            success.accept(result);
+        }
+
+        private void fail(Throwable error) {
+            failure.accept(error);
+        }
+    }
+}
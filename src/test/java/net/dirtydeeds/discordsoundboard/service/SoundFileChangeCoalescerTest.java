@@ -0,0 +1,157 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the coalescer on a clock and a scheduler the test advances by hand.
+ */
+public class SoundFileChangeCoalescerTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<ScheduledTask> tasks = new ArrayList<>();
+    /** The changes of every reconcile and the time it ran at, in ms. */
+    private final List<List<SoundFileChange>> reconciled = new ArrayList<>();
+    private final List<Long> reconciledAt = new ArrayList<>();
+    private long now;
+    private SoundFileChangeCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        DiscordSoundboardProperties properties = new DiscordSoundboardProperties();
+        properties.setFileChangeQuietPeriodMs(500);
+        properties.setFileChangeMaxDelayMs(5000);
+
+        SoundCatalogSync soundCatalogSync = mock(SoundCatalogSync.class);
+        when(soundCatalogSync.apply(anyCollection())).thenAnswer(invocation -> {
+            reconciled.add(new ArrayList<>(invocation.<Collection<SoundFileChange>>getArgument(0)));
+            reconciledAt.add(now / MILLI);
+            return null;
+        });
+
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            long delay = invocation.<TimeUnit>getArgument(2).toNanos(invocation.getArgument(1));
+            ScheduledTask task = new ScheduledTask(invocation.getArgument(0), now + delay);
+            tasks.add(task);
+            return task;
+        });
+
+        coalescer = new SoundFileChangeCoalescer(properties, soundCatalogSync, executor, () -> now);
+    }
+
+    @Test
+    public void reconcilesABurstOnceAfterTheQuietPeriod() {
+        for (int i = 0; i < 20; i++) {
+            coalescer.submit(change(SoundFileChange.Kind.ADDED, "sound" + (i % 10) + ".mp3"));
+            advance(100);
+        }
+        advance(399);
+        assertTrue("reconciled before the quiet period passed", reconciled.isEmpty());
+
+        advance(1);
+        assertEquals(Collections.singletonList(2400L), reconciledAt);
+        assertEquals("every path once", 10, reconciled.get(0).size());
+        assertEquals(20, coalescer.getEventsReceived());
+        assertEquals(1, coalescer.getReconciles());
+
+        advance(10000);
+        assertEquals(1, reconciled.size());
+    }
+
+    @Test
+    public void flushesAnEndlessTrickleAtTheMaxDelay() {
+        // A change every 300 ms never leaves a quiet period of 500 ms.
+        for (int i = 0; i < 60; i++) {
+            coalescer.submit(change(SoundFileChange.Kind.MODIFIED, "sound" + i + ".mp3"));
+            advance(300);
+        }
+
+        // Each burst starts with the first change after the previous reconcile.
+        assertEquals(Arrays.asList(5000L, 10100L, 15200L), reconciledAt);
+        assertEquals("changes at 0 to 4800 ms", 17, reconciled.get(0).size());
+        assertEquals(3, coalescer.getReconciles());
+    }
+
+    @Test
+    public void keepsTheLastChangeOfEveryPath() {
+        coalescer.submit(change(SoundFileChange.Kind.ADDED, "a.mp3"));
+        coalescer.submit(change(SoundFileChange.Kind.ADDED, "b.mp3"));
+        coalescer.submit(change(SoundFileChange.Kind.MODIFIED, "a.mp3"));
+        coalescer.submit(change(SoundFileChange.Kind.ADDED, "c.mp3"));
+        coalescer.submit(change(SoundFileChange.Kind.REMOVED, "a.mp3"));
+        advance(500);
+
+        assertEquals(1, reconciled.size());
+        assertEquals(Arrays.asList("ADDED b.mp3", "ADDED c.mp3", "REMOVED a.mp3"), describe(reconciled.get(0)));
+    }
+
+    @Test
+    public void anOverflowReplacesTheBurstWithAFullReconcile() {
+        coalescer.submit(change(SoundFileChange.Kind.ADDED, "a.mp3"));
+        coalescer.submit(SoundFileChange.overflow());
+        coalescer.submit(change(SoundFileChange.Kind.ADDED, "b.mp3"));
+        advance(500);
+
+        assertEquals(1, reconciled.size());
+        assertEquals(Collections.singletonList("OVERFLOW"), describe(reconciled.get(0)));
+
+        coalescer.submit(change(SoundFileChange.Kind.REMOVED, "b.mp3"));
+        advance(500);
+        assertEquals(Collections.singletonList("REMOVED b.mp3"), describe(reconciled.get(1)));
+    }
+
+    private void advance(long millis) {
+        for (long i = 0; i < millis; i++) {
+            now += MILLI;
+            for (ScheduledTask task : new ArrayList<>(tasks)) {
+                if (task.dueAt <= now && !task.isDone()) {
+                    tasks.remove(task);
+                    task.run();
+                }
+            }
+        }
+    }
+
+    private static SoundFileChange change(SoundFileChange.Kind kind, String path) {
+        return new SoundFileChange(kind, Paths.get(path));
+    }
+
+    private static List<String> describe(List<SoundFileChange> changes) {
+        List<String> described = new ArrayList<>();
+        for (SoundFileChange change : changes) {
+            described.add(change.toString());
+        }
+        return described;
+    }
+
+    private class ScheduledTask extends FutureTask<Void> implements ScheduledFuture<Void> {
+
+        private final long dueAt;
+
+        ScheduledTask(Runnable runnable, long dueAt) {
+            super(runnable, null);
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - now, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.beans.PlayEventFilenameCount;
+import net.dirtydeeds.discordsoundboard.beans.SoundFile;
+import net.dirtydeeds.discordsoundboard.repository.PlayEventRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SoundFileSamplerTest {
+
+    /** Play counts of the sounds, 13 of them so the Fenwick tree is not a power of two. */
+    private static final int[] PLAYS = {0, 5, 1, 0, 12, 3, 0, 0, 7, 2, 0, 1, 30};
+
+    private SoundCatalog soundCatalog;
+    private PlayEventRepository playEventRepository;
+
+    @Before
+    public void setUp() {
+        soundCatalog = new SoundCatalog();
+        List<SoundFile> soundFiles = new ArrayList<>();
+        List<PlayEventFilenameCount> counts = new ArrayList<>();
+        for (int i = 0; i < PLAYS.length; i++) {
+            soundFiles.add(new SoundFile("sound" + i, "sounds/sound" + i + ".mp3", "sounds", new Date(0), 1L));
+            if (PLAYS[i] > 0) {
+                // Play events store the file name in any case.
+                counts.add(count("SOUND" + i, PLAYS[i]));
+            }
+        }
+        soundCatalog.replace(soundFiles);
+        playEventRepository = mock(PlayEventRepository.class);
+        when(playEventRepository.getFilenameCount()).thenReturn(counts);
+    }
+
+    @Test
+    public void weighsEverySoundByItsPlaysPlusOne() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+
+        assertWeights(sampler, PLAYS);
+    }
+
+    @Test
+    public void countsRecordedPlaysInTheWeights() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+        assertWeights(sampler, PLAYS);
+
+        int[] plays = PLAYS.clone();
+        for (int i : new int[]{0, 3, 3, 12, 7, 7, 7}) {
+            sampler.recordPlay("Sound" + i);
+            plays[i]++;
+        }
+        sampler.recordPlay("not in the catalog");
+
+        assertWeights(sampler, plays);
+    }
+
+    @Test
+    public void reindexesWhenTheCatalogChanges() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+        assertWeights(sampler, PLAYS);
+
+        soundCatalog.apply(Collections.emptyList(), Collections.singletonList("sound12"));
+        sampler.recordPlay("sound4");
+
+        int[] plays = Arrays.copyOf(PLAYS, 12);
+        plays[4]++;
+        assertWeights(sampler, plays);
+    }
+
+    @Test
+    public void weightedRandomFollowsTheWeights() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+        Map<String, Integer> picks = new HashMap<>();
+        int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            picks.merge(sampler.weightedRandom().getSoundFileId(), 1, Integer::sum);
+        }
+
+        long total = sampler.getTotalWeight();
+        for (int i = 0; i < PLAYS.length; i++) {
+            double expected = (double) samples * (PLAYS[i] + 1) / total;
+            int actual = picks.getOrDefault("sound" + i, 0);
+            // Six standard deviations, a correct sampler fails this about once in a billion runs.
+            assertEquals("sound" + i, expected, actual, 6 * Math.sqrt(expected));
+        }
+    }
+
+    @Test
+    public void randomTopPicksOnlyFromTheMostPlayed() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+
+        assertEquals(set("sound12"), pickAll(() -> sampler.randomTop(1)));
+        assertEquals(set("sound12", "sound4", "sound8"), pickAll(() -> sampler.randomTop(3)));
+    }
+
+    @Test
+    public void randomBottomPicksOnlyFromTheLeastPlayed() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+
+        assertEquals(set("sound2", "sound11"), pickAll(() -> sampler.randomBottom(2)));
+        assertEquals(set("sound2", "sound11", "sound9"), pickAll(() -> sampler.randomBottom(3)));
+    }
+
+    @Test
+    public void picksFromAllPlayedSoundsWhenAskedForMore() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+        Set<String> played = set("sound1", "sound2", "sound4", "sound5", "sound8", "sound9", "sound11", "sound12");
+
+        assertEquals(played, pickAll(() -> sampler.randomTop(100)));
+        assertEquals(played, pickAll(() -> sampler.randomBottom(100)));
+        assertEquals(set("sound12"), pickAll(() -> sampler.randomTop(0)));
+    }
+
+    @Test
+    public void rankingFollowsRecordedPlays() {
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+        assertEquals(set("sound12"), pickAll(() -> sampler.randomTop(1)));
+
+        for (int i = 0; i < 40; i++) {
+            sampler.recordPlay("sound6");
+        }
+
+        assertEquals(set("sound6"), pickAll(() -> sampler.randomTop(1)));
+    }
+
+    @Test
+    public void returnsNullForAnEmptyCatalog() {
+        SoundFileSampler sampler = new SoundFileSampler(new SoundCatalog(), playEventRepository);
+
+        assertEquals(0, sampler.getTotalWeight());
+        assertNull(sampler.random());
+        assertNull(sampler.weightedRandom());
+        assertNull(sampler.randomTop(5));
+        assertNull(sampler.randomBottom(5));
+        sampler.recordPlay("sound1");
+        assertNull(sampler.weightedRandom());
+    }
+
+    @Test
+    public void returnsNullWhenNothingWasPlayed() {
+        when(playEventRepository.getFilenameCount()).thenReturn(Collections.emptyList());
+        SoundFileSampler sampler = new SoundFileSampler(soundCatalog, playEventRepository);
+
+        assertNull(sampler.randomTop(5));
+        assertNull(sampler.randomBottom(5));
+        assertNotNull(sampler.weightedRandom());
+    }
+
+    /**
+     * Walks every point of the cumulative weights, each sound has to own exactly as many of them as it weighs.
+     */
+    private static void assertWeights(SoundFileSampler sampler, int[] plays) {
+        long expectedTotal = 0;
+        for (int count : plays) {
+            expectedTotal += count + 1;
+        }
+        assertEquals(expectedTotal, sampler.getTotalWeight());
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (long target = 0; target < expectedTotal; target++) {
+            owned.merge(sampler.weightedAt(target).getSoundFileId(), 1, Integer::sum);
+        }
+        for (int i = 0; i < plays.length; i++) {
+            assertEquals("sound" + i, Integer.valueOf(plays[i] + 1), owned.get("sound" + i));
+        }
+    }
+
+    private static Set<String> pickAll(Supplier<SoundFile> picker) {
+        Set<String> picked = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            picked.add(picker.get().getSoundFileId());
+        }
+        return picked;
+    }
+
+    private static Set<String> set(String... soundFileIds) {
+        return new HashSet<>(Arrays.asList(soundFileIds));
+    }
+
+    private static PlayEventFilenameCount count(String filename, int count) {
+        return new PlayEventFilenameCount() {
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+
+            @Override
+            public int getCount() {
+                return count;
+            }
+        };
+    }
+}
@@ -0,0 +1,162 @@
+package net.dirtydeeds.discordsoundboard.service;
+
+import net.dirtydeeds.discordsoundboard.DiscordSoundboardProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SoundPlayerRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final DiscordSoundboardProperties properties = new DiscordSoundboardProperties();
+    private long now = 1000 * SECOND;
+    private SoundPlayerRateLimiter rateLimiter;
+
+    @Before
+    public void setUp() {
+        // One token per second, up to 3.
+        properties.setRateLimitTokensPerMinute(60);
+        properties.setRateLimitBurst(3);
+    }
+
+    @After
+    public void tearDown() {
+        if (rateLimiter != null) {
+            rateLimiter.shutdown();
+        }
+    }
+
+    @Test
+    public void allowsABurstThenLimits() {
+        start();
+
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+        assertEquals(1, rateLimiter.getLimitedCount());
+    }
+
+    @Test
+    public void refillsOneTokenPerInterval() {
+        start();
+        for (int i = 0; i < 3; i++) {
+            assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+        }
+
+        now += SECOND - 1;
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+        now += 1;
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+    }
+
+    @Test
+    public void refillsNoMoreThanTheBurst() {
+        start();
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+
+        now += TimeUnit.HOURS.toNanos(1);
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 3));
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+    }
+
+    @Test
+    public void aRefusedRequestTakesNoTokens() {
+        start();
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 2));
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 2));
+
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+    }
+
+    @Test
+    public void capsTheCostAtTheBurst() {
+        start();
+
+        assertFalse("a request costing more than the burst takes a full bucket",
+                rateLimiter.userIsRateLimited("user", "guild", 10));
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+        now += 3 * SECOND;
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 10));
+    }
+
+    @Test
+    public void takesAtLeastOneToken() {
+        start();
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(rateLimiter.userIsRateLimited("user", "guild", 0));
+        }
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", -1));
+    }
+
+    @Test
+    public void keepsABucketPerUserAndGuild() {
+        start();
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 3));
+
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+        assertFalse(rateLimiter.userIsRateLimited("user", "other guild", 1));
+        assertFalse(rateLimiter.userIsRateLimited("other user", "guild", 1));
+        assertFalse(rateLimiter.userIsRateLimited("user", null, 1));
+    }
+
+    @Test
+    public void neverLimitsUnlimitedUsers() {
+        properties.setUnlimitedUserIds(Collections.singleton("admin"));
+        start();
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(rateLimiter.userIsRateLimited("admin", "guild", 3));
+        }
+        assertEquals(0, rateLimiter.getLimitedCount());
+    }
+
+    @Test
+    public void neverLimitsWithoutARate() {
+        properties.setRateLimitTokensPerMinute(0);
+        start();
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(rateLimiter.userIsRateLimited("user", "guild", 3));
+        }
+    }
+
+    @Test
+    public void fallsBackToOneRequestPerRestrictDuration() {
+        properties.setRateLimitTokensPerMinute(0);
+        properties.setRateLimitRestrictDuration(5);
+        start();
+
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 1));
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+        now += 5 * SECOND - 1;
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+        now += 1;
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 3));
+        assertTrue(rateLimiter.userIsRateLimited("user", "guild", 1));
+    }
+
+    @Test
+    public void sweptBucketsStartFull() {
+        start();
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 3));
+
+        rateLimiter.sweep();
+        assertTrue("a bucket that is not full is kept", rateLimiter.userIsRateLimited("user", "guild", 1));
+        now += 3 * SECOND;
+        rateLimiter.sweep();
+        assertFalse(rateLimiter.userIsRateLimited("user", "guild", 3));
+    }
+
+    private void start() {
+        rateLimiter = new SoundPlayerRateLimiter(properties, () -> now);
+    }
+}